@@ -0,0 +1,114 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import assembler.asm.Assembly;
+import assembler.asm.ObjectModule;
+import assembler.util.InvalidAssemblyException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link FactorioAssembler#build(String)}, {@link ParallelAssembler#build(String)}, {@link Assembly#applyLinker()} and {@link Assembly#addModule(ObjectModule)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark
+{
+    @Param({"test1.s", "test_hello_world.s", "test_hello_world_subroutine.s", "test_input_output.s", "synthetic-256", "synthetic-4096", "synthetic-32768"})
+    public String program;
+
+    private String source;
+
+    @Setup
+    public void setup()
+    {
+        source = Programs.load(program);
+    }
+
+    @Benchmark
+    public Assembly build() throws InvalidAssemblyException
+    {
+        return FactorioAssembler.build(source);
+    }
+
+    @Benchmark
+    public Assembly buildStreaming() throws InvalidAssemblyException, IOException
+    {
+        return FactorioAssembler.build(new StringReader(source));
+    }
+
+    @Benchmark
+    public Assembly buildParallel() throws InvalidAssemblyException
+    {
+        return new ParallelAssembler(Runtime.getRuntime().availableProcessors()).build(source);
+    }
+
+    /**
+     * Linking modifies the assembly, so each invocation needs a freshly compiled one
+     */
+    @State(Scope.Thread)
+    public static class Unlinked
+    {
+        Assembly assembly;
+
+        @Setup(Level.Invocation)
+        public void setup(AssemblerBenchmark benchmark) throws InvalidAssemblyException
+        {
+            assembly = FactorioAssembler.compile(benchmark.source);
+        }
+    }
+
+    @Benchmark
+    public Assembly applyLinker(Unlinked unlinked) throws InvalidAssemblyException
+    {
+        unlinked.assembly.applyLinker();
+        return unlinked.assembly;
+    }
+
+    /**
+     * The program, assembled as an object module once, so linking only relocates it
+     */
+    @State(Scope.Thread)
+    public static class Module
+    {
+        ObjectModule module;
+
+        @Setup
+        public void setup(AssemblerBenchmark benchmark) throws InvalidAssemblyException
+        {
+            module = ObjectModule.of(FactorioAssembler.compile(benchmark.source));
+        }
+    }
+
+    @Benchmark
+    public Assembly linkModule(Module module) throws InvalidAssemblyException
+    {
+        Assembly assembly = new Assembly();
+        assembly.addModule(module.module);
+        assembly.applyLinker();
+        return assembly;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import assembler.util.Helpers;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Benchmark inputs. These are either the programs in src/test/resources, or synthetic programs named {@code synthetic-N}, of approximately N words.
+ */
+public final class Programs
+{
+    @NotNull
+    public static String load(@NotNull String name)
+    {
+        if (name.startsWith("synthetic-"))
+        {
+            return synthetic(Integer.parseInt(name.substring("synthetic-".length())));
+        }
+        return Helpers.loadResource(name);
+    }
+
+    /**
+     * Generates a program of blocks of 13 words each. Each block has a loop, a subroutine call, and forward and backward references to labels, with the same mix of comments and spacing as the test programs.
+     */
+    @NotNull
+    public static String synthetic(int words)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# Synthetic program of ").append(words).append(" words\n");
+        builder.append("    movia   sp, LAST_RAM_LOC# init stack pointer\n");
+        for (int block = 0; (block + 1) * 13 + 4 <= words; block++)
+        {
+            builder.append("block").append(block).append(":\n")
+                .append("    movia   r2, CHAR_OUT_LOC# display memory address\n")
+                .append("    movi    r5, 16          # counter\n")
+                .append("block").append(block).append("_loop:\n")
+                .append("    stw     r0, 0(r2)\n")
+                .append("    subi    r5, r5, 1\n")
+                .append("    addi    r2, r2, 0x1\n")
+                .append("    bgt     r5, r0, block").append(block).append("_loop\n")
+                .append("    call    sub").append(block).append("     # forward reference\n")
+                .append("    br      block").append(block).append("_end\n")
+                .append("sub").append(block).append(":\n")
+                .append("    ldw     r4, 0(sp)\n")
+                .append("    muli    r4, r4, 0b11\n")
+                .append("    ret\n")
+                .append("block").append(block).append("_end:\n");
+        }
+        builder.append("    exit\n");
+        return builder.toString();
+    }
+
+    private Programs() {}
+}
@@ -0,0 +1,59 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import java.util.concurrent.TimeUnit;
+
+import assembler.FactorioAssembler;
+import assembler.Programs;
+import assembler.util.InvalidAssemblyException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link Disassembler#listing(ProgramImage)} and {@link Disassembler#labels(ProgramImage)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisassemblerBenchmark
+{
+    @Param({"test_hello_world_subroutine.s", "test_keyboard.s", "synthetic-256", "synthetic-1024"})
+    public String program;
+
+    private ProgramImage image;
+
+    @Setup
+    public void setup() throws InvalidAssemblyException
+    {
+        image = FactorioAssembler.build(Programs.load(program)).getImage();
+    }
+
+    @Benchmark
+    public String listing()
+    {
+        return Disassembler.listing(image);
+    }
+
+    @Benchmark
+    public String[] labels()
+    {
+        return Disassembler.labels(image);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.blueprint;
+
+import java.util.concurrent.TimeUnit;
+
+import assembler.FactorioAssembler;
+import assembler.Programs;
+import assembler.asm.Assembly;
+import assembler.util.InvalidAssemblyException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link Blueprints#encode(Assembly)} and {@link Blueprints#decode(String)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlueprintsBenchmark
+{
+    @Param({"test1.s", "test_hello_world.s", "test_hello_world_subroutine.s", "test_input_output.s", "synthetic-256", "synthetic-1024"})
+    public String program;
+
+    private Assembly assembly;
+    private String blueprint;
+
+    @Setup
+    public void setup() throws InvalidAssemblyException
+    {
+        assembly = FactorioAssembler.build(Programs.load(program));
+        blueprint = Blueprints.encode(assembly);
+    }
+
+    @Benchmark
+    public String encode()
+    {
+        return Blueprints.encode(assembly);
+    }
+
+    @Benchmark
+    public String decode()
+    {
+        return Blueprints.decode(blueprint);
+    }
+}
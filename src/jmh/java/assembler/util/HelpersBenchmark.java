@@ -0,0 +1,67 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link Helpers#parseImmediate(String, int, boolean)}, over a mix of the immediate formats seen in programs
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelpersBenchmark
+{
+    private static final String[] DECIMAL = {"0", "1", "16", "-1", "-32", "31", "8", "-17"};
+    private static final String[] HEX = {"0x0", "0x1", "0x1F", "0x10", "0xA", "0x3F", "0x2b", "0x07"};
+    private static final String[] BINARY = {"0b0", "0b1", "0b11", "0b101010", "0b111111", "0b1000", "0b10", "0b0110"};
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void parseDecimal(Blackhole blackhole) throws InvalidAssemblyException
+    {
+        for (String input : DECIMAL)
+        {
+            blackhole.consume(Helpers.parseImmediate(input, 6, true));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void parseHex(Blackhole blackhole) throws InvalidAssemblyException
+    {
+        for (String input : HEX)
+        {
+            blackhole.consume(Helpers.parseImmediate(input, 6, false));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void parseBinary(Blackhole blackhole) throws InvalidAssemblyException
+    {
+        for (String input : BINARY)
+        {
+            blackhole.consume(Helpers.parseImmediate(input, 6, false));
+        }
+    }
+}
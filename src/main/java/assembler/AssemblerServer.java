@@ -0,0 +1,234 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import assembler.asm.Assembly;
+import assembler.asm.ProgramImage;
+import assembler.blueprint.Blueprints;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A long lived assembler, which accepts requests over a loopback TCP socket. This avoids paying for JVM startup and template loading on every file.
+ * Each client connection is handled on its own thread, and can send any number of requests.
+ *
+ * Requests are a header line, followed by the source text (UTF-8):
+ * {@code ASSEMBLE <length in bytes>\n<source>} responds with the encoded words, one per line
+ * {@code BLUEPRINT <length in bytes>\n<source>} responds with the blueprint string
+ *
+ * Responses are either {@code OK <length in bytes>\n<payload>}, or {@code ERROR <length in bytes>\n<message>}. Errors from assembling give the line and column of the error, if it is for a single line, and the included file it is in.
+ * Files given by {@code .include} are relative to the working directory of the server, and are linked from a single {@link ObjectCache}, which is kept for the life of the server.
+ *
+ * @author Alex O'Neill
+ */
+public final class AssemblerServer implements Closeable
+{
+    public static final int DEFAULT_PORT = 7270;
+
+    private static final int MAX_HEADER_LENGTH = 64;
+    private static final int MAX_SOURCE_LENGTH = 1 << 20;
+
+    private final ServerSocketChannel server;
+    private final ExecutorService executor;
+    private final ModuleLinker linker;
+
+    /**
+     * @param port The port to listen on, or zero for any free port
+     * @throws IOException if the socket could not be bound
+     */
+    public AssemblerServer(int port) throws IOException
+    {
+        this(port, new ObjectCache(null));
+    }
+
+    /**
+     * @param port  The port to listen on, or zero for any free port
+     * @param cache The cache for modules of included files
+     * @throws IOException if the socket could not be bound
+     */
+    public AssemblerServer(int port, @NotNull ObjectCache cache) throws IOException
+    {
+        this.linker = new ModuleLinker(cache);
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "Assembler Server Client");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getPort() throws IOException
+    {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Accepts clients until the server is closed. This blocks the calling thread.
+     */
+    public void serve() throws IOException
+    {
+        // Warm up the blueprint codec before the first client arrives
+        Blueprints.encode(new Assembly());
+
+        while (server.isOpen())
+        {
+            SocketChannel client;
+            try
+            {
+                client = server.accept();
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            catch (ClosedChannelException e)
+            {
+                return;
+            }
+            executor.execute(() -> handle(client));
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private void handle(SocketChannel client)
+    {
+        try (SocketChannel channel = client;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+             OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel)))
+        {
+            String header;
+            while ((header = readHeader(input)) != null)
+            {
+                String[] parts = header.trim().split(" ");
+                int length;
+                try
+                {
+                    length = parts.length == 2 ? Integer.parseInt(parts[1]) : -1;
+                }
+                catch (NumberFormatException e)
+                {
+                    length = -1;
+                }
+                if (length < 0 || length > MAX_SOURCE_LENGTH)
+                {
+                    // The rest of the stream can't be read without a valid length, so the connection is closed
+                    respond(output, false, "Invalid request: " + header);
+                    return;
+                }
+
+                byte[] source = new byte[length];
+                input.readFully(source);
+                handle(output, parts[0], new String(source, StandardCharsets.UTF_8));
+                output.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            // The client disconnected
+        }
+    }
+
+    private void handle(OutputStream output, String command, String source) throws IOException
+    {
+        if (!command.equals("ASSEMBLE") && !command.equals("BLUEPRINT"))
+        {
+            respond(output, false, "Unknown command: " + command);
+            return;
+        }
+
+        Assembly asm;
+        try
+        {
+            asm = FactorioAssembler.compile(source);
+            linker.link(asm, null);
+            asm.applyLinker();
+        }
+        catch (InvalidAssemblyException e)
+        {
+            // Only the position is sent, as the debug data contains the whole assembly
+            respond(output, false, e.getLine() == 0 ? e.getMessage() : e.getMessage() + " (line " + e.getLine() + ", column " + e.getColumn() + ")");
+            return;
+        }
+        catch (IOException e)
+        {
+            respond(output, false, "Can't read included file: " + e.getMessage());
+            return;
+        }
+
+        if (command.equals("ASSEMBLE"))
+        {
+            ProgramImage image = asm.getImage();
+            StringBuilder words = new StringBuilder(image.size() * 6);
+            for (int address = 0; address < image.size(); address++)
+            {
+                words.append(image.getWord(address)).append('\n');
+            }
+            respond(output, true, words.toString());
+        }
+        else
+        {
+            String blueprint = Blueprints.encode(asm);
+            if (blueprint == null)
+            {
+                respond(output, false, "Unable to create blueprint");
+                return;
+            }
+            respond(output, true, blueprint);
+        }
+    }
+
+    private static void respond(OutputStream output, boolean success, String payload) throws IOException
+    {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        output.write(((success ? "OK " : "ERROR ") + bytes.length + "\n").getBytes(StandardCharsets.US_ASCII));
+        output.write(bytes);
+    }
+
+    /**
+     * @return the next header line, or null if the client has closed the connection
+     */
+    private static String readHeader(InputStream input) throws IOException
+    {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = input.read()) != '\n')
+        {
+            if (c == -1)
+            {
+                return null;
+            }
+            if (builder.length() == MAX_HEADER_LENGTH)
+            {
+                throw new IOException("Header too long");
+            }
+            builder.append((char) c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import assembler.asm.Assembly;
+import assembler.asm.ProgramImage;
+import assembler.blueprint.BlueprintCodec;
+import assembler.blueprint.Blueprints;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Assembles many source files in parallel, on a fork-join pool.
+ * Inputs can be files, directories (which are searched recursively for .s files) or glob patterns, i.e. {@code programs/**.s}
+ * Included files are linked from a single {@link ObjectCache}, so a file included by many sources is only assembled once.
+ * Blueprints are encoded with a {@link BlueprintCodec} for each thread, which are all ended once the batch is finished.
+ *
+ * @author Alex O'Neill
+ */
+public final class BatchAssembler
+{
+    static final String SOURCE_EXTENSION = ".s";
+    static final String BLUEPRINT_EXTENSION = ".blueprint";
+    private static final String IMAGE_EXTENSION = ".bin";
+
+    /**
+     * Finds all source files for the given inputs. The result is ordered and contains no duplicates.
+     *
+     * @param inputs Files, directories or glob patterns
+     * @return the source files
+     * @throws IOException if a directory could not be searched
+     */
+    @NotNull
+    public static List<Path> findSources(@NotNull List<String> inputs) throws IOException
+    {
+        return findFiles(inputs, SOURCE_EXTENSION);
+    }
+
+    /**
+     * Finds all files for the given inputs. Directories are searched for files with the given extension. The result is ordered and contains no duplicates.
+     *
+     * @param inputs Files, directories or glob patterns
+     * @return the files
+     * @throws IOException if a directory could not be searched
+     */
+    @NotNull
+    static List<Path> findFiles(@NotNull List<String> inputs, @NotNull String extension) throws IOException
+    {
+        Set<Path> sources = new LinkedHashSet<>();
+        for (String input : inputs)
+        {
+            if (isGlob(input))
+            {
+                Path root = globRoot(input);
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input.replace('\\', '/'));
+                try (Stream<Path> paths = Files.walk(root))
+                {
+                    paths.filter(Files::isRegularFile).filter(matcher::matches).sorted().forEach(sources::add);
+                }
+            }
+            else
+            {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path))
+                {
+                    try (Stream<Path> paths = Files.walk(path))
+                    {
+                        paths.filter(Files::isRegularFile).filter(p -> p.toString().endsWith(extension)).sorted().forEach(sources::add);
+                    }
+                }
+                else
+                {
+                    sources.add(path);
+                }
+            }
+        }
+        return new ArrayList<>(sources);
+    }
+
+    private static boolean isGlob(String input)
+    {
+        for (int i = 0; i < input.length(); i++)
+        {
+            switch (input.charAt(i))
+            {
+                case '*':
+                case '?':
+                case '[':
+                case '{':
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the deepest directory which contains no glob characters, which is where the search starts
+     */
+    private static Path globRoot(String glob)
+    {
+        String normalized = glob.replace('\\', '/');
+        int end = normalized.length();
+        for (int i = 0; i < normalized.length(); i++)
+        {
+            if (isGlob(normalized.substring(i, i + 1)))
+            {
+                end = i;
+                break;
+            }
+        }
+        int separator = normalized.lastIndexOf('/', end);
+        return separator == -1 ? Paths.get("") : Paths.get(separator == 0 ? "/" : normalized.substring(0, separator));
+    }
+
+    private final boolean writeImage;
+    private final boolean writeBlueprint;
+    private final boolean optimize;
+    private final int parallelism;
+    private final ModuleLinker linker;
+    private final ThreadLocal<BlueprintCodec> codec;
+    private final Queue<BlueprintCodec> codecs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param writeImage     If the binary ROM image should be written next to each source file
+     * @param writeBlueprint If the blueprint string should be written next to each source file
+     * @param parallelism    The number of threads to use
+     */
+    public BatchAssembler(boolean writeImage, boolean writeBlueprint, int parallelism)
+    {
+        this(writeImage, writeBlueprint, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, false, parallelism, new ObjectCache(null));
+    }
+
+    /**
+     * @param level    The compression level of blueprint strings, see {@link BlueprintCodec#BlueprintCodec(int, int)}
+     * @param strategy The compression strategy of blueprint strings
+     * @param optimize If the peephole optimizer is run on each source, as by {@code -O}
+     * @param cache    The cache for modules of included files, shared by all sources
+     * @throws IllegalArgumentException if blueprints are written, and the level or strategy is invalid
+     */
+    public BatchAssembler(boolean writeImage, boolean writeBlueprint, int level, int strategy, boolean optimize, int parallelism, @NotNull ObjectCache cache)
+    {
+        this.writeImage = writeImage;
+        this.writeBlueprint = writeBlueprint;
+        this.optimize = optimize;
+        this.parallelism = parallelism;
+        this.linker = new ModuleLinker(cache);
+        this.codec = ThreadLocal.withInitial(() -> {
+            BlueprintCodec created = new BlueprintCodec(level, strategy);
+            codecs.add(created);
+            return created;
+        });
+        if (writeBlueprint)
+        {
+            // Fail before assembling anything, rather than for every source
+            codec.get();
+        }
+    }
+
+    /**
+     * Assembles every source in parallel. This blocks until all sources are finished.
+     *
+     * @return the results, in the same order as the sources
+     */
+    @NotNull
+    public List<Result> assemble(@NotNull List<Path> sources)
+    {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            return pool.submit(() -> sources.parallelStream().map(this::assemble).collect(Collectors.toList())).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during batch assembly", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Unknown exception during batch assembly. This is a bug!", e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+            codec.remove();
+            BlueprintCodec next;
+            while ((next = codecs.poll()) != null)
+            {
+                next.end();
+            }
+        }
+    }
+
+    @NotNull
+    private Result assemble(@NotNull Path source)
+    {
+        long startTime = System.nanoTime();
+        if (!Files.isRegularFile(source))
+        {
+            return new Result(source, null, "Can't find file", System.nanoTime() - startTime);
+        }
+        Assembly asm;
+        try
+        {
+            asm = linker.build(source, optimize);
+        }
+        catch (InvalidAssemblyException e)
+        {
+            return new Result(source, null, e.getMessage(), System.nanoTime() - startTime);
+        }
+        catch (IOException e)
+        {
+            return new Result(source, null, "Can't read file: " + e.getMessage(), System.nanoTime() - startTime);
+        }
+        try
+        {
+            if (writeImage)
+            {
+                try (OutputStream output = Files.newOutputStream(sibling(source, IMAGE_EXTENSION)))
+                {
+                    writeImage(asm, output);
+                }
+            }
+            if (writeBlueprint)
+            {
+                try (OutputStream output = Files.newOutputStream(sibling(source, BLUEPRINT_EXTENSION)))
+                {
+                    Blueprints.encode(asm, codec.get(), output);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            return new Result(source, asm, "Unable to write output: " + e.getMessage(), System.nanoTime() - startTime);
+        }
+        return new Result(source, asm, null, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Writes the ROM image as consecutive 16-bit big endian words
+     */
+    public static void writeImage(@NotNull Assembly asm, @NotNull OutputStream output) throws IOException
+    {
+        ProgramImage words = asm.getImage();
+        byte[] image = new byte[words.size() * 2];
+        int pos = 0;
+        for (int address = 0; address < words.size(); address++)
+        {
+            int encoded = words.getWord(address);
+            image[pos++] = (byte) (encoded >> 8);
+            image[pos++] = (byte) encoded;
+        }
+        output.write(image);
+    }
+
+    private static Path sibling(Path source, String extension)
+    {
+        String fileName = source.getFileName().toString();
+        if (fileName.endsWith(SOURCE_EXTENSION))
+        {
+            fileName = fileName.substring(0, fileName.length() - SOURCE_EXTENSION.length());
+        }
+        return source.resolveSibling(fileName + extension);
+    }
+
+    public static final class Result
+    {
+        private final Path source;
+        private final Assembly assembly;
+        private final String error;
+        private final long nanos;
+
+        Result(Path source, @Nullable Assembly assembly, @Nullable String error, long nanos)
+        {
+            this.source = source;
+            this.assembly = assembly;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        @NotNull
+        public Path getSource()
+        {
+            return source;
+        }
+
+        @Nullable
+        public Assembly getAssembly()
+        {
+            return assembly;
+        }
+
+        @Nullable
+        public String getError()
+        {
+            return error;
+        }
+
+        public boolean isSuccess()
+        {
+            return error == null;
+        }
+
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (isSuccess())
+            {
+                return String.format("[ OK ] %s (%d words, %.2f ms)", source, assembly.size(), nanos / 1_000_000.0);
+            }
+            return String.format("[FAIL] %s: %s", source, error);
+        }
+    }
+}
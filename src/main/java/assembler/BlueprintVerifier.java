@@ -0,0 +1,205 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import assembler.asm.Assembly;
+import assembler.asm.Disassembler;
+import assembler.asm.ProgramImage;
+import assembler.blueprint.Blueprints;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Checks saved blueprint strings against their sources, in parallel on a fork-join pool.
+ * Each {@code .blueprint} file is compared with the {@code .s} file next to it, word for word. ROM addresses past the end of the program must be zero.
+ * Files included by the sources are linked from a single {@link ObjectCache}. Blueprints which were written from optimized builds must be verified with the optimizer enabled.
+ *
+ * @author Alex O'Neill
+ */
+public final class BlueprintVerifier
+{
+    /**
+     * Finds all blueprint files for the given inputs. The result is ordered and contains no duplicates.
+     *
+     * @param inputs Files, directories (which are searched recursively for .blueprint files) or glob patterns
+     * @return the blueprint files
+     * @throws IOException if a directory could not be searched
+     */
+    @NotNull
+    public static List<Path> findBlueprints(@NotNull List<String> inputs) throws IOException
+    {
+        return BatchAssembler.findFiles(inputs, BatchAssembler.BLUEPRINT_EXTENSION);
+    }
+
+    private final int parallelism;
+    private final boolean optimize;
+    private final ModuleLinker linker;
+
+    public BlueprintVerifier(int parallelism)
+    {
+        this(parallelism, false, new ObjectCache(null));
+    }
+
+    /**
+     * @param optimize If the peephole optimizer is run on each source, as by {@code -O}
+     * @param cache    The cache for modules of included files, shared by all sources
+     */
+    public BlueprintVerifier(int parallelism, boolean optimize, @NotNull ObjectCache cache)
+    {
+        this.parallelism = parallelism;
+        this.optimize = optimize;
+        this.linker = new ModuleLinker(cache);
+    }
+
+    /**
+     * Verifies every blueprint in parallel. This blocks until all blueprints are finished.
+     *
+     * @return the results, in the same order as the blueprints
+     */
+    @NotNull
+    public List<Result> verify(@NotNull List<Path> blueprints)
+    {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            return pool.submit(() -> blueprints.parallelStream().map(this::verify).collect(Collectors.toList())).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during blueprint verification", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Unknown exception during blueprint verification. This is a bug!", e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @NotNull
+    private Result verify(@NotNull Path blueprint)
+    {
+        long startTime = System.nanoTime();
+        Path source = source(blueprint);
+        if (!Files.isRegularFile(source))
+        {
+            return new Result(blueprint, "Can't find source file " + source, System.nanoTime() - startTime);
+        }
+        Assembly asm;
+        try
+        {
+            asm = linker.build(source, optimize);
+        }
+        catch (InvalidAssemblyException e)
+        {
+            return new Result(blueprint, "Source does not assemble: " + e.getMessage(), System.nanoTime() - startTime);
+        }
+        catch (IOException e)
+        {
+            return new Result(blueprint, "Can't read source file " + source + ": " + e.getMessage(), System.nanoTime() - startTime);
+        }
+
+        ProgramImage image;
+        try
+        {
+            // Saved blueprint strings often end with a new line
+            byte[] bytes = Files.readAllBytes(blueprint);
+            int length = bytes.length;
+            while (length > 0 && Character.isWhitespace(bytes[length - 1]))
+            {
+                length--;
+            }
+            image = Blueprints.importImage(new ByteArrayInputStream(bytes, 0, length));
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            return new Result(blueprint, "Invalid blueprint: " + e.getMessage(), System.nanoTime() - startTime);
+        }
+
+        ProgramImage expected = asm.getImage();
+        int address = expected.firstDifference(image);
+        if (address != -1)
+        {
+            int actual = address < image.size() ? image.getWord(address) : 0, assembled = address < expected.size() ? expected.getWord(address) : 0;
+            return new Result(blueprint, String.format("Address %d is %d (%s) in the blueprint, but %d (%s) in the source", address, actual, Disassembler.disassemble(actual), assembled, Disassembler.disassemble(assembled)), System.nanoTime() - startTime);
+        }
+        if (image.size() < expected.size())
+        {
+            return new Result(blueprint, String.format("Blueprint has %d words, but the source has %d", image.size(), expected.size()), System.nanoTime() - startTime);
+        }
+        return new Result(blueprint, null, System.nanoTime() - startTime);
+    }
+
+    private static Path source(Path blueprint)
+    {
+        String fileName = blueprint.getFileName().toString();
+        if (fileName.endsWith(BatchAssembler.BLUEPRINT_EXTENSION))
+        {
+            fileName = fileName.substring(0, fileName.length() - BatchAssembler.BLUEPRINT_EXTENSION.length());
+        }
+        return blueprint.resolveSibling(fileName + BatchAssembler.SOURCE_EXTENSION);
+    }
+
+    public static final class Result
+    {
+        private final Path blueprint;
+        private final String error;
+        private final long nanos;
+
+        Result(Path blueprint, @Nullable String error, long nanos)
+        {
+            this.blueprint = blueprint;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        @NotNull
+        public Path getBlueprint()
+        {
+            return blueprint;
+        }
+
+        @Nullable
+        public String getError()
+        {
+            return error;
+        }
+
+        public boolean isSuccess()
+        {
+            return error == null;
+        }
+
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (isSuccess())
+            {
+                return String.format("[ OK ] %s (%.2f ms)", blueprint, nanos / 1_000_000.0);
+            }
+            return String.format("[FAIL] %s: %s", blueprint, error);
+        }
+    }
+}
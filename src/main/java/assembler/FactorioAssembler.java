@@ -6,14 +6,44 @@
 
 package assembler;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
 import assembler.asm.Assembly;
+import assembler.asm.Disassembler;
+import assembler.asm.Instruction;
 import assembler.asm.InstructionTemplate;
 import assembler.asm.InstructionType;
+import assembler.asm.Lexer;
+import assembler.asm.Optimizer;
+import assembler.asm.ProgramImage;
+import assembler.blueprint.BlueprintCodec;
 import assembler.blueprint.Blueprints;
+import assembler.emulator.Profiler;
+import assembler.util.AssemblerEvents;
+import assembler.util.Diagnostic;
+import assembler.util.Diagnostics;
 import assembler.util.Helpers;
 import assembler.util.InvalidAssemblyException;
+import assembler.util.PhaseStats;
+import assembler.util.SourceReader;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -24,6 +54,10 @@ import org.jetbrains.annotations.Nullable;
  */
 public final class FactorioAssembler
 {
+    private static final long WATCH_SETTLE_MILLIS = 20;
+    private static final long DEFAULT_PROFILE_LIMIT = 10_000_000;
+    private static final String STDIN = "-";
+
     public static void main(String... args)
     {
         if (args.length == 0)
@@ -32,8 +66,11 @@ public final class FactorioAssembler
             return;
         }
 
-        String input = null, name = null;
-        boolean blueprint = false, debug = false, hasData = false;
+        String input = null, name = null, file = null, disassembleFile = null, profileFile = null, keyboardInput = null, cacheDirectory = ObjectCache.DEFAULT_DIRECTORY;
+        boolean blueprint = false, debug = false, hasData = false, write = false, watch = false, optimize = false, showStats = false, allErrors = false, parallel = false;
+        List<String> batchInputs = new ArrayList<>(), verifyInputs = new ArrayList<>();
+        int level = Deflater.DEFAULT_COMPRESSION, strategy = Deflater.DEFAULT_STRATEGY, serverPort = -1;
+        long profileLimit = DEFAULT_PROFILE_LIMIT;
         for (int i = 0; i < args.length; i++)
         {
             switch (args[i].toLowerCase())
@@ -45,18 +82,25 @@ public final class FactorioAssembler
                         System.out.println("Expected another argument after '" + args[i] + "'");
                         return;
                     }
-                    if (hasData)
+                    if (hasData || !batchInputs.isEmpty())
                     {
                         System.out.println("Can't specify multiple data input sources");
                         return;
                     }
-                    input = Helpers.loadFile(args[i + 1]);
-                    if (input == null)
+                    if (STDIN.equals(args[i + 1]))
+                    {
+                        name = "stdin";
+                    }
+                    else if (Files.isRegularFile(Paths.get(args[i + 1])))
+                    {
+                        name = args[i + 1].split("\\.")[0].replaceAll("[^a-zA-Z0-9_-]", "");
+                    }
+                    else
                     {
                         System.out.println("Can't find file '" + args[i + 1] + "'");
                         return;
                     }
-                    name = args[i + 1].split("\\.")[0].replaceAll("[^a-zA-Z0-9_-]", "");
+                    file = args[i + 1];
                     i++;
                     hasData = true;
                     break;
@@ -67,7 +111,7 @@ public final class FactorioAssembler
                         System.out.println("Expected another argument after '" + args[i] + "'");
                         return;
                     }
-                    if (hasData)
+                    if (hasData || !batchInputs.isEmpty())
                     {
                         System.out.println("Can't specify multiple data input sources");
                         return;
@@ -77,6 +121,88 @@ public final class FactorioAssembler
                     hasData = true;
                     name = input.replaceAll("[^a-zA-Z0-9_-]", "");
                     break;
+                case "--batch":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    if (hasData)
+                    {
+                        System.out.println("Can't specify multiple data input sources");
+                        return;
+                    }
+                    batchInputs.add(args[i + 1]);
+                    i++;
+                    break;
+                case "--verify":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    verifyInputs.add(args[i + 1]);
+                    i++;
+                    break;
+                case "--disassemble":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    disassembleFile = args[i + 1];
+                    i++;
+                    break;
+                case "--profile":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    profileFile = args[i + 1];
+                    i++;
+                    break;
+                case "--input":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    keyboardInput = args[i + 1];
+                    i++;
+                    break;
+                case "--limit":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    try
+                    {
+                        profileLimit = Long.parseLong(args[i + 1]);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        System.out.println("Invalid instruction limit '" + args[i + 1] + "'");
+                        return;
+                    }
+                    i++;
+                    break;
+                case "--server":
+                    serverPort = AssemblerServer.DEFAULT_PORT;
+                    if (args.length > i + 1 && args[i + 1].matches("[0-9]{1,5}"))
+                    {
+                        serverPort = Integer.parseInt(args[i + 1]);
+                        i++;
+                    }
+                    break;
+                case "--watch":
+                    watch = true;
+                    break;
+                case "-w":
+                case "--write":
+                    write = true;
+                    break;
                 case "-b":
                 case "--blueprint":
                     blueprint = true;
@@ -85,22 +211,191 @@ public final class FactorioAssembler
                 case "--debug":
                     debug = true;
                     break;
+                case "-o":
+                case "--optimize":
+                    optimize = true;
+                    break;
+                case "--stats":
+                    showStats = true;
+                    break;
+                case "-e":
+                case "--all-errors":
+                    allErrors = true;
+                    break;
+                case "--parallel":
+                    parallel = true;
+                    break;
+                case "--cache":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    cacheDirectory = args[i + 1];
+                    i++;
+                    break;
+                case "--level":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    try
+                    {
+                        level = Integer.parseInt(args[i + 1]);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        System.out.println("Invalid compression level '" + args[i + 1] + "'");
+                        return;
+                    }
+                    i++;
+                    break;
+                case "--strategy":
+                    if (args.length <= i + 1)
+                    {
+                        System.out.println("Expected another argument after '" + args[i] + "'");
+                        return;
+                    }
+                    switch (args[i + 1].toLowerCase())
+                    {
+                        case "default":
+                            strategy = Deflater.DEFAULT_STRATEGY;
+                            break;
+                        case "filtered":
+                            strategy = Deflater.FILTERED;
+                            break;
+                        case "huffman":
+                            strategy = Deflater.HUFFMAN_ONLY;
+                            break;
+                        default:
+                            System.out.println("Invalid compression strategy '" + args[i + 1] + "'");
+                            return;
+                    }
+                    i++;
+                    break;
                 default:
                     System.out.println("Unrecognized argument '" + args[i] + "'");
             }
         }
 
-        if (input == null || !hasData)
+        // Included files are cached for the whole run, by every mode
+        ObjectCache cache = new ObjectCache(Paths.get(cacheDirectory));
+        if (serverPort != -1)
+        {
+            serve(serverPort, cache);
+            return;
+        }
+
+        if (!verifyInputs.isEmpty())
+        {
+            if (hasData || !batchInputs.isEmpty())
+            {
+                System.out.println("Can't specify other data input sources with --verify");
+                return;
+            }
+            verify(verifyInputs, optimize, cache);
+            return;
+        }
+
+        if (disassembleFile != null)
+        {
+            disassemble(disassembleFile);
+            return;
+        }
+
+        if (!batchInputs.isEmpty())
+        {
+            batch(batchInputs, write, write && blueprint, level, strategy, optimize, debug, cache);
+            return;
+        }
+
+        if (!hasData)
         {
             System.out.println("Require either -f or -l for input data.");
             return;
         }
 
+        if (watch)
+        {
+            if (file == null || STDIN.equals(file))
+            {
+                System.out.println("Watch mode requires a file, given by -f");
+                return;
+            }
+            watch(Paths.get(file), level, strategy, optimize, debug, cache);
+            return;
+        }
+
         System.out.printf("Compiling with arguments: [\'%s\']\n", String.join("\', \'", args));
         Assembly asm;
+        Optimizer.Result optimization = null;
+        PhaseStats stats = showStats ? new PhaseStats() : null;
+        Diagnostics diagnostics = allErrors ? new Diagnostics() : null;
         try
         {
-            asm = build(input);
+            if (input == null && !parallel && diagnostics == null && stats == null)
+            {
+                // Only a single line of the source is held in memory at once
+                try (Reader reader = openSource(file))
+                {
+                    asm = compile(reader);
+                }
+            }
+            else
+            {
+                if (input == null)
+                {
+                    try (Reader reader = openSource(file))
+                    {
+                        input = new BufferedReader(reader).lines().collect(Collectors.joining("\n"));
+                    }
+                }
+                if (parallel && diagnostics == null)
+                {
+                    if (stats != null)
+                    {
+                        stats.begin(PhaseStats.Phase.COMPILE);
+                    }
+                    asm = new ParallelAssembler(Runtime.getRuntime().availableProcessors()).compile(input);
+                    if (stats != null)
+                    {
+                        stats.end(PhaseStats.Phase.COMPILE);
+                    }
+                }
+                else
+                {
+                    asm = compile(input, stats, diagnostics);
+                }
+            }
+            if (!asm.getIncludes().isEmpty())
+            {
+                new ModuleLinker(cache).link(asm, file == null || STDIN.equals(file) ? null : Paths.get(file));
+                System.out.printf("Linked %d modules, %d assembled and %d cached\n", cache.getAssembled() + cache.getReused(), cache.getAssembled(), cache.getReused());
+            }
+            if (optimize)
+            {
+                optimization = asm.optimize();
+            }
+            if (diagnostics == null)
+            {
+                asm.applyLinker();
+            }
+            else
+            {
+                asm.applyLinker(diagnostics);
+                if (!diagnostics.isEmpty())
+                {
+                    System.out.println("Errors compiling the assembly:");
+                    System.out.println(diagnostics);
+                    return;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Can't read file '" + file + "': " + e.getMessage());
+            return;
         }
         catch (InvalidAssemblyException e)
         {
@@ -116,6 +411,11 @@ public final class FactorioAssembler
             return;
         }
 
+        if (optimization != null)
+        {
+            System.out.println(optimization);
+        }
+
         if (debug)
         {
             System.out.println(asm);
@@ -123,102 +423,625 @@ public final class FactorioAssembler
 
         if (blueprint)
         {
-            String blueprintString = Blueprints.encode(asm);
             System.out.println("Blueprint String:");
-            System.out.println(blueprintString);
+            try
+            {
+                BlueprintCodec codec = new BlueprintCodec(level, strategy);
+                if (stats != null)
+                {
+                    stats.begin(PhaseStats.Phase.ENCODE_BLUEPRINT);
+                }
+                Blueprints.encode(asm, codec, System.out);
+                if (stats != null)
+                {
+                    stats.end(PhaseStats.Phase.ENCODE_BLUEPRINT);
+                }
+                codec.end();
+            }
+            catch (IllegalArgumentException | IOException e)
+            {
+                System.out.println("Unable to create blueprint: " + e.getMessage());
+                return;
+            }
+            System.out.println();
+        }
+
+        if (profileFile != null)
+        {
+            profile(asm, profileFile, keyboardInput, profileLimit);
+        }
+
+        if (stats != null)
+        {
+            System.out.print(stats);
         }
 
         System.out.println("Compilation Complete!");
     }
 
+    /**
+     * Opens a source file given by -f, or standard input if the file is {@link FactorioAssembler#STDIN}
+     */
     @NotNull
-    public static Assembly build(@NotNull String input) throws InvalidAssemblyException
+    private static Reader openSource(@NotNull String file) throws IOException
     {
-        Assembly assembly = new Assembly();
-        List<String> inputLines = Helpers.getLinesUnformatted(input);
+        if (STDIN.equals(file))
+        {
+            return new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        }
+        return Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8);
+    }
 
-        while (inputLines.size() > 0)
+    private static void batch(List<String> inputs, boolean writeImage, boolean writeBlueprint, int level, int strategy, boolean optimize, boolean debug, ObjectCache cache)
+    {
+        BatchAssembler assembler;
+        try
+        {
+            assembler = new BatchAssembler(writeImage, writeBlueprint, level, strategy, optimize, Runtime.getRuntime().availableProcessors(), cache);
+        }
+        catch (IllegalArgumentException e)
         {
-            String line = inputLines.remove(0);
-            List<String> results = compileLine(assembly, line);
-            if (results != null)
+            System.out.println("Unable to create blueprint: " + e.getMessage());
+            return;
+        }
+
+        List<Path> sources;
+        try
+        {
+            sources = BatchAssembler.findSources(inputs);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to search for source files: " + e.getMessage());
+            return;
+        }
+        if (sources.isEmpty())
+        {
+            System.out.println("No source files found.");
+            return;
+        }
+
+        System.out.printf("Compiling %d files\n", sources.size());
+        long startTime = System.nanoTime();
+        List<BatchAssembler.Result> results = assembler.assemble(sources);
+        long failed = results.stream().filter(result -> !result.isSuccess()).count();
+        for (BatchAssembler.Result result : results)
+        {
+            System.out.println(result);
+            if (debug && result.isSuccess())
             {
-                inputLines.addAll(0, results);
+                System.out.println(result.getAssembly());
             }
         }
-
-        assembly.applyLinker();
-        return assembly;
+        System.out.printf("Compiled %d files, %d failed, in %.2f ms\n", results.size(), failed, (System.nanoTime() - startTime) / 1_000_000.0);
     }
 
-    @Nullable
-    private static List<String> compileLine(Assembly assembly, String line) throws InvalidAssemblyException
+    private static void verify(List<String> inputs, boolean optimize, ObjectCache cache)
     {
+        List<Path> blueprints;
         try
         {
-            StringBuilder inputBuilder = new StringBuilder(line);
-            StringBuilder keywordBuilder = new StringBuilder();
+            blueprints = BlueprintVerifier.findBlueprints(inputs);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to search for blueprint files: " + e.getMessage());
+            return;
+        }
+        if (blueprints.isEmpty())
+        {
+            System.out.println("No blueprint files found.");
+            return;
+        }
 
-            while (inputBuilder.length() > 0)
-            {
-                // Pop a character into the keyword buffer
-                Helpers.nextChar(keywordBuilder, inputBuilder);
-                String keyword = keywordBuilder.toString();
-                String[] args = inputBuilder.toString().replaceAll(" ", "").split(",");
+        System.out.printf("Verifying %d blueprints\n", blueprints.size());
+        long startTime = System.nanoTime();
+        List<BlueprintVerifier.Result> results = new BlueprintVerifier(Runtime.getRuntime().availableProcessors(), optimize, cache).verify(blueprints);
+        long failed = results.stream().filter(result -> !result.isSuccess()).count();
+        for (BlueprintVerifier.Result result : results)
+        {
+            System.out.println(result);
+        }
+        System.out.printf("Verified %d blueprints, %d failed, in %.2f ms\n", results.size(), failed, (System.nanoTime() - startTime) / 1_000_000.0);
+    }
 
-                if ("exit".equals(keyword))
+    private static void disassemble(String file)
+    {
+        ProgramImage image;
+        try
+        {
+            byte[] bytes = Files.readAllBytes(Paths.get(file));
+            if (file.endsWith(BatchAssembler.BLUEPRINT_EXTENSION))
+            {
+                image = Blueprints.importImage(new String(bytes, StandardCharsets.UTF_8));
+                if (image == null)
                 {
-                    assembly.addExit();
-                    return null;
+                    System.out.println("Invalid blueprint '" + file + "'");
+                    return;
                 }
-
-                if (InstructionType.keys().contains(keyword) && Helpers.isNextNonAlphanumeric(inputBuilder))
+            }
+            else
+            {
+                // Binary ROM images, as written by --write, are 16-bit big endian words
+                int[] words = new int[bytes.length / 2];
+                for (int i = 0; i < words.length; i++)
                 {
-                    // basic instruction
-                    assembly.addInstruction(keyword, keyword + inputBuilder, args);
-                    return null;
+                    words[i] = ((bytes[2 * i] & 0xFF) << 8) | (bytes[2 * i + 1] & 0xFF);
                 }
-                else if (InstructionTemplate.keys().contains(keyword) && Helpers.isNextNonAlphanumeric(inputBuilder))
+                image = ProgramImage.of(words);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Can't read file '" + file + "': " + e.getMessage());
+            return;
+        }
+        System.out.print(Disassembler.listing(image));
+    }
+
+    private static void profile(Assembly asm, String file, @Nullable String keyboardInput, long limit)
+    {
+        Profiler profiler;
+        try
+        {
+            profiler = new Profiler(asm);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Unable to profile: " + e.getMessage());
+            return;
+        }
+        if (keyboardInput != null)
+        {
+            // Allow '\n' to be typed as enter from the command line
+            profiler.getEmulator().type(keyboardInput.replace("\\n", "\n"));
+        }
+        profiler.run(limit);
+        System.out.print(profiler.report());
+        try (Writer writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))
+        {
+            profiler.writeFoldedStacks(writer);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to write profile: " + e.getMessage());
+            return;
+        }
+        System.out.println("Wrote folded stacks to '" + file + "'");
+    }
+
+    private static void serve(int port, ObjectCache cache)
+    {
+        try (AssemblerServer server = new AssemblerServer(port, cache))
+        {
+            System.out.println("Listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort());
+            server.serve();
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            System.out.println("Unable to run server: " + e.getMessage());
+        }
+    }
+
+    private static void watch(Path file, int level, int strategy, boolean optimize, boolean debug, ObjectCache cache)
+    {
+        BlueprintCodec codec;
+        try
+        {
+            codec = new BlueprintCodec(level, strategy);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Unable to create blueprint: " + e.getMessage());
+            return;
+        }
+
+        Path path = file.toAbsolutePath();
+        IncrementalAssembler assembler = new IncrementalAssembler(optimize);
+        ModuleLinker linker = new ModuleLinker(cache);
+        try (WatchService service = path.getFileSystem().newWatchService())
+        {
+            path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + path + " for changes. Press Ctrl+C to stop.");
+
+            String previous = null;
+            boolean sourcesChanged = false;
+            while (true)
+            {
+                String input = Helpers.loadFile(path.toString());
+                if (input != null && (sourcesChanged || !input.equals(previous)))
                 {
-                    // template instruction
-                    return InstructionTemplate.get(keyword).convert(args);
+                    previous = input;
+                    rebuild(assembler, linker, path, input, codec, debug);
                 }
-                else if (".asciz".equals(keyword) && Helpers.isNextNonAlphanumeric(inputBuilder))
+
+                // Wait for a change to the file, or another source file which it may include, then let any further events from the same save arrive before reading it
+                boolean changed = false;
+                sourcesChanged = false;
+                while (!changed && !sourcesChanged)
                 {
-                    inputBuilder.deleteCharAt(0);
-                    assembly.addData(inputBuilder.toString().toUpperCase());
-                    return null;
+                    WatchKey key = service.take();
+                    do
+                    {
+                        for (WatchEvent<?> event : key.pollEvents())
+                        {
+                            changed |= path.getFileName().equals(event.context());
+                            sourcesChanged |= String.valueOf(event.context()).endsWith(BatchAssembler.SOURCE_EXTENSION);
+                        }
+                        key.reset();
+                    } while ((key = service.poll(WATCH_SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
                 }
-                else if (".malloc".equals(keyword) && Helpers.isNextNonAlphanumeric(inputBuilder))
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Unable to watch file: " + e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            codec.end();
+        }
+    }
+
+    private static void rebuild(IncrementalAssembler assembler, ModuleLinker linker, Path file, String input, BlueprintCodec codec, boolean debug)
+    {
+        IncrementalAssembler.Update update;
+        try
+        {
+            update = assembler.update(input, linker, file);
+        }
+        catch (InvalidAssemblyException e)
+        {
+            System.out.println("Error compiling the assembly: " + e.getMessage());
+            e.printData();
+            return;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Can't read included file: " + e.getMessage());
+            return;
+        }
+
+        System.out.println(update);
+        if (debug)
+        {
+            System.out.println(update.getAssembly());
+        }
+        System.out.println("Blueprint String:");
+        try
+        {
+            Blueprints.encode(update.getAssembly(), codec, System.out);
+        }
+        catch (IllegalArgumentException | IOException e)
+        {
+            System.out.println("Unable to create blueprint: " + e.getMessage());
+            return;
+        }
+        System.out.println();
+    }
+
+    @NotNull
+    public static Assembly build(@NotNull String input) throws InvalidAssemblyException
+    {
+        Assembly assembly = compile(input);
+        assembly.applyLinker();
+        return assembly;
+    }
+
+    /**
+     * Assembles and links a program from a file, which is read one line at a time. See {@link FactorioAssembler#compile(Reader)}
+     */
+    @NotNull
+    public static Assembly build(@NotNull Path input) throws InvalidAssemblyException, IOException
+    {
+        try (Reader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8))
+        {
+            return build(reader);
+        }
+    }
+
+    /**
+     * Assembles and links a program, which is read one line at a time. See {@link FactorioAssembler#compile(Reader)}
+     */
+    @NotNull
+    public static Assembly build(@NotNull Reader input) throws InvalidAssemblyException, IOException
+    {
+        Assembly assembly = compile(input);
+        assembly.applyLinker();
+        return assembly;
+    }
+
+    /**
+     * Assembles and links a program, adding every error to the diagnostics instead of stopping at the first. Lines with an error are skipped.
+     * If there are any errors, the assembly is incomplete and should not be used.
+     */
+    @NotNull
+    public static Assembly build(@NotNull String input, @NotNull Diagnostics diagnostics)
+    {
+        Assembly assembly;
+        try
+        {
+            assembly = compile(input, null, diagnostics);
+        }
+        catch (InvalidAssemblyException e)
+        {
+            throw new IllegalStateException("Error was not added to the diagnostics. This is a bug!", e);
+        }
+        assembly.applyLinker(diagnostics);
+        return assembly;
+    }
+
+    /**
+     * Assembles a program without linking it, so any forward references are still unresolved. See {@link Assembly#applyLinker()}
+     */
+    @NotNull
+    public static Assembly compile(@NotNull String input) throws InvalidAssemblyException
+    {
+        return compile(input, null);
+    }
+
+    /**
+     * @param stats If not null, the time and allocation of each phase are recorded here
+     * @see FactorioAssembler#compile(String)
+     */
+    @NotNull
+    public static Assembly compile(@NotNull String input, @Nullable PhaseStats stats) throws InvalidAssemblyException
+    {
+        return compile(input, stats, null);
+    }
+
+    /**
+     * @param stats       If not null, the time and allocation of each phase are recorded here
+     * @param diagnostics If not null, errors are added here and the line is skipped, rather than thrown
+     * @see FactorioAssembler#compile(String)
+     */
+    @NotNull
+    public static Assembly compile(@NotNull String input, @Nullable PhaseStats stats, @Nullable Diagnostics diagnostics) throws InvalidAssemblyException
+    {
+        Assembly assembly = new Assembly();
+        assembly.setStats(stats);
+        Lexer lexer = new Lexer();
+
+        AssemblerEvents.ReadLines readEvent = new AssemblerEvents.ReadLines();
+        readEvent.begin();
+        if (stats != null)
+        {
+            stats.begin(PhaseStats.Phase.READ_LINES);
+        }
+        List<String> lines = Helpers.getLinesUnformatted(input);
+        if (stats != null)
+        {
+            stats.end(PhaseStats.Phase.READ_LINES);
+        }
+        readEvent.end();
+        if (readEvent.shouldCommit())
+        {
+            readEvent.characters = input.length();
+            readEvent.lines = lines.size();
+            readEvent.commit();
+        }
+
+        AssemblerEvents.Compile compileEvent = new AssemblerEvents.Compile();
+        compileEvent.begin();
+        if (stats != null)
+        {
+            stats.begin(PhaseStats.Phase.COMPILE);
+        }
+        try
+        {
+            for (int i = 0; i < lines.size(); i++)
+            {
+                assembly.setSourceLine(i + 1);
+                lexer.tokenize(lines.get(i));
+                if (diagnostics == null)
                 {
-                    assembly.addMemory(args);
-                    return null;
+                    compileTokens(assembly, lexer);
                 }
-                else if (inputBuilder.length() > 0 && inputBuilder.charAt(0) == ':')
+                else
                 {
-                    // labels
-                    assembly.addLabel(keyword);
-                    inputBuilder.deleteCharAt(0);
-                    keywordBuilder = new StringBuilder();
+                    compileTokens(assembly, lexer, diagnostics, i + 1);
                 }
             }
-
-            if (keywordBuilder.length() > 0)
+        }
+        finally
+        {
+            if (stats != null)
             {
-                throw new InvalidAssemblyException("Unknown instruction: " + keywordBuilder);
+                stats.end(PhaseStats.Phase.COMPILE);
             }
-            return null;
+        }
+        compileEvent.end();
+        if (compileEvent.shouldCommit())
+        {
+            compileEvent.lines = lines.size();
+            compileEvent.instructions = assembly.size();
+            compileEvent.symbols = assembly.getSymbolCount();
+            compileEvent.commit();
+        }
+        return assembly;
+    }
+
+    /**
+     * Assembles a program without linking it, reading and compiling one line at a time, so the source is never held in memory.
+     * The input is not closed.
+     *
+     * @see FactorioAssembler#compile(String)
+     */
+    @NotNull
+    public static Assembly compile(@NotNull Reader input) throws InvalidAssemblyException, IOException
+    {
+        Assembly assembly = new Assembly();
+        Lexer lexer = new Lexer();
+        SourceReader reader = new SourceReader(input);
+
+        AssemblerEvents.Compile compileEvent = new AssemblerEvents.Compile();
+        compileEvent.begin();
+        CharSequence line;
+        while ((line = reader.readLine()) != null)
+        {
+            assembly.setSourceLine(reader.getLineNumber());
+            lexer.tokenize(line);
+            compileTokens(assembly, lexer);
+        }
+        compileEvent.end();
+        if (compileEvent.shouldCommit())
+        {
+            compileEvent.lines = reader.getLineNumber();
+            compileEvent.instructions = assembly.size();
+            compileEvent.symbols = assembly.getSymbolCount();
+            compileEvent.commit();
+        }
+        return assembly;
+    }
+
+    /**
+     * Compiles a single line of source, which has already been tokenized
+     */
+    static void compileTokens(Assembly assembly, Lexer lexer) throws InvalidAssemblyException
+    {
+        compileTokens(assembly, lexer, null);
+    }
+
+    /**
+     * Compiles a single line of source, which has already been tokenized
+     *
+     * @param encoded The instructions for the line, if they were already created from the same tokens, or null
+     */
+    static void compileTokens(Assembly assembly, Lexer lexer, @Nullable List<Instruction> encoded) throws InvalidAssemblyException
+    {
+        try
+        {
+            compileTokensUnchecked(assembly, lexer, encoded);
         }
         catch (InvalidAssemblyException e)
         {
-            e.attachData("Current Line: " + line, assembly);
+            e.setLine(assembly.getSourceLine());
+            e.attachData("Current Line: " + lexer.line(), assembly);
             throw e;
         }
-        catch (Exception e)
+    }
+
+    /**
+     * Compiles a single line of source, which has already been tokenized, adding any error to the diagnostics
+     */
+    private static void compileTokens(Assembly assembly, Lexer lexer, Diagnostics diagnostics, int sourceLine)
+    {
+        try
+        {
+            compileTokensUnchecked(assembly, lexer, null);
+        }
+        catch (InvalidAssemblyException e)
+        {
+            diagnostics.add(sourceLine, e.getColumn(), e);
+        }
+    }
+
+    private static void compileTokensUnchecked(Assembly assembly, Lexer lexer, @Nullable List<Instruction> encoded) throws InvalidAssemblyException
+    {
+        for (int i = 0; i < lexer.size(); i++)
+        {
+            if (lexer.type(i) == Lexer.TokenType.UNEXPECTED)
+            {
+                InvalidAssemblyException e = new InvalidAssemblyException(Diagnostic.Code.UNEXPECTED_TOKEN, lexer.text(i));
+                e.setColumn(lexer.start(i) + 1);
+                throw e;
+            }
+        }
+        for (int i = 0; i < lexer.size(); i++)
+        {
+            try
+            {
+                switch (lexer.type(i))
+                {
+                    case LABEL:
+                        assembly.addLabel(lexer.text(i));
+                        break;
+                    case MNEMONIC:
+                        if (encoded != null)
+                        {
+                            assembly.addInstructions(encoded);
+                        }
+                        else
+                        {
+                            compileInstruction(assembly, lexer, i);
+                        }
+                        return;
+                    case DIRECTIVE:
+                        compileDirective(assembly, lexer, i);
+                        return;
+                    default:
+                        throw new InvalidAssemblyException(Diagnostic.Code.UNEXPECTED_TOKEN, lexer.text(i));
+                }
+            }
+            catch (InvalidAssemblyException e)
+            {
+                e.setColumn(lexer.start(i) + 1);
+                throw e;
+            }
+            catch (Exception e)
+            {
+                InvalidAssemblyException wrapper = new InvalidAssemblyException(Diagnostic.Code.INTERNAL, e, e);
+                wrapper.setColumn(lexer.start(i) + 1);
+                throw wrapper;
+            }
+        }
+    }
+
+    private static void compileInstruction(Assembly assembly, Lexer lexer, int token) throws InvalidAssemblyException
+    {
+        CharSequence line = lexer.line();
+        int start = lexer.start(token), end = lexer.end(token);
+
+        InstructionType type = InstructionType.get(line, start, end);
+        if (type == InstructionType.EXIT)
+        {
+            assembly.addExit();
+            return;
+        }
+        if (type != null)
+        {
+            // basic instruction
+            assembly.addInstruction(type, lexer.textFrom(token), lexer.arguments(token));
+            return;
+        }
+
+        InstructionTemplate template = InstructionTemplate.get(line, start, end);
+        if (template != null)
+        {
+            // template instruction
+            assembly.addTemplate(template, lexer.textFrom(token), lexer.arguments(token));
+            return;
+        }
+        throw new InvalidAssemblyException(Diagnostic.Code.UNKNOWN_INSTRUCTION, lexer.textFrom(token));
+    }
+
+    private static void compileDirective(Assembly assembly, Lexer lexer, int token) throws InvalidAssemblyException
+    {
+        if (lexer.isDirective(token, ".asciz"))
+        {
+            String text = token + 1 < lexer.size() ? lexer.text(token + 1) : "";
+            assembly.addData(text.toUpperCase());
+        }
+        else if (lexer.isDirective(token, ".malloc"))
+        {
+            assembly.addMemory(lexer.arguments(token));
+        }
+        else if (lexer.isDirective(token, ".include"))
+        {
+            String[] args = lexer.arguments(token);
+            if (args.length != 1 || args[0].isEmpty())
+            {
+                throw new InvalidAssemblyException(Diagnostic.Code.INVALID_INCLUDE);
+            }
+            assembly.addInclude(args[0]);
+        }
+        else
         {
-            InvalidAssemblyException wrapper = new InvalidAssemblyException("Unknown exception occurred during parsing", e);
-            wrapper.attachData("Current Line: " + line, assembly);
-            throw wrapper;
+            throw new InvalidAssemblyException(Diagnostic.Code.UNKNOWN_DIRECTIVE, lexer.text(token));
         }
     }
 }
@@ -0,0 +1,235 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import assembler.asm.Assembly;
+import assembler.asm.Lexer;
+import assembler.util.AssemblerEvents;
+import assembler.util.Helpers;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Re-assembles a program as it is edited, keeping the tokens of every line in memory between updates.
+ * Only lines which differ from the last successful update are lexed again, the rest are compiled from their cached tokens.
+ * Included files are linked by a {@link ModuleLinker}, so only those which changed since the last update are assembled again.
+ *
+ * @author Alex O'Neill
+ */
+public final class IncrementalAssembler
+{
+    private final Lexer lexer = new Lexer();
+    private final boolean optimize;
+    private List<String> lines = Collections.emptyList();
+    private List<Lexer> tokens = Collections.emptyList();
+    private int[] image = new int[0];
+
+    public IncrementalAssembler()
+    {
+        this(false);
+    }
+
+    /**
+     * @param optimize If the peephole optimizer is run on every update, as by {@code -O}
+     */
+    public IncrementalAssembler(boolean optimize)
+    {
+        this.optimize = optimize;
+    }
+
+    /**
+     * Assembles a new version of the program. If this fails, the previous version is kept, and the next update will be compared against it.
+     *
+     * @param input The full program source
+     * @return the new assembly, and what changed since the last successful update
+     * @throws InvalidAssemblyException if the program does not assemble
+     */
+    @NotNull
+    public Update update(@NotNull String input) throws InvalidAssemblyException
+    {
+        try
+        {
+            return update(input, null, null);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("No files are read without a linker. This is a bug!", e);
+        }
+    }
+
+    /**
+     * Assembles a new version of the program, and links every file it includes. See {@link IncrementalAssembler#update(String)}
+     *
+     * @param linker The linker for included files, or null if the program can't include files
+     * @param source The source file of the program, which includes are relative to, or null if they are relative to the working directory
+     * @throws IOException if an included file could not be read
+     */
+    @NotNull
+    public Update update(@NotNull String input, @Nullable ModuleLinker linker, @Nullable Path source) throws InvalidAssemblyException, IOException
+    {
+        long startTime = System.nanoTime();
+        AssemblerEvents.ReadLines readEvent = new AssemblerEvents.ReadLines();
+        readEvent.begin();
+        List<String> nextLines = Helpers.getLinesUnformatted(input);
+        readEvent.end();
+        if (readEvent.shouldCommit())
+        {
+            readEvent.characters = input.length();
+            readEvent.lines = nextLines.size();
+            readEvent.commit();
+        }
+
+        // Lines in the common prefix and suffix are unchanged
+        int shared = Math.min(lines.size(), nextLines.size());
+        int prefix = 0, suffix = 0;
+        while (prefix < shared && lines.get(prefix).equals(nextLines.get(prefix)))
+        {
+            prefix++;
+        }
+        while (suffix < shared - prefix && lines.get(lines.size() - 1 - suffix).equals(nextLines.get(nextLines.size() - 1 - suffix)))
+        {
+            suffix++;
+        }
+
+        List<Lexer> nextTokens = new ArrayList<>(nextLines.size());
+        nextTokens.addAll(tokens.subList(0, prefix));
+        for (int i = prefix; i < nextLines.size() - suffix; i++)
+        {
+            lexer.tokenize(nextLines.get(i));
+            nextTokens.add(lexer.copy());
+        }
+        nextTokens.addAll(tokens.subList(tokens.size() - suffix, tokens.size()));
+
+        Assembly assembly = new Assembly();
+        for (int i = 0; i < nextTokens.size(); i++)
+        {
+            assembly.setSourceLine(i + 1);
+            FactorioAssembler.compileTokens(assembly, nextTokens.get(i));
+        }
+        if (linker != null)
+        {
+            linker.link(assembly, source);
+        }
+        if (optimize)
+        {
+            assembly.optimize();
+        }
+        assembly.applyLinker();
+
+        int[] nextImage = assembly.getImage().toArray();
+        int[] changed = changedAddresses(image, nextImage);
+
+        lines = nextLines;
+        tokens = nextTokens;
+        image = nextImage;
+        return new Update(assembly, changed, nextLines.size() - prefix - suffix, System.nanoTime() - startTime);
+    }
+
+    /**
+     * @return the addresses which differ between two ROM images. Addresses past the end of the shorter image always differ
+     */
+    @NotNull
+    private static int[] changedAddresses(@NotNull int[] previous, @NotNull int[] next)
+    {
+        int length = Math.max(previous.length, next.length), count = 0;
+        int[] changed = new int[length];
+        for (int address = 0; address < length; address++)
+        {
+            if (address >= previous.length || address >= next.length || previous[address] != next[address])
+            {
+                changed[count++] = address;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(changed, 0, result, 0, count);
+        return result;
+    }
+
+    public static final class Update
+    {
+        private final Assembly assembly;
+        private final int[] changedAddresses;
+        private final int lexedLines;
+        private final long nanos;
+
+        Update(Assembly assembly, int[] changedAddresses, int lexedLines, long nanos)
+        {
+            this.assembly = assembly;
+            this.changedAddresses = changedAddresses;
+            this.lexedLines = lexedLines;
+            this.nanos = nanos;
+        }
+
+        @NotNull
+        public Assembly getAssembly()
+        {
+            return assembly;
+        }
+
+        /**
+         * @return the ROM addresses which changed, in ascending order
+         */
+        @NotNull
+        public int[] getChangedAddresses()
+        {
+            return changedAddresses;
+        }
+
+        /**
+         * @return the number of lines which had to be lexed again
+         */
+        public int getLexedLines()
+        {
+            return lexedLines;
+        }
+
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        /**
+         * @return the changed addresses as a list of ranges, i.e. {@code 0-2, 7, 10-12}
+         */
+        @NotNull
+        public String getChangedRanges()
+        {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < changedAddresses.length; )
+            {
+                int start = changedAddresses[i], end = start;
+                while (++i < changedAddresses.length && changedAddresses[i] == end + 1)
+                {
+                    end++;
+                }
+                if (builder.length() > 0)
+                {
+                    builder.append(", ");
+                }
+                builder.append(start);
+                if (end != start)
+                {
+                    builder.append('-').append(end);
+                }
+            }
+            return builder.length() == 0 ? "none" : builder.toString();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Assembled %d words in %.2f ms (%d lines lexed). Changed addresses: %s", assembly.size(), nanos / 1_000_000.0, lexedLines, getChangedRanges());
+        }
+    }
+}
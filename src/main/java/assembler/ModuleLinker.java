@@ -0,0 +1,130 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import assembler.asm.Assembly;
+import assembler.asm.ObjectModule;
+import assembler.util.Diagnostic;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Links the files included by {@code .include} into an assembly.
+ * Each included file is assembled separately into an {@link ObjectModule}, which is loaded from an {@link ObjectCache} if its source has not changed.
+ * Modules are added after the assembly, in the order they are first included (depth first), and each file is only linked once, even if it is included more than once.
+ *
+ * @author Alex O'Neill
+ */
+public final class ModuleLinker
+{
+    private final ObjectCache cache;
+
+    public ModuleLinker(@NotNull ObjectCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Assembles a source file, links every file it includes, and applies the linker
+     */
+    @NotNull
+    public Assembly build(@NotNull Path source) throws InvalidAssemblyException, IOException
+    {
+        return build(source, false);
+    }
+
+    /**
+     * @param optimize If the peephole optimizer is run on the linked modules, before the linker is applied
+     * @see ModuleLinker#build(Path)
+     */
+    @NotNull
+    public Assembly build(@NotNull Path source, boolean optimize) throws InvalidAssemblyException, IOException
+    {
+        Assembly assembly;
+        try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8))
+        {
+            assembly = FactorioAssembler.compile(reader);
+        }
+        link(assembly, source);
+        if (optimize)
+        {
+            assembly.optimize();
+        }
+        assembly.applyLinker();
+        return assembly;
+    }
+
+    /**
+     * Adds a module for every file included by an assembly, and by the included files. The assembly must not be linked yet. If it has no includes, this does nothing.
+     *
+     * @param source The source file of the assembly, which includes are relative to, or null if they are relative to the working directory
+     */
+    public void link(@NotNull Assembly assembly, @Nullable Path source) throws InvalidAssemblyException, IOException
+    {
+        if (assembly.getIncludes().isEmpty())
+        {
+            return;
+        }
+        Set<Path> linked = new HashSet<>();
+        Path directory = Paths.get("").toAbsolutePath();
+        if (source != null)
+        {
+            source = source.toAbsolutePath().normalize();
+            linked.add(source);
+            directory = source.getParent();
+        }
+        link(assembly, assembly.getIncludes(), directory, linked);
+        assembly.clearIncludes();
+    }
+
+    @NotNull
+    public ObjectCache getCache()
+    {
+        return cache;
+    }
+
+    private void link(@NotNull Assembly assembly, @NotNull List<String> includes, @NotNull Path directory, @NotNull Set<Path> linked) throws InvalidAssemblyException, IOException
+    {
+        for (String include : includes)
+        {
+            Path path = directory.resolve(include).normalize();
+            if (!linked.add(path))
+            {
+                continue;
+            }
+            if (!Files.isRegularFile(path))
+            {
+                throw new InvalidAssemblyException(Diagnostic.Code.UNKNOWN_INCLUDE, path);
+            }
+            ObjectModule module;
+            try
+            {
+                module = cache.load(path);
+                assembly.addModule(module);
+            }
+            catch (InvalidAssemblyException e)
+            {
+                // The position is in the included file, so it must be reported with it, even if the debug data is not
+                e.setFile(path.toString());
+                e.attachData("Included File: " + path);
+                throw e;
+            }
+            link(assembly, module.getIncludes(), path.getParent(), linked);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import assembler.asm.ObjectModule;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A cache of assembled object modules, keyed by a hash of their source, {@link ObjectModule#VERSION} and {@link ObjectCache#BUILD_VERSION}.
+ * Modules are kept in memory, and written to a directory so they can be reused by later builds. A source file is only assembled again when its contents change.
+ *
+ * @author Alex O'Neill
+ */
+public final class ObjectCache
+{
+    public static final String DEFAULT_DIRECTORY = ".fasm-cache";
+    private static final String OBJECT_EXTENSION = ".o";
+
+    /**
+     * The version of the assembler build. This is the {@code Implementation-Version} of the jar, which is a hash of the compiled classes.
+     * When not run from a jar, the class files are hashed directly, so modules assembled by a different build of the assembler are never reused, even if {@link ObjectModule#VERSION} was not changed.
+     */
+    static final String BUILD_VERSION = buildVersion();
+
+    /**
+     * @return the cache key for a source file: a hex SHA-256 of the object version, the build version, and the source
+     */
+    @NotNull
+    static String key(@NotNull byte[] source)
+    {
+        return key(source, BUILD_VERSION);
+    }
+
+    @NotNull
+    static String key(@NotNull byte[] source, @NotNull String buildVersion)
+    {
+        MessageDigest digest = sha256();
+        digest.update(ByteBuffer.allocate(4).putInt(ObjectModule.VERSION).array());
+        digest.update(buildVersion.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return hex(digest.digest(source));
+    }
+
+    @NotNull
+    private static String buildVersion()
+    {
+        String version = ObjectCache.class.getPackage().getImplementationVersion();
+        if (version != null)
+        {
+            return version;
+        }
+        try (Stream<Path> paths = Files.walk(Paths.get(ObjectCache.class.getProtectionDomain().getCodeSource().getLocation().toURI())))
+        {
+            MessageDigest digest = sha256();
+            Iterator<Path> classes = paths.filter(path -> path.toString().endsWith(".class")).sorted().iterator();
+            while (classes.hasNext())
+            {
+                digest.update(Files.readAllBytes(classes.next()));
+            }
+            return hex(digest.digest());
+        }
+        catch (IOException | URISyntaxException | RuntimeException e)
+        {
+            // The build can't be identified, so object files are only reused by this run
+            return "unknown-" + System.nanoTime();
+        }
+    }
+
+    @NotNull
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not supported. This is a bug!", e);
+        }
+    }
+
+    @NotNull
+    private static String hex(@NotNull byte[] hash)
+    {
+        StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (byte b : hash)
+        {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private final Path directory;
+    private final Map<String, ObjectModule> modules = new ConcurrentHashMap<>();
+    private final AtomicInteger assembled = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * @param directory The directory to read and write object files, which is created if needed, or null to only cache modules in memory
+     */
+    public ObjectCache(@Nullable Path directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads the module for a source file. It is only assembled if there is no module for the same source in memory or on disk.
+     *
+     * @throws InvalidAssemblyException if the source has to be assembled, and has an error
+     * @throws IOException              if the source could not be read, or the object file could not be written
+     */
+    @NotNull
+    public ObjectModule load(@NotNull Path source) throws InvalidAssemblyException, IOException
+    {
+        byte[] bytes = Files.readAllBytes(source);
+        String key = key(bytes);
+        ObjectModule module = modules.get(key);
+        if (module != null)
+        {
+            reused.incrementAndGet();
+            return module;
+        }
+
+        Path file = directory == null ? null : directory.resolve(key + OBJECT_EXTENSION);
+        if (file != null && Files.isRegularFile(file))
+        {
+            try (InputStream input = new BufferedInputStream(Files.newInputStream(file)))
+            {
+                module = ObjectModule.read(input);
+                modules.put(key, module);
+                reused.incrementAndGet();
+                return module;
+            }
+            catch (IOException e)
+            {
+                // The object file is incomplete or from another version, so it is assembled and written again
+            }
+        }
+
+        module = ObjectModule.of(FactorioAssembler.compile(new String(bytes, StandardCharsets.UTF_8)));
+        assembled.incrementAndGet();
+        if (file != null)
+        {
+            write(file, module);
+        }
+        modules.put(key, module);
+        return module;
+    }
+
+    /**
+     * @return the number of modules which were assembled from source
+     */
+    public int getAssembled()
+    {
+        return assembled.get();
+    }
+
+    /**
+     * @return the number of modules which were loaded from the cache
+     */
+    public int getReused()
+    {
+        return reused.get();
+    }
+
+    /**
+     * Writes an object file to a temporary file first, and then moves it into place, so a partially written file is never read
+     */
+    private void write(@NotNull Path file, @NotNull ObjectModule module) throws IOException
+    {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try
+        {
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary)))
+            {
+                module.write(output);
+            }
+            try
+            {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import assembler.asm.Assembly;
+import assembler.asm.Instruction;
+import assembler.asm.InstructionTemplate;
+import assembler.asm.InstructionType;
+import assembler.asm.Lexer;
+import assembler.util.Helpers;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Assembles a single program in parallel, with the same result as {@link FactorioAssembler#build(String)}.
+ *
+ * Every instruction and template expands to a fixed number of words, and the length of {@code .asciz} data is known from its text, so the ROM address of every line is known before anything is encoded:
+ * 1. Lines are tokenized in parallel chunks, and the number of words for each line is counted
+ * 2. The address of each line is the prefix sum of the word counts
+ * 3. Instructions and templates are encoded in parallel chunks
+ * 4. The encoded instructions are added to the assembly in source order, along with labels and directives, and the assembly is linked
+ *
+ * Symbols are interned in the same order as the sequential assembler, so the image and symbol table are identical.
+ * Any line which failed to encode is compiled again in step 4, so the first error in the source is reported exactly as it would be by the sequential assembler.
+ *
+ * @author Alex O'Neill
+ */
+public final class ParallelAssembler
+{
+    private static final int DEFAULT_CHUNK_LINES = 1024;
+
+    private final int parallelism;
+    private final int chunkLines;
+
+    /**
+     * @param parallelism The number of threads to use
+     */
+    public ParallelAssembler(int parallelism)
+    {
+        this(parallelism, DEFAULT_CHUNK_LINES);
+    }
+
+    /**
+     * @param chunkLines The number of lines tokenized or encoded by each task. Programs with no more than one chunk are assembled sequentially
+     */
+    ParallelAssembler(int parallelism, int chunkLines)
+    {
+        this.parallelism = parallelism;
+        this.chunkLines = chunkLines;
+    }
+
+    @NotNull
+    public Assembly build(@NotNull String input) throws InvalidAssemblyException
+    {
+        Assembly assembly = compile(input);
+        assembly.applyLinker();
+        return assembly;
+    }
+
+    /**
+     * Assembles a program without linking it. See {@link FactorioAssembler#compile(String)}
+     */
+    @NotNull
+    public Assembly compile(@NotNull String input) throws InvalidAssemblyException
+    {
+        if (parallelism <= 1)
+        {
+            return FactorioAssembler.compile(input);
+        }
+        List<String> lines = Helpers.getLinesUnformatted(input);
+        if (lines.size() <= chunkLines)
+        {
+            return FactorioAssembler.compile(input);
+        }
+
+        Line[] parsed = new Line[lines.size()];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            // Tokenize, and count the words for each line
+            forEachChunk(pool, parsed.length, start -> {
+                Lexer lexer = new Lexer();
+                for (int i = start; i < Math.min(start + chunkLines, parsed.length); i++)
+                {
+                    lexer.tokenize(lines.get(i));
+                    parsed[i] = new Line(lexer.copy());
+                }
+            });
+
+            // Layout
+            int address = 0;
+            for (Line line : parsed)
+            {
+                line.address = address;
+                address += line.size;
+            }
+
+            // Encode
+            forEachChunk(pool, parsed.length, start -> {
+                for (int i = start; i < Math.min(start + chunkLines, parsed.length); i++)
+                {
+                    parsed[i].encode();
+                }
+            });
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        Assembly assembly = new Assembly();
+        for (int i = 0; i < parsed.length; i++)
+        {
+            Line line = parsed[i];
+            if (assembly.size() != line.address)
+            {
+                throw new IllegalStateException("Line " + (i + 1) + " was laid out at address " + line.address + ", but assembled at " + assembly.size() + ". This is a bug!");
+            }
+            assembly.setSourceLine(i + 1);
+            FactorioAssembler.compileTokens(assembly, line.tokens, line.instructions);
+        }
+        return assembly;
+    }
+
+    /**
+     * Runs a task for the first line of each chunk, and waits for all of them to finish
+     */
+    private void forEachChunk(ForkJoinPool pool, int lines, IntConsumer task)
+    {
+        try
+        {
+            pool.submit(() -> IntStream.range(0, (lines + chunkLines - 1) / chunkLines).parallel().forEach(chunk -> task.accept(chunk * chunkLines))).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during parallel assembly", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Unknown exception during parallel assembly. This is a bug!", e.getCause());
+        }
+    }
+
+    /**
+     * A tokenized line. Lines which are only labels and an instruction or template are encoded in parallel, anything else (directives, exit, and errors) is compiled in order
+     */
+    private static final class Line
+    {
+        final Lexer tokens;
+        final int statement; // The first token which is not a label
+        final int size; // The number of words
+        InstructionType type;
+        InstructionTemplate template;
+        int address;
+        List<Instruction> instructions; // The encoded instructions, or null if this line needs to be compiled in order
+
+        Line(Lexer tokens)
+        {
+            this.tokens = tokens;
+            int token = 0;
+            while (token < tokens.size() && tokens.type(token) == Lexer.TokenType.LABEL)
+            {
+                token++;
+            }
+            statement = token;
+            size = countWords();
+        }
+
+        private int countWords()
+        {
+            if (statement == tokens.size())
+            {
+                return 0;
+            }
+            int start = tokens.start(statement), end = tokens.end(statement);
+            switch (tokens.type(statement))
+            {
+                case MNEMONIC:
+                    InstructionType type = InstructionType.get(tokens.line(), start, end);
+                    if (type == InstructionType.EXIT)
+                    {
+                        return 1;
+                    }
+                    if (type != null)
+                    {
+                        this.type = type;
+                        return 1;
+                    }
+                    template = InstructionTemplate.get(tokens.line(), start, end);
+                    return template != null ? template.size() : 0;
+                case DIRECTIVE:
+                    if (tokens.isDirective(statement, ".asciz"))
+                    {
+                        String text = statement + 1 < tokens.size() ? tokens.text(statement + 1) : "";
+                        return text.toUpperCase().getBytes(StandardCharsets.US_ASCII).length + 1;
+                    }
+                    return 0;
+                default:
+                    return 0;
+            }
+        }
+
+        void encode()
+        {
+            try
+            {
+                if (type != null)
+                {
+                    instructions = List.of(Instruction.of(type, address, tokens.textFrom(statement), tokens.arguments(statement)));
+                }
+                else if (template != null)
+                {
+                    instructions = template.expand(address, tokens.textFrom(statement), tokens.arguments(statement));
+                }
+            }
+            catch (Exception e)
+            {
+                // Compiled again in order, which reports the error
+                instructions = null;
+            }
+        }
+    }
+}
@@ -8,33 +8,71 @@ package assembler.asm;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import assembler.util.AssemblerEvents;
+import assembler.util.Diagnostic;
+import assembler.util.Diagnostics;
 import assembler.util.InvalidAssemblyException;
+import assembler.util.PhaseStats;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class Assembly
 {
-    private final List<IInstruction> lines;
-    private final Map<String, Integer> symbolTable;
+    private final ProgramImage image;
+    private final SymbolTable symbolTable;
+    private final List<String> includes;
     private int currentLine;
     private int currentMemoryLoc;
+    private int currentSourceLine;
+    private int relaxedBranches;
+    private PhaseStats stats;
 
     public Assembly()
     {
-        this.lines = new ArrayList<>();
-        this.symbolTable = new HashMap<>();
+        this.image = new ProgramImage();
+        this.symbolTable = new SymbolTable(image);
+        this.includes = new ArrayList<>();
         this.currentLine = 0;
         this.currentMemoryLoc = 0;
+        this.currentSourceLine = 0;
 
         // Init basic symbols
-        symbolTable.put("LAST_RAM_LOC", 319);
-        symbolTable.put("CHAR_OUT_LOC", 320);
-        symbolTable.put("CHAR_IN_LOC", 336);
+        try
+        {
+            symbolTable.define("LAST_RAM_LOC", 319, SymbolTable.BUILT_IN);
+            symbolTable.define("CHAR_OUT_LOC", 320, SymbolTable.BUILT_IN);
+            symbolTable.define("CHAR_IN_LOC", 336, SymbolTable.BUILT_IN);
+        }
+        catch (InvalidAssemblyException e)
+        {
+            throw new IllegalStateException("Duplicate built in symbol. This is a bug!", e);
+        }
+    }
+
+    /**
+     * Sets the source line (starting from one) of everything added afterwards. This is used to report the position of symbol errors.
+     */
+    public void setSourceLine(int sourceLine)
+    {
+        this.currentSourceLine = sourceLine;
+    }
+
+    public int getSourceLine()
+    {
+        return currentSourceLine;
+    }
+
+    /**
+     * Records the time and allocation of template expansion, optimizing and linking in the given stats
+     */
+    public void setStats(@Nullable PhaseStats stats)
+    {
+        this.stats = stats;
     }
 
     public void addData(@NotNull String dataString)
@@ -48,14 +86,14 @@ public class Assembly
         int amount = Integer.valueOf(args[1]);
         if (amount + currentMemoryLoc > 64)
         {
-            throw new InvalidAssemblyException("Memory overflow! Too much memory allocated.");
+            throw new InvalidAssemblyException(Diagnostic.Code.MEMORY_OVERFLOW);
         }
         if (amount <= 0)
         {
-            throw new InvalidAssemblyException("Can't allocate a non-positive amount of memory.");
+            throw new InvalidAssemblyException(Diagnostic.Code.MEMORY_NOT_POSITIVE);
         }
         // Add the label for the memory location
-        symbolTable.put(args[0], currentMemoryLoc + 256);
+        symbolTable.define(args[0], currentMemoryLoc + 256, currentSourceLine);
         // Increment the current memory counter
         currentMemoryLoc += amount;
     }
@@ -67,89 +105,313 @@ public class Assembly
         {
             throw new InvalidAssemblyException("Unknown Instruction Type");
         }
-        Instruction inst = new Instruction(type, currentLine, text, args);
-        addInstruction(inst);
+        addInstruction(type, text, args);
+    }
+
+    public void addInstruction(@NotNull InstructionType type, @NotNull String text, @NotNull String[] args) throws InvalidAssemblyException
+    {
+        addInstruction(new Instruction(type, currentLine, text, args));
+    }
+
+    public void addTemplate(@NotNull InstructionTemplate template, @NotNull String text, @NotNull String[] args) throws InvalidAssemblyException
+    {
+        AssemblerEvents.ExpandTemplate event = new AssemblerEvents.ExpandTemplate();
+        event.begin();
+        if (stats != null)
+        {
+            stats.begin(PhaseStats.Phase.EXPAND_TEMPLATES);
+        }
+        List<Instruction> instructions = template.expand(currentLine, text, args);
+        if (stats != null)
+        {
+            stats.end(PhaseStats.Phase.EXPAND_TEMPLATES);
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.template = template.getName();
+            event.instructions = instructions.size();
+            event.commit();
+        }
+
+        for (Instruction inst : instructions)
+        {
+            addInstruction(inst);
+        }
+    }
+
+    /**
+     * Adds instructions which were already created, i.e. by {@link InstructionTemplate#expand(int, String, String[])} on another thread
+     */
+    public void addInstructions(@NotNull List<Instruction> instructions)
+    {
+        for (Instruction inst : instructions)
+        {
+            addInstruction(inst);
+        }
+    }
+
+    /**
+     * Records a file included by {@code .include}. Included files are assembled separately, and must be linked with {@link Assembly#addModule(ObjectModule)} before this assembly is linked
+     *
+     * @param path The path to the file, relative to the file of this assembly
+     */
+    public void addInclude(@NotNull String path)
+    {
+        includes.add(path);
+    }
+
+    /**
+     * Adds a separately assembled module after everything in this assembly. Its labels and memory are moved after those of this assembly, and every reference in it is patched again.
+     * Symbols defined by the module can be referenced by this assembly or by modules added later, and vice versa.
+     *
+     * @throws InvalidAssemblyException if a symbol is defined in both, or there is not enough memory for the module
+     */
+    public void addModule(@NotNull ObjectModule module) throws InvalidAssemblyException
+    {
+        if (module.getMemory() + currentMemoryLoc > 64)
+        {
+            throw new InvalidAssemblyException(Diagnostic.Code.MEMORY_OVERFLOW);
+        }
+        int base = image.size(), memoryBase = currentMemoryLoc + 256;
+        for (int address = 0; address < module.size(); address++)
+        {
+            image.add(module.getWord(address), module.getKind(address), module.getSourceLine(address), module.getText(address));
+        }
+        currentLine = image.size();
+        currentMemoryLoc += module.getMemory();
+        for (int symbol = 0; symbol < module.getSymbolCount(); symbol++)
+        {
+            if (module.isLabel(symbol))
+            {
+                symbolTable.defineLabel(module.getSymbolName(symbol), base + module.getSymbolValue(symbol), module.getSymbolLine(symbol));
+            }
+            else
+            {
+                symbolTable.define(module.getSymbolName(symbol), memoryBase + module.getSymbolValue(symbol), module.getSymbolLine(symbol));
+            }
+        }
+        for (int relocation = 0; relocation < module.getRelocationCount(); relocation++)
+        {
+            int address = base + module.getRelocationAddress(relocation);
+            symbolTable.reference(module.getRelocationSymbol(relocation), address, module.getRelocationSlice(relocation), image.getSourceLine(address));
+        }
+    }
+
+    /**
+     * @return the files included by {@code .include} which have not been linked yet
+     */
+    @NotNull
+    public List<String> getIncludes()
+    {
+        return Collections.unmodifiableList(includes);
+    }
+
+    /**
+     * Marks all includes as linked, once the modules for them have been added by {@link Assembly#addModule(ObjectModule)}
+     */
+    public void clearIncludes()
+    {
+        includes.clear();
     }
 
     public void addExit()
     {
-        addInstruction(new InstructionRaw(0b1000000000010000, currentLine, "exit"));
+        image.add(InstructionType.EXIT_ENCODING, InstructionType.EXIT, currentSourceLine, null);
+        currentLine++;
     }
 
     @Override
     public String toString()
     {
-        return String.format("Lines:\n%s\nSymbols:\n%s\nMemory: %d / 64\n", lines.stream().map(x -> String.format("%3d | %16s | %5d | %s", x.getLine(), x.getEncodedString(), x.getEncoded(), x.toString())).collect(Collectors.joining("\n")), symbolTable, currentMemoryLoc);
+        return String.format("Lines:\n%s\nSymbols:\n%s\nMemory: %d / 64\n", getInstructions().stream().map(x -> String.format("%3d | %16s | %5d | %s", x.getLine(), x.getEncodedString(), x.getEncoded(), x.toString())).collect(Collectors.joining("\n")), symbolTable, currentMemoryLoc);
     }
 
-    public void addLabel(@NotNull String label)
+    public void addLabel(@NotNull String label) throws InvalidAssemblyException
     {
-        symbolTable.put(label, currentLine);
+        symbolTable.defineLabel(label, currentLine, currentSourceLine);
     }
 
     private void addData(@NotNull byte... dataValues)
     {
         for (int val : dataValues)
         {
-            lines.add(new InstructionRaw(val, currentLine, "asciz"));
+            image.addData(val, currentSourceLine);
             currentLine++;
         }
     }
 
+    /**
+     * References to symbols are patched as soon as the symbol is defined, so this only needs to check that there are no references left to unknown symbols, and then relax any branches to labels out of range
+     */
     public void applyLinker() throws InvalidAssemblyException
     {
-        for (int i = 0; i < lines.size(); i++)
+        AssemblerEvents.Link event = new AssemblerEvents.Link();
+        event.begin();
+        if (stats != null)
+        {
+            stats.begin(PhaseStats.Phase.LINK);
+        }
+        try
         {
-            IInstruction inst = lines.get(i);
-            String symbol = inst.getSymbol();
-            if (symbol != null)
+            if (!includes.isEmpty())
             {
-                // Calculate an offset value
-                int value = symbolTable.getOrDefault(symbol, -1);
-                if (value != -1)
-                {
-                    inst.setSymbol(value);
-                }
-                else
-                {
-                    InvalidAssemblyException e = new InvalidAssemblyException("Unknown symbol " + symbol);
-                    e.attachData("Current Line: " + i, "Instruction: " + inst, this);
-                    throw e;
-                }
+                throw new InvalidAssemblyException(Diagnostic.Code.UNLINKED_INCLUDE, includes.get(0));
             }
+            symbolTable.checkResolved();
+            relaxedBranches = BranchRelaxer.relax(image, symbolTable);
+            symbolTable.checkRanges();
+            currentLine = image.size();
+        }
+        catch (InvalidAssemblyException e)
+        {
+            e.attachData(this);
+            throw e;
+        }
+        finally
+        {
+            if (stats != null)
+            {
+                stats.end(PhaseStats.Phase.LINK);
+            }
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.instructions = image.size();
+            event.symbols = symbolTable.size();
+            event.relaxedBranches = relaxedBranches;
+            event.commit();
         }
     }
 
+    /**
+     * Links the assembly, adding an error for every unknown symbol instead of stopping at the first. Branches are only relaxed if there are no errors, including any already in the diagnostics.
+     */
+    public void applyLinker(@NotNull Diagnostics diagnostics)
+    {
+        for (String include : includes)
+        {
+            diagnostics.add(0, 0, Diagnostic.Code.UNLINKED_INCLUDE, include);
+        }
+        symbolTable.checkResolved(diagnostics);
+        if (diagnostics.isEmpty())
+        {
+            try
+            {
+                applyLinker();
+            }
+            catch (InvalidAssemblyException e)
+            {
+                diagnostics.add(0, 0, e);
+            }
+        }
+    }
+
+    /**
+     * Runs the peephole optimizer on the assembled image. This must be done after all source is added, and before {@link Assembly#applyLinker()}
+     *
+     * @return what was optimized
+     */
+    @NotNull
+    public Optimizer.Result optimize()
+    {
+        AssemblerEvents.Optimize event = new AssemblerEvents.Optimize();
+        event.begin();
+        if (stats != null)
+        {
+            stats.begin(PhaseStats.Phase.OPTIMIZE);
+        }
+        Optimizer.Result result = Optimizer.optimize(image, symbolTable);
+        currentLine = image.size();
+        if (stats != null)
+        {
+            stats.end(PhaseStats.Phase.OPTIMIZE);
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.instructions = image.size();
+            event.instructionsSaved = result.getInstructionsSaved();
+            event.passes = result.getPasses();
+            event.commit();
+        }
+        return result;
+    }
+
+    @NotNull
+    public ProgramImage getImage()
+    {
+        return image;
+    }
+
+    /**
+     * @return a view of the assembled words. Prefer {@link Assembly#getImage()} where possible, as this creates an object for each word accessed
+     */
     @NotNull
     public List<IInstruction> getInstructions()
     {
-        return lines;
+        return image.asList();
+    }
+
+    /**
+     * @return the labels defined in source, and their ROM addresses
+     */
+    @NotNull
+    public Map<String, Integer> getLabels()
+    {
+        return symbolTable.labels();
+    }
+
+    /**
+     * @return the number of branches which were out of range, and were rewritten by the linker
+     */
+    public int getRelaxedBranches()
+    {
+        return relaxedBranches;
     }
 
     public int size()
     {
-        return lines.size();
+        return image.size();
+    }
+
+    /**
+     * @return the number of symbols, including built in symbols, and symbols which are referenced but not defined
+     */
+    public int getSymbolCount()
+    {
+        return symbolTable.size();
+    }
+
+    /**
+     * @return the number of words of RAM allocated by {@code .malloc}
+     */
+    public int getMemory()
+    {
+        return currentMemoryLoc;
     }
 
     @Nullable
     public IInstruction getInstruction(int line)
     {
-        return line >= lines.size() ? null : lines.get(line);
+        return image.get(line);
     }
 
-    private void addInstruction(@NotNull IInstruction instruction)
+    @NotNull
+    SymbolTable getSymbolTable()
+    {
+        return symbolTable;
+    }
+
+    private void addInstruction(@NotNull Instruction instruction)
     {
+        int address = image.add(instruction.getEncoded(), instruction.getType(), currentSourceLine, instruction.getText());
         String symbol = instruction.getSymbol();
         if (symbol != null)
         {
-            int value = symbolTable.getOrDefault(symbol, -1);
-            if (value != -1)
-            {
-                instruction.setSymbol(value);
-            }
+            symbolTable.reference(symbol, address, instruction.getSlice(), currentSourceLine);
         }
-
-        lines.add(instruction);
         currentLine++;
     }
 }
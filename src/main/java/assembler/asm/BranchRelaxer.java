@@ -0,0 +1,709 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import assembler.util.Diagnostic;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Rewrites branches to labels which are out of range of the 6-bit offset. Branches which fit are left as a single instruction.
+ * Each out of range branch is rewritten into the cheapest of:
+ * - Branching to an existing {@code br} to the same target which is in range (a shared trampoline)
+ * - A {@code call} as a long jump, inverting or skipping over it for conditional branches
+ * - Branching to a new {@code br} to the target, placed after an instruction which never continues to the next one, so it is never executed otherwise
+ *
+ * A trampoline may itself be out of range, in which case it is rewritten again. Inserting instructions may push other branches out of range, so this repeats until every branch fits.
+ * Inserting instructions may also push a label past address 63, so any {@code movia} of it which was shortened by the {@link Optimizer} is expanded again.
+ *
+ * Calls overwrite {@code ra}, so if the program reads it, out of range branches are instead routed through chains of trampolines, which are planned before any are inserted. See {@link Plan}.
+ *
+ * @author Alex O'Neill
+ */
+final class BranchRelaxer
+{
+    private static final int MIN_OFFSET = -32, MAX_OFFSET = 31;
+
+    /**
+     * Relaxes every branch in an image. This must only be used once all symbols are resolved.
+     *
+     * @return the number of branches which were rewritten
+     * @throws InvalidAssemblyException if the branches could not be relaxed
+     */
+    static int relax(@NotNull ProgramImage image, @NotNull SymbolTable symbolTable) throws InvalidAssemblyException
+    {
+        if (readsReturnAddress(image))
+        {
+            checkSpans(image, symbolTable);
+            Plan plan = new Plan(image, symbolTable);
+            while (plan.step())
+            {
+                plan.layout();
+            }
+            return plan.apply();
+        }
+
+        int relaxed = 0, steps = 0, limit = 4 * image.size() + 16;
+        for (int address = next(image, symbolTable); address != -1; address = next(image, symbolTable))
+        {
+            if (++steps > limit)
+            {
+                throw new InvalidAssemblyException(Diagnostic.Code.UNRELAXABLE_BRANCH, address);
+            }
+            if (image.isShortened(address))
+            {
+                expand(image, symbolTable, address);
+            }
+            else
+            {
+                relax(image, symbolTable, address);
+                relaxed++;
+            }
+        }
+        return relaxed;
+    }
+
+    /**
+     * @return the address of the first branch which is out of range, or shortened {@code movia} which no longer fits, or -1 if there are none
+     */
+    private static int next(ProgramImage image, SymbolTable symbolTable)
+    {
+        for (int address = 0; address < image.size(); address++)
+        {
+            InstructionType type = image.getType(address);
+            if (type != null && type.type == 4 && !inRange(address, symbolTable.target(address)))
+            {
+                return address;
+            }
+            if (image.isShortened(address) && SymbolSlice.HIGH.apply(symbolTable.value(image.getSymbol(address))) != 0)
+            {
+                return address;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Expands {@code ori rX, r0, LOW}, which was shortened from a {@code movia}, back to {@code ori rX, r0, HIGH; lsi rX, rX, 6; ori rX, rX, LOW}
+     */
+    private static void expand(ProgramImage image, SymbolTable symbolTable, int address)
+    {
+        int rd = Disassembler.rd(Disassembler.decode(image.getWord(address))), id = image.getSymbol(address);
+        insert(image, symbolTable, address + 1, (rd << 13) | (rd << 10) | (6 << 4) | InstructionType.LEFT_SHIFTI.opcode, address);
+        insert(image, symbolTable, address + 2, (rd << 13) | (rd << 10) | InstructionType.ORI.opcode, address);
+        image.set(address, (rd << 13) | InstructionType.ORI.opcode, InstructionType.ORI);
+        image.setShortened(address, false);
+        image.setSymbol(address, id, SymbolSlice.HIGH);
+        image.setSymbol(address + 2, id, SymbolSlice.LOW);
+        image.relocate(address, symbolTable.value(id), SymbolSlice.HIGH);
+        image.relocate(address + 2, symbolTable.value(id), SymbolSlice.LOW);
+    }
+
+    private static void relax(ProgramImage image, SymbolTable symbolTable, int address)
+    {
+        int target = symbolTable.target(address), size = image.size();
+        int entry = Disassembler.decode(image.getWord(address));
+        InstructionType type = image.getType(address);
+        boolean unconditional = Optimizer.isUnconditional(image, address);
+
+        // An existing trampoline
+        for (int offset = MIN_OFFSET; offset <= MAX_OFFSET; offset++)
+        {
+            int trampoline = address + 1 + offset;
+            if (trampoline >= 0 && trampoline < size && trampoline != address && Optimizer.isUnconditional(image, trampoline) && symbolTable.target(trampoline) == target && Math.abs(target - trampoline) < Math.abs(target - address))
+            {
+                branch(image, symbolTable, address, trampoline);
+                return;
+            }
+        }
+
+        if (unconditional)
+        {
+            // br -> call
+            image.set(address, InstructionType.CALL.opcode, InstructionType.CALL);
+            branch(image, symbolTable, address, target);
+            return;
+        }
+
+        // A new trampoline, where it will not be executed
+        int trampoline = -1;
+        for (int offset = MIN_OFFSET; offset <= MAX_OFFSET; offset++)
+        {
+            int position = address + 1 + offset;
+            // If the trampoline is before the branch, the branch will move forwards, so the trampoline must be in range of the new address
+            if (position > 0 && position <= size && position != address + 1 && (position > address || inRange(address + 1, position))
+                && Math.abs(target - position) < Math.abs(target - address) && isUnreachable(image, position - 1)
+                && (trampoline == -1 || Math.abs(target - position) < Math.abs(target - trampoline)))
+            {
+                trampoline = position;
+            }
+        }
+        if (trampoline != -1)
+        {
+            int[] addresses = insert(image, symbolTable, trampoline, InstructionType.BR_EQUAL.opcode, address);
+            target = move(target, addresses);
+            address = addresses[address];
+            branch(image, symbolTable, trampoline, target);
+            branch(image, symbolTable, address, trampoline);
+            return;
+        }
+
+        int rd = Disassembler.rd(entry), rs = Disassembler.rs(entry);
+        if (type == InstructionType.BR_EQUAL || type == InstructionType.BR_NOT_EQUAL)
+        {
+            // beq x, y, far -> bne x, y, 1; call far
+            InstructionType inverse = type == InstructionType.BR_EQUAL ? InstructionType.BR_NOT_EQUAL : InstructionType.BR_EQUAL;
+            target = move(target, insert(image, symbolTable, address + 1, InstructionType.CALL.opcode, address));
+            image.set(address, (rd << 13) | (rs << 10) | inverse.opcode, inverse);
+            branch(image, symbolTable, address, address + 2);
+            branch(image, symbolTable, address + 1, target);
+        }
+        else
+        {
+            // bgt x, y, far -> bgt x, y, 1; br 1; call far
+            target = move(target, insert(image, symbolTable, address + 1, InstructionType.CALL.opcode, address));
+            target = move(target, insert(image, symbolTable, address + 1, InstructionType.BR_EQUAL.opcode, address));
+            branch(image, symbolTable, address, address + 2);
+            branch(image, symbolTable, address + 1, address + 3);
+            branch(image, symbolTable, address + 2, target);
+        }
+    }
+
+    /**
+     * Inserts an instruction, with the source of the branch being relaxed, and moves all labels and branches to match
+     *
+     * @return the new address of every previous address
+     */
+    private static int[] insert(ProgramImage image, SymbolTable symbolTable, int position, int encoded, int source)
+    {
+        return insert(image, symbolTable, position, encoded, image.getSourceLine(source), image.getText(source));
+    }
+
+    private static int[] insert(ProgramImage image, SymbolTable symbolTable, int position, int encoded, int sourceLine, String text)
+    {
+        InstructionType type = InstructionType.decode(encoded);
+        int size = image.size();
+        int[] literalTargets = symbolTable.literalTargets();
+
+        int[] addresses = image.insert(position, encoded, type, sourceLine, text);
+        symbolTable.relocate(addresses);
+        for (int address = 0; address < size; address++)
+        {
+            int target = literalTargets[address];
+            if (target != SymbolTable.NO_TARGET)
+            {
+                target = move(target, addresses);
+                if (inRange(addresses[address], target) || image.getType(addresses[address]) == InstructionType.CALL)
+                {
+                    image.relocate(addresses[address], target, SymbolSlice.ALL);
+                }
+                else
+                {
+                    // This would no longer fit, so it needs a label to be relaxed
+                    branch(image, symbolTable, addresses[address], target);
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Points a branch or call at a label for the target, so it will still reach the target if instructions are inserted, even if it does not fit
+     */
+    private static void branch(ProgramImage image, SymbolTable symbolTable, int address, int target)
+    {
+        image.setSymbol(address, symbolTable.label(target), SymbolSlice.ALL);
+        image.relocate(address, target, SymbolSlice.ALL);
+    }
+
+    private static int move(int target, int[] addresses)
+    {
+        int end = addresses.length - 1;
+        if (target < 0)
+        {
+            return target;
+        }
+        return target <= end ? addresses[target] : target + addresses[end] - end;
+    }
+
+    private static boolean inRange(int address, int target)
+    {
+        int offset = target - address - 1;
+        return offset >= MIN_OFFSET && offset <= MAX_OFFSET;
+    }
+
+    /**
+     * @return if the word at an address never continues to the next word
+     */
+    private static boolean isUnreachable(ProgramImage image, int address)
+    {
+        InstructionType type = image.getType(address);
+        return type == InstructionType.RETURN || type == InstructionType.EXIT || Optimizer.isUnconditional(image, address);
+    }
+
+    private static boolean isData(ProgramImage image, int address)
+    {
+        return address >= 0 && address < image.size() && image.getType(address) == null;
+    }
+
+    /**
+     * Without long jumps, a branch can only reach past a block of data with a trampoline placed on either side of it.
+     *
+     * @throws InvalidAssemblyException if an out of range branch has to jump over a block of data which is too long for any branch
+     */
+    private static void checkSpans(ProgramImage image, SymbolTable symbolTable) throws InvalidAssemblyException
+    {
+        for (int address = 0; address < image.size(); address++)
+        {
+            InstructionType type = image.getType(address);
+            int target = symbolTable.target(address);
+            if (type != null && type.type == 4 && !inRange(address, target))
+            {
+                if (target < 0 || target > image.size())
+                {
+                    throw new InvalidAssemblyException(Diagnostic.Code.UNRELAXABLE_BRANCH, address);
+                }
+                // Backwards, the trampoline after the data must reach the word before it
+                checkData(image, symbolTable, Math.min(address, target) + 1, Math.max(address, target), target > address ? MAX_OFFSET : -MIN_OFFSET - 2, image.getSourceLine(address), target);
+            }
+        }
+    }
+
+    /**
+     * @throws InvalidAssemblyException if there is a block of data between two addresses which is longer than the limit
+     */
+    private static void checkData(ProgramImage image, SymbolTable symbolTable, int from, int to, int limit, int sourceLine, int target) throws InvalidAssemblyException
+    {
+        int longest = -1, length = 0;
+        for (int address = from; address < to; address++)
+        {
+            int end = address;
+            while (end < to && isData(image, end))
+            {
+                end++;
+            }
+            if (end - address > length)
+            {
+                longest = address;
+                length = end - address;
+            }
+            address = end;
+        }
+        if (length > limit)
+        {
+            throw new InvalidAssemblyException(Diagnostic.Code.UNBRIDGEABLE_BRANCH, sourceLine, describe(symbolTable, target), length, describe(symbolTable, longest));
+        }
+    }
+
+    /**
+     * @return the name of a label in source at an address, or the address if there is none
+     */
+    private static String describe(SymbolTable symbolTable, int address)
+    {
+        for (Map.Entry<String, Integer> label : symbolTable.labels().entrySet())
+        {
+            if (label.getValue() == address)
+            {
+                return label.getKey();
+            }
+        }
+        return "address " + address;
+    }
+
+    /**
+     * @return if any instruction reads {@code ra} (r1), including {@code ret}
+     */
+    private static boolean readsReturnAddress(ProgramImage image)
+    {
+        for (int address = 0; address < image.size(); address++)
+        {
+            InstructionType type = image.getType(address);
+            if (type == null)
+            {
+                continue;
+            }
+            int entry = Disassembler.decode(image.getWord(address));
+            int rd = Disassembler.rd(entry), rs = Disassembler.rs(entry), rt = Disassembler.rt(entry);
+            switch (type.type)
+            {
+                case 1:
+                    if (type == InstructionType.RETURN)
+                    {
+                        return true;
+                    }
+                    break;
+                case 2:
+                    if (rs == 1 || rt == 1)
+                    {
+                        return true;
+                    }
+                    break;
+                case 3:
+                    if (rs == 1 || (type == InstructionType.STORE && rd == 1))
+                    {
+                        return true;
+                    }
+                    break;
+                case 4:
+                    if (rd == 1 || rs == 1)
+                    {
+                        return true;
+                    }
+                    break;
+                case 5:
+                case 6:
+                    if (rs == 1)
+                    {
+                        return true;
+                    }
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private BranchRelaxer() {}
+
+    /**
+     * A plan of where to insert trampolines, for relaxing branches without long jumps.
+     * Trampolines are grouped into islands at sites between words, where the site before word n is at n. An island has a {@code br} over it, unless the word before never continues to the next one.
+     * Each branch, and each trampoline, has a next hop, which is initially the target of the branch. A hop which is out of range is split by pointing it at a trampoline between its ends: an existing one to the same target, or else a new one.
+     * Within an island, trampolines which go backwards come first, oldest first, followed by those which go forwards, newest first. So adding a trampoline to an island never moves another away from its next hop.
+     * Trampolines are only ever added, and each split brings the hop closer, so this always finishes. A shortened {@code movia} is expanded by adding its two words to the start of the island after it.
+     * Addresses are computed from the plan without changing the image, and only once every hop fits are the words inserted.
+     */
+    private static final class Plan
+    {
+        private static final int NONE = Integer.MIN_VALUE;
+
+        private final ProgramImage image;
+        private final SymbolTable symbolTable;
+        private final int size;
+        private final int[] targets, next; // The target of each branch, and its next hop, which is a word, or the complement of the index of a trampoline
+        private final boolean[] guards, expanded; // If an island at each site needs a br over it, and if each shortened movia is expanded
+        private final int[] islands, backwards, offsets; // The number of trampolines at each site, how many of them go backwards, and the number of words inserted up to and including each site
+        private final List<Trampoline> trampolines;
+
+        Plan(ProgramImage image, SymbolTable symbolTable)
+        {
+            this.image = image;
+            this.symbolTable = symbolTable;
+            this.size = image.size();
+            this.targets = new int[size];
+            this.next = new int[size];
+            this.guards = new boolean[size + 1];
+            this.expanded = new boolean[size];
+            this.islands = new int[size + 1];
+            this.backwards = new int[size + 1];
+            this.offsets = new int[size + 1];
+            this.trampolines = new ArrayList<>();
+
+            for (int address = 0; address < size; address++)
+            {
+                InstructionType type = image.getType(address);
+                int target = symbolTable.target(address);
+                targets[address] = target;
+                next[address] = type != null && type.type == 4 && target >= 0 && target <= size ? target : NONE;
+            }
+            for (int site = 0; site <= size; site++)
+            {
+                guards[site] = site == 0 || !(isUnreachable(image, site - 1) || isData(image, site - 1));
+            }
+            layout();
+        }
+
+        /**
+         * Expands one shortened {@code movia}, or splits one hop which is out of range
+         *
+         * @return if the plan changed
+         */
+        boolean step() throws InvalidAssemblyException
+        {
+            for (int address = 0; address < size; address++)
+            {
+                if (image.isShortened(address) && !expanded[address] && SymbolSlice.HIGH.apply(value(image.getSymbol(address))) != 0)
+                {
+                    expanded[address] = true;
+                    return true;
+                }
+            }
+            for (int address = 0; address < size; address++)
+            {
+                if (next[address] != NONE && !inRange(address(address), address(next[address])))
+                {
+                    next[address] = split(address, next[address], targets[address], image.getSourceLine(address));
+                    return true;
+                }
+            }
+            for (int index = 0; index < trampolines.size(); index++)
+            {
+                Trampoline trampoline = trampolines.get(index);
+                if (!inRange(address(~index), address(trampoline.next)))
+                {
+                    trampoline.next = split(~index, trampoline.next, trampoline.target, trampoline.sourceLine);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void layout()
+        {
+            for (int site = 0; site <= size; site++)
+            {
+                offsets[site] = (site == 0 ? 0 : offsets[site - 1]) + islandSize(site);
+            }
+        }
+
+        /**
+         * Inserts every trampoline and expanded {@code movia}, and points every hop at its planned address
+         *
+         * @return the number of branches which were rewritten
+         */
+        int apply()
+        {
+            // From the last site, so earlier words are not moved
+            for (int site = size; site >= 0; site--)
+            {
+                int sourceLine = 0;
+                String text = null;
+                for (int rank = islands[site] - 1; rank >= 0; rank--)
+                {
+                    for (Trampoline trampoline : trampolines)
+                    {
+                        if (trampoline.site == site && rank(trampoline) == rank)
+                        {
+                            insert(image, symbolTable, site, InstructionType.BR_EQUAL.opcode, trampoline.sourceLine, trampoline.text);
+                            sourceLine = trampoline.sourceLine;
+                            text = trampoline.text;
+                        }
+                    }
+                }
+                if (islands[site] > 0 && guards[site])
+                {
+                    insert(image, symbolTable, site, InstructionType.BR_EQUAL.opcode, sourceLine, text);
+                }
+                if (site > 0 && expanded[site - 1])
+                {
+                    expand(image, symbolTable, site - 1);
+                }
+            }
+
+            for (int site = 0; site <= size; site++)
+            {
+                if (islands[site] > 0 && guards[site])
+                {
+                    branch(image, symbolTable, start(site) + (site > 0 && expanded[site - 1] ? 2 : 0), address(site));
+                }
+            }
+            for (int index = 0; index < trampolines.size(); index++)
+            {
+                branch(image, symbolTable, address(~index), address(trampolines.get(index).next));
+            }
+            int relaxed = 0;
+            for (int address = 0; address < size; address++)
+            {
+                if (next[address] != NONE && next[address] != targets[address])
+                {
+                    branch(image, symbolTable, address(address), address(next[address]));
+                    relaxed++;
+                }
+            }
+            return relaxed;
+        }
+
+        /**
+         * @return the next hop for a hop which is out of range
+         */
+        private int split(int from, int to, int target, int sourceLine) throws InvalidAssemblyException
+        {
+            int address = address(from), fromKey = key(from), toKey = key(to);
+
+            // An existing trampoline, or br, to the same target, as close to it as possible
+            int shared = NONE;
+            for (int hop = -trampolines.size(); hop < size; hop++)
+            {
+                if (leadsTo(hop, target) && between(key(hop), fromKey, key(target)) && inRange(address, address(hop))
+                    && (shared == NONE || Math.abs(address(target) - address(hop)) < Math.abs(address(target) - address(shared))))
+                {
+                    shared = hop;
+                }
+            }
+            if (shared != NONE)
+            {
+                return shared;
+            }
+
+            // A new trampoline. If one reaches the next hop, prefer the fewest words, and then the most room either side, so later insertions are less likely to push it out of range. Otherwise, as far as possible
+            int best = -1, bestCost = 0, bestScore = 0;
+            boolean bestReaches = false;
+            for (int site = Math.min(fromKey, toKey) / 2 + 1; 2 * site < Math.max(fromKey, toKey) && site <= size; site++)
+            {
+                if (Math.abs(start(site) - address) > MAX_OFFSET - MIN_OFFSET || (isData(image, site - 1) && isData(image, site)) || hasTrampoline(site, target))
+                {
+                    continue;
+                }
+                int cost = islands[site] == 0 && guards[site] ? 2 : 1;
+                int position = start(site) + islandSize(site) - islands[site] + cost - 1 + backwards[site];
+                int source = fromKey > 2 * site ? address + cost : address;
+                int destination = toKey > 2 * site ? address(to) + cost : address(to);
+                if (!inRange(source, position))
+                {
+                    continue;
+                }
+                boolean reaches = inRange(position, destination);
+                int score = reaches ? Math.min(room(source, position), room(position, destination)) : Math.abs(position - source);
+                boolean better;
+                if (best == -1 || reaches != bestReaches)
+                {
+                    better = best == -1 || reaches;
+                }
+                else if (reaches)
+                {
+                    better = cost < bestCost || (cost == bestCost && score > bestScore);
+                }
+                else
+                {
+                    better = score > bestScore || (score == bestScore && cost < bestCost);
+                }
+                if (better)
+                {
+                    best = site;
+                    bestCost = cost;
+                    bestScore = score;
+                    bestReaches = reaches;
+                }
+            }
+            if (best == -1)
+            {
+                checkData(image, symbolTable, (Math.min(fromKey, toKey) + 1) / 2, Math.max(fromKey, toKey) / 2, 0, sourceLine, target);
+                throw new InvalidAssemblyException(Diagnostic.Code.UNRELAXABLE_BRANCH, address);
+            }
+
+            String text = from >= 0 ? image.getText(from) : trampolines.get(~from).text;
+            boolean forwards = toKey > fromKey;
+            trampolines.add(new Trampoline(best, forwards ? islands[best] - backwards[best] : backwards[best]++, forwards, target, to, sourceLine, text));
+            islands[best]++;
+            return ~(trampolines.size() - 1);
+        }
+
+        /**
+         * @return if a word or trampoline always ends up at a target
+         */
+        private boolean leadsTo(int hop, int target)
+        {
+            if (hop < 0)
+            {
+                return trampolines.get(~hop).target == target;
+            }
+            return next[hop] != NONE && targets[hop] == target && Optimizer.isUnconditional(image, hop);
+        }
+
+        private boolean hasTrampoline(int site, int target)
+        {
+            for (Trampoline trampoline : trampolines)
+            {
+                if (trampoline.site == site && trampoline.target == target)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the number of words in the island at a site, including an expanded {@code movia} before it
+         */
+        private int islandSize(int site)
+        {
+            return (site > 0 && expanded[site - 1] ? 2 : 0) + (islands[site] == 0 ? 0 : (guards[site] ? 1 : 0) + islands[site]);
+        }
+
+        /**
+         * @return the planned address of the first word of the island at a site
+         */
+        private int start(int site)
+        {
+            return site + (site == 0 ? 0 : offsets[site - 1]);
+        }
+
+        /**
+         * @return the planned address of a word or trampoline
+         */
+        private int address(int hop)
+        {
+            if (hop >= 0)
+            {
+                return hop + offsets[Math.min(hop, size)];
+            }
+            Trampoline trampoline = trampolines.get(~hop);
+            return start(trampoline.site) + islandSize(trampoline.site) - islands[trampoline.site] + rank(trampoline);
+        }
+
+        /**
+         * @return the position of a trampoline in its island
+         */
+        private int rank(Trampoline trampoline)
+        {
+            int site = trampoline.site;
+            return trampoline.forwards ? islands[site] - 1 - trampoline.index : trampoline.index;
+        }
+
+        /**
+         * @return a key which orders words and sites by address, where the site before a word comes before it
+         */
+        private int key(int hop)
+        {
+            return hop >= 0 ? 2 * hop + 1 : 2 * trampolines.get(~hop).site;
+        }
+
+        /**
+         * @return the planned value of a symbol
+         */
+        private int value(int id)
+        {
+            return symbolTable.isLabel(id) ? address(symbolTable.value(id)) : symbolTable.value(id);
+        }
+
+        private static boolean between(int key, int from, int to)
+        {
+            return from < to ? key > from && key < to : key < from && key > to;
+        }
+
+        /**
+         * @return how far the target of a branch could move before it is out of range
+         */
+        private static int room(int address, int target)
+        {
+            int offset = target - address - 1;
+            return Math.min(MAX_OFFSET - offset, offset - MIN_OFFSET);
+        }
+    }
+
+    private static final class Trampoline
+    {
+        private final int site, index, target, sourceLine; // The index counts trampolines in the island which go the same way
+        private final boolean forwards;
+        private final String text;
+        private int next;
+
+        Trampoline(int site, int index, boolean forwards, int target, int next, int sourceLine, String text)
+        {
+            this.site = site;
+            this.index = index;
+            this.forwards = forwards;
+            this.target = target;
+            this.next = next;
+            this.sourceLine = sourceLine;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decodes encoded words back into instructions, using a table of every possible 16-bit word.
+ * Each table entry packs the instruction type and operand fields, so decoding a word is a single array read, regardless of the opcode width.
+ *
+ * Entries are laid out as {@code [16b - signed immediate][3b - RT][3b - RS][3b - RD][7b - type]}, where the type is the {@link InstructionType} ordinal plus one, or zero for an invalid word.
+ * The immediate is the 11-bit offset for call, the 6-bit offset or value for types 3 - 6 (sign extended except for type 6), and zero otherwise.
+ *
+ * @author Alex O'Neill
+ */
+public final class Disassembler
+{
+    private static final InstructionType[] TYPES = InstructionType.values();
+    private static final String[] REGISTERS = {"r0", "r1", "r2", "r3", "r4", "r5", "r6", "r7"};
+
+    /**
+     * @return the decode table entry of an encoded word
+     */
+    @Contract(pure = true)
+    public static int decode(int word)
+    {
+        return Table.ENTRIES[word & 0xFFFF];
+    }
+
+    /**
+     * @return the instruction type of a decode table entry, or null if the word is not a valid instruction
+     */
+    @Nullable
+    @Contract(pure = true)
+    public static InstructionType type(int entry)
+    {
+        int type = entry & 0b1111111;
+        return type == 0 ? null : TYPES[type - 1];
+    }
+
+    @Contract(pure = true)
+    public static int rd(int entry)
+    {
+        return (entry >> 7) & 7;
+    }
+
+    @Contract(pure = true)
+    public static int rs(int entry)
+    {
+        return (entry >> 10) & 7;
+    }
+
+    @Contract(pure = true)
+    public static int rt(int entry)
+    {
+        return (entry >> 13) & 7;
+    }
+
+    @Contract(pure = true)
+    public static int immediate(int entry)
+    {
+        return entry >> 16;
+    }
+
+    /**
+     * @return the target address of a branch or call at the given address, or -1 if the word is not a branch or call
+     */
+    @Contract(pure = true)
+    public static int target(int address, int word)
+    {
+        int entry = decode(word);
+        InstructionType type = type(entry);
+        if (type == InstructionType.CALL || (type != null && type.type == 4))
+        {
+            return (address + 1 + immediate(entry)) & 0xFFFF;
+        }
+        return -1;
+    }
+
+    /**
+     * Disassembles a single word. Branch and call targets are written as offsets, as they would be in source.
+     */
+    @NotNull
+    public static String disassemble(int word)
+    {
+        StringBuilder builder = new StringBuilder();
+        append(builder, word, -1, null);
+        return builder.toString();
+    }
+
+    /**
+     * Disassembles a program into a listing. Each line has the address, the encoded word and the instruction.
+     * Every branch and call target inside the program gets a label, {@code SUB_n} for call targets and {@code L_n} for branch targets, which replaces the offset in the instruction.
+     */
+    @NotNull
+    public static String listing(@NotNull ProgramImage image)
+    {
+        int size = image.size();
+        String[] labels = labels(image);
+        StringBuilder builder = new StringBuilder(size * 32);
+        for (int address = 0; address < size; address++)
+        {
+            if (labels[address] != null)
+            {
+                builder.append(labels[address]).append(":\n");
+            }
+            int word = image.getWord(address);
+            builder.append(String.format("%3d | %04X | ", address, word));
+            append(builder, word, address, labels);
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Recovers labels from the targets of branches and calls. Calls take priority, as a subroutine may also be the target of branches within it.
+     *
+     * @return the label for each address, or null if the address is not a target
+     */
+    @NotNull
+    public static String[] labels(@NotNull ProgramImage image)
+    {
+        int size = image.size();
+        String[] labels = new String[size];
+        for (int address = 0; address < size; address++)
+        {
+            int word = image.getWord(address), target = target(address, word);
+            if (target >= 0 && target < size)
+            {
+                if (type(decode(word)) == InstructionType.CALL)
+                {
+                    labels[target] = "SUB_" + target;
+                }
+                else if (labels[target] == null)
+                {
+                    labels[target] = "L_" + target;
+                }
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * @param address The address of the word, used to resolve labels
+     * @param labels  The labels for each address, or null to write offsets
+     */
+    private static void append(StringBuilder builder, int word, int address, @Nullable String[] labels)
+    {
+        int entry = decode(word);
+        InstructionType type = type(entry);
+        if (type == null)
+        {
+            builder.append(".word ").append(word & 0xFFFF);
+            return;
+        }
+        builder.append(type.getName());
+        switch (type.type)
+        {
+            case 1:
+                if (type == InstructionType.CALL)
+                {
+                    builder.append(' ');
+                    appendTarget(builder, entry, address, labels);
+                }
+                break;
+            case 2:
+                builder.append(' ').append(REGISTERS[rd(entry)]).append(", ").append(REGISTERS[rs(entry)]).append(", ").append(REGISTERS[rt(entry)]);
+                break;
+            case 3:
+                builder.append(' ').append(REGISTERS[rd(entry)]).append(", ").append(immediate(entry)).append('(').append(REGISTERS[rs(entry)]).append(')');
+                break;
+            case 4:
+                builder.append(' ').append(REGISTERS[rd(entry)]).append(", ").append(REGISTERS[rs(entry)]).append(", ");
+                appendTarget(builder, entry, address, labels);
+                break;
+            case 5:
+            case 6:
+                builder.append(' ').append(REGISTERS[rd(entry)]).append(", ").append(REGISTERS[rs(entry)]).append(", ").append(immediate(entry));
+                break;
+        }
+    }
+
+    private static void appendTarget(StringBuilder builder, int entry, int address, @Nullable String[] labels)
+    {
+        if (labels != null)
+        {
+            int target = address + 1 + immediate(entry);
+            if (target >= 0 && target < labels.length && labels[target] != null)
+            {
+                builder.append(labels[target]);
+                return;
+            }
+        }
+        builder.append(immediate(entry));
+    }
+
+    private Disassembler() {}
+
+    /**
+     * The decode table is built on first use
+     */
+    private static final class Table
+    {
+        private static final int[] ENTRIES = new int[1 << 16];
+
+        static
+        {
+            for (int word = 0; word < ENTRIES.length; word++)
+            {
+                InstructionType type = InstructionType.decode(word);
+                if (type == null)
+                {
+                    continue;
+                }
+                int immediate = 0;
+                switch (type.type)
+                {
+                    case 1:
+                        immediate = type == InstructionType.CALL ? (word << 16) >> 21 : 0;
+                        break;
+                    case 3:
+                    case 4:
+                    case 5:
+                        immediate = (word << 22) >> 26;
+                        break;
+                    case 6:
+                        immediate = (word >> 4) & 0b111111;
+                        break;
+                }
+                int rd = 0, rs = 0, rt = 0;
+                if (type.type >= 2)
+                {
+                    rd = (word >> 13) & 7;
+                    rs = (word >> 10) & 7;
+                    rt = type.type == 2 ? (word >> 7) & 7 : 0;
+                }
+                ENTRIES[word] = (immediate << 16) | (rt << 13) | (rs << 10) | (rd << 7) | (type.ordinal() + 1);
+            }
+        }
+    }
+}
@@ -20,8 +20,6 @@ public interface IInstruction
         return null;
     }
 
-    default void setSymbol(int symbolLine) {}
-
     default String getEncodedString()
     {
         return String.format("%16s", Integer.toBinaryString(getEncoded())).replace(' ', '0');
@@ -6,8 +6,7 @@
 
 package assembler.asm;
 
-import java.util.function.IntUnaryOperator;
-
+import assembler.util.Diagnostic;
 import assembler.util.Helpers;
 import assembler.util.InvalidAssemblyException;
 import org.jetbrains.annotations.NotNull;
@@ -20,7 +19,75 @@ public class Instruction implements IInstruction
     private final String text;
     private int encoded;
     private String symbol;
-    private IntUnaryOperator symbolOperator;
+    private SymbolSlice slice;
+
+    /**
+     * Creates an instruction from its source arguments, as {@link Assembly#addInstruction(InstructionType, String, String[])} would
+     *
+     * @param line The line (ROM address) of the instruction
+     */
+    @NotNull
+    public static Instruction of(@NotNull InstructionType type, int line, String text, @NotNull String[] args) throws InvalidAssemblyException
+    {
+        return new Instruction(type, line, text, args);
+    }
+
+    /**
+     * Creates an instruction with register fields (type 2)
+     */
+    @NotNull
+    static Instruction ofRegisters(@NotNull InstructionType type, int line, String text, int rd, int rs, int rt)
+    {
+        return new Instruction(type, line, text, (rd << 13) | (rs << 10) | (rt << 7));
+    }
+
+    /**
+     * Creates an instruction with two registers and a known 6-bit immediate value (types 3 - 6)
+     */
+    @NotNull
+    static Instruction ofImmediate(@NotNull InstructionType type, int line, String text, int rd, int rs, int immediate)
+    {
+        return new Instruction(type, line, text, (rd << 13) | (rs << 10) | ((immediate & 0b111111) << 4));
+    }
+
+    /**
+     * Creates an instruction with two registers and a 6-bit immediate given by a symbol, which is filled in by the linker (types 4 - 6)
+     */
+    @NotNull
+    static Instruction ofSymbol(@NotNull InstructionType type, int line, String text, int rd, int rs, @NotNull String symbol, @NotNull SymbolSlice slice)
+    {
+        Instruction inst = new Instruction(type, line, text, (rd << 13) | (rs << 10));
+        inst.symbol = symbol;
+        inst.slice = slice;
+        return inst;
+    }
+
+    /**
+     * Creates an instruction with two registers and an unparsed operand, which may be either an immediate value or a symbol (types 3 - 6)
+     */
+    @NotNull
+    static Instruction ofOperand(@NotNull InstructionType type, int line, String text, int rd, int rs, @NotNull String operand) throws InvalidAssemblyException
+    {
+        Instruction inst = new Instruction(type, line, text, (rd << 13) | (rs << 10));
+        inst.encoded |= (type.type == 6 ? inst.imm6Logical(operand) : inst.imm6Sign(operand)) << 4;
+        return inst;
+    }
+
+    /**
+     * Parses a register name
+     *
+     * @return the register index
+     * @throws InvalidAssemblyException if the argument is not a valid register
+     */
+    static int register(@NotNull String arg) throws InvalidAssemblyException
+    {
+        int register = Lexer.register(arg, 0, arg.length());
+        if (register == -1)
+        {
+            throw new InvalidAssemblyException(Diagnostic.Code.INVALID_REGISTER, arg);
+        }
+        return register;
+    }
 
     Instruction(@NotNull InstructionType type, int line, String text, @NotNull String[] args) throws InvalidAssemblyException
     {
@@ -30,6 +97,14 @@ public class Instruction implements IInstruction
         this.encoded = parseArguments(args) | type.opcode;
     }
 
+    private Instruction(@NotNull InstructionType type, int line, String text, int fields)
+    {
+        this.line = line;
+        this.type = type;
+        this.text = text;
+        this.encoded = fields | type.opcode;
+    }
+
     @Override
     public int getEncoded()
     {
@@ -48,30 +123,24 @@ public class Instruction implements IInstruction
         return symbol;
     }
 
-    @Override
-    public void setSymbol(int symbolLine)
+    /**
+     * @return the bit range of the symbol used by this instruction
+     */
+    @NotNull
+    SymbolSlice getSlice()
     {
-        if (symbol != null)
-        {
-            symbol = null;
-            // Apply the operator (if it isn't null)
-            if (symbolOperator != null)
-            {
-                symbolLine = symbolOperator.applyAsInt(symbolLine);
-            }
-            switch (type.type)
-            {
-                case 1: // Call = 11 bit signed offset value
-                    encoded |= (((symbolLine - line - 1) & 0b11111111111) << 5);
-                    break;
-                case 4: // Branch = 6 bit signed offset value
-                    encoded |= (((symbolLine - line - 1) & 0b111111) << 4);
-                    break;
-                case 5: // ALU Instructions = 6 bit signed immediate value
-                case 6:
-                    encoded |= ((symbolLine) << 4);
-            }
-        }
+        return slice == null ? SymbolSlice.ALL : slice;
+    }
+
+    @NotNull
+    InstructionType getType()
+    {
+        return type;
+    }
+
+    String getText()
+    {
+        return text;
     }
 
     @Override
@@ -90,15 +159,15 @@ public class Instruction implements IInstruction
                 if (type == InstructionType.CALL) this.symbol = args[0];
                 return 0;
             case 2:
-                return (reg(args[0]) << 13) | (reg(args[1]) << 10) | (reg(args[2]) << 7);
+                return (register(args[0]) << 13) | (register(args[1]) << 10) | (register(args[2]) << 7);
             case 3:
                 String[] slArgs = args[1].replace('(', ',').split(",");
-                return (reg(args[0]) << 13) | (reg(slArgs[1].substring(0, slArgs[1].length() - 1)) << 10) | (imm6Sign(slArgs[0]) << 4);
+                return (register(args[0]) << 13) | (register(slArgs[1].substring(0, slArgs[1].length() - 1)) << 10) | (imm6Sign(slArgs[0]) << 4);
             case 4:
             case 5:
-                return (reg(args[0]) << 13) | (reg(args[1]) << 10) | (imm6Sign(args[2]) << 4);
+                return (register(args[0]) << 13) | (register(args[1]) << 10) | (imm6Sign(args[2]) << 4);
             case 6:
-                return (reg(args[0]) << 13) | (reg(args[1]) << 10) | (imm6Logical(args[2]) << 4);
+                return (register(args[0]) << 13) | (register(args[1]) << 10) | (imm6Logical(args[2]) << 4);
         }
         throw new InvalidAssemblyException("Invalid Instruction Type");
     }
@@ -133,50 +202,9 @@ public class Instruction implements IInstruction
         }
     }
 
-    private int reg(@NotNull String arg) throws InvalidAssemblyException
-    {
-        switch (arg)
-        {
-            case "r0":
-                return 0;
-            case "r1":
-            case "ra":
-                return 1;
-            case "r2":
-                return 2;
-            case "r3":
-                return 3;
-            case "r4":
-                return 4;
-            case "r5":
-                return 5;
-            case "r6":
-                return 6;
-            case "r7":
-            case "sp":
-                return 7;
-            default:
-                throw new InvalidAssemblyException("Invalid register: " + arg);
-        }
-    }
-
     private void parseSymbol(String symbol)
     {
-        if (symbol.startsWith("[5-0]"))
-        {
-            this.symbolOperator = i -> (i & 0b111111);
-            symbol = symbol.substring(5);
-        }
-        else if (symbol.startsWith("[11-6]"))
-        {
-            this.symbolOperator = i -> ((i >> 6) & 0b111111);
-            symbol = symbol.substring(6);
-        }
-        else
-        {
-            this.symbolOperator = i -> i;
-        }
-        this.symbol = symbol;
+        this.slice = SymbolSlice.of(symbol);
+        this.symbol = slice.strip(symbol);
     }
-
 }
@@ -10,8 +10,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 
+import assembler.util.InvalidAssemblyException;
+import assembler.util.KeywordTable;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public enum InstructionTemplate
 {
@@ -28,6 +31,7 @@ public enum InstructionTemplate
     NOOP("nop");
 
     private static final HashMap<String, InstructionTemplate> TEMPLATES;
+    private static final KeywordTable<InstructionTemplate> KEYWORDS;
 
     static
     {
@@ -36,6 +40,7 @@ public enum InstructionTemplate
         {
             TEMPLATES.put(value.name, value);
         }
+        KEYWORDS = new KeywordTable<>(TEMPLATES);
     }
 
     @NotNull
@@ -52,6 +57,13 @@ public enum InstructionTemplate
         return TEMPLATES.get(name);
     }
 
+    @Nullable
+    @Contract(pure = true)
+    public static InstructionTemplate get(CharSequence input, int start, int end)
+    {
+        return KEYWORDS.get(input, start, end);
+    }
+
     private final String name;
 
     InstructionTemplate(String name)
@@ -60,46 +72,77 @@ public enum InstructionTemplate
     }
 
     @NotNull
-    public List<String> convert(String[] args)
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the number of instructions the template expands to. This does not depend on the arguments
+     */
+    @Contract(pure = true)
+    public int size()
+    {
+        return this == MOVI_LONG ? 3 : 1;
+    }
+
+    /**
+     * Expands the template into the real instructions that implement it.
+     * Operands are parsed once here, and the resulting instructions are fully encoded except for any symbols, which are left for the linker.
+     *
+     * @param line The line (ROM address) of the first instruction
+     * @param text The source text of the template, used for all expanded instructions
+     * @param args The template arguments
+     * @return the instructions, in order
+     */
+    @NotNull
+    public List<Instruction> expand(int line, String text, String[] args) throws InvalidAssemblyException
     {
         switch (this)
         {
             case MOV:
-                return List.of("add " + args[0] + ",r0," + args[1]);
+                return List.of(Instruction.ofRegisters(InstructionType.ADD, line, text, register(args[0]), 0, register(args[1])));
             case MOVI:
-                return List.of("addi " + args[0] + ",r0," + args[1]);
+                return List.of(Instruction.ofOperand(InstructionType.ADDI, line, text, register(args[0]), 0, args[1]));
             case MOVI_UNSIGNED:
-                return List.of("ori " + args[0] + ",r0," + args[1]);
+                return List.of(Instruction.ofOperand(InstructionType.ORI, line, text, register(args[0]), 0, args[1]));
             case MOVI_LONG:
+                int rd = register(args[0]);
+                Instruction shift = Instruction.ofImmediate(InstructionType.LEFT_SHIFTI, line + 1, text, rd, rd, 6);
                 try
                 {
                     int result = Integer.parseInt(args[1]);
-                    return List.of("ori " + args[0] + ",r0," + ((result >> 6) & 0b111111),
-                            "lsi " + args[0] + "," + args[0] + ",6",
-                            "ori " + args[0] + "," + args[0] + "," + (result & 0b111111));
+                    return List.of(Instruction.ofImmediate(InstructionType.ORI, line, text, rd, 0, (result >> 6) & 0b111111),
+                            shift,
+                            Instruction.ofImmediate(InstructionType.ORI, line + 2, text, rd, rd, result & 0b111111));
                 }
                 catch (NumberFormatException e)
                 {
-                    return List.of("ori " + args[0] + ",r0,[11-6]" + args[1],
-                            "lsi " + args[0] + "," + args[0] + ",6",
-                            "ori " + args[0] + "," + args[0] + ",[5-0]" + args[1]);
+                    return List.of(Instruction.ofSymbol(InstructionType.ORI, line, text, rd, 0, args[1], SymbolSlice.HIGH),
+                            shift,
+                            Instruction.ofSymbol(InstructionType.ORI, line + 2, text, rd, rd, args[1], SymbolSlice.LOW));
                 }
             case SUBI:
-                return List.of("addi " + args[0] + "," + args[1] + ",-" + args[2]);
+                return List.of(Instruction.ofOperand(InstructionType.ADDI, line, text, register(args[0]), register(args[1]), "-" + args[2]));
             case BREAK_GREATER_EQUAL:
-                return List.of("blt " + args[1] + "," + args[0] + "," + args[2]);
+                return List.of(Instruction.ofOperand(InstructionType.BR_LESS, line, text, register(args[1]), register(args[0]), args[2]));
             case BREAK_LESS_EQUAL:
-                return List.of("bgt " + args[1] + "," + args[0] + "," + args[2]);
+                return List.of(Instruction.ofOperand(InstructionType.BR_GREATER, line, text, register(args[1]), register(args[0]), args[2]));
             case BREAK_ZERO:
-                return List.of("beq " + args[0] + ",r0," + args[1]);
+                return List.of(Instruction.ofOperand(InstructionType.BR_EQUAL, line, text, register(args[0]), 0, args[1]));
             case BREAK_NOT_ZERO:
-                return List.of("bne " + args[0] + ",r0," + args[1]);
+                return List.of(Instruction.ofOperand(InstructionType.BR_NOT_EQUAL, line, text, register(args[0]), 0, args[1]));
             case BREAK:
-                return List.of("beq r0, r0, " + args[0]);
+                return List.of(Instruction.ofOperand(InstructionType.BR_EQUAL, line, text, 0, 0, args[0]));
             case NOOP:
-                return List.of("add r0, r0, r0");
+                return List.of(Instruction.ofRegisters(InstructionType.ADD, line, text, 0, 0, 0));
             default:
                 throw new UnsupportedOperationException("Not implemented!");
         }
     }
+
+    private static int register(String arg) throws InvalidAssemblyException
+    {
+        return Instruction.register(arg);
+    }
 }
@@ -9,6 +9,7 @@ package assembler.asm;
 import java.util.HashMap;
 import java.util.Set;
 
+import assembler.util.KeywordTable;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -48,6 +49,7 @@ public enum InstructionType
     EXIT("exit", 0b0111111111110000, -1, -1);
 
     private static final HashMap<String, InstructionType> TYPES;
+    private static final KeywordTable<InstructionType> KEYWORDS;
 
     static
     {
@@ -56,6 +58,7 @@ public enum InstructionType
         {
             TYPES.put(value.name, value);
         }
+        KEYWORDS = new KeywordTable<>(TYPES);
     }
 
     @NotNull
@@ -72,6 +75,64 @@ public enum InstructionType
         return TYPES.get(name);
     }
 
+    @Nullable
+    @Contract(pure = true)
+    public static InstructionType get(CharSequence input, int start, int end)
+    {
+        return KEYWORDS.get(input, start, end);
+    }
+
+    /**
+     * Decodes the instruction type of an encoded word. Opcodes have different widths depending on the instruction type:
+     * The 16-bit special instructions are matched exactly, then the low four bits select either a L-Type (5-bit opcode), R-Type (7-bit opcode) or C-Type (4-bit opcode) instruction
+     *
+     * @param word The encoded instruction
+     * @return the instruction type, or null if the word is not a valid instruction
+     */
+    @Nullable
+    @Contract(pure = true)
+    public static InstructionType decode(int word)
+    {
+        word &= 0xFFFF;
+        if (word == BREAK.opcode)
+        {
+            return BREAK;
+        }
+        if (word == EXIT.opcode || word == EXIT_ENCODING)
+        {
+            return EXIT;
+        }
+        switch (word & 0b1111)
+        {
+            case 0b0000:
+                return (word & 0b10000) == 0 ? CALL : RETURN;
+            case 0b0001:
+            case 0b0010:
+                return BY_OPCODE[word & 0b1111111];
+            default:
+                return BY_OPCODE[word & 0b1111];
+        }
+    }
+
+    /**
+     * The encoding used by the assembler for the exit instruction, which shares an opcode with return
+     */
+    public static final int EXIT_ENCODING = 0b1000000000010000;
+
+    private static final InstructionType[] BY_OPCODE;
+
+    static
+    {
+        BY_OPCODE = new InstructionType[128];
+        for (InstructionType value : InstructionType.values())
+        {
+            if (value.type >= 2)
+            {
+                BY_OPCODE[value.opcode] = value;
+            }
+        }
+    }
+
     final int opcode, id, type;
     private final String name;
 
@@ -82,4 +143,31 @@ public enum InstructionType
         this.id = id;
         this.type = type;
     }
+
+    public int getOpcode()
+    {
+        return opcode;
+    }
+
+    /**
+     * @return the instruction ID, as used by the processor control logic. Special (16-bit) instructions have an ID of -1
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the instruction type, from 1 - 6, or -1 for special (16-bit) instructions
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    @NotNull
+    public String getName()
+    {
+        return name;
+    }
 }
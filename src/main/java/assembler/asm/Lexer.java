@@ -0,0 +1,368 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Single pass lexer for a line of assembly source.
+ * Tokens are stored as offsets into the current line, so scanning a line does not allocate anything (once the token buffers have grown to fit)
+ * A single lexer should be reused for every line in a program.
+ *
+ * @author Alex O'Neill
+ */
+public final class Lexer
+{
+    /**
+     * Fixed lookup for register names. Returns the register index, or -1 if the region is not a register
+     */
+    public static int register(@NotNull CharSequence input, int start, int end)
+    {
+        if (end - start == 2)
+        {
+            char first = input.charAt(start), second = input.charAt(start + 1);
+            if (first == 'r')
+            {
+                if (second >= '0' && second <= '7')
+                {
+                    return second - '0';
+                }
+                else if (second == 'a')
+                {
+                    return 1;
+                }
+            }
+            else if (first == 's' && second == 'p')
+            {
+                return 7;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(char c)
+    {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isWordEnd(char c)
+    {
+        return isSpace(c) || c == ',' || c == '(' || c == ')' || c == ':' || c == '#';
+    }
+
+    private CharSequence line = "";
+    private int lineEnd;
+    private TokenType[] types = new TokenType[8];
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int[] values = new int[8];
+    private int size;
+
+    /**
+     * Scans a single line of source into tokens. Any previous tokens are discarded.
+     *
+     * @param input a single line of source, which may contain a trailing comment
+     * @return the number of tokens
+     */
+    public int tokenize(@NotNull CharSequence input)
+    {
+        return tokenize(input, 0, input.length());
+    }
+
+    /**
+     * Scans a single line of source, given by a region of the input.
+     * Token offsets are relative to the start of the input, not the start of the region
+     */
+    public int tokenize(@NotNull CharSequence input, int start, int end)
+    {
+        line = input;
+        lineEnd = end;
+        size = 0;
+
+        int pos = start;
+        boolean hasMnemonic = false;
+        while (pos < end)
+        {
+            char c = input.charAt(pos);
+            if (isSpace(c))
+            {
+                pos++;
+                continue;
+            }
+            if (c == '#')
+            {
+                break;
+            }
+            if (hasMnemonic)
+            {
+                // Operands
+                switch (c)
+                {
+                    case ',':
+                        add(TokenType.COMMA, pos, pos + 1, 0);
+                        pos++;
+                        continue;
+                    case '(':
+                        add(TokenType.OPEN_PAREN, pos, pos + 1, 0);
+                        pos++;
+                        continue;
+                    case ')':
+                        add(TokenType.CLOSE_PAREN, pos, pos + 1, 0);
+                        pos++;
+                        continue;
+                }
+                int wordEnd = scanWord(pos, end);
+                if (wordEnd == pos)
+                {
+                    // A character which can't start an operand, such as ':', is a token by itself
+                    add(TokenType.UNEXPECTED, pos, pos + 1, 0);
+                    pos++;
+                    continue;
+                }
+                int register = register(input, pos, wordEnd);
+                if (register != -1)
+                {
+                    add(TokenType.REGISTER, pos, wordEnd, register);
+                }
+                else if ((c >= '0' && c <= '9') || c == '-' || c == '+')
+                {
+                    add(TokenType.IMMEDIATE, pos, wordEnd, 0);
+                }
+                else
+                {
+                    add(TokenType.SYMBOL, pos, wordEnd, 0);
+                }
+                pos = wordEnd;
+            }
+            else
+            {
+                // Labels, or the instruction / directive keyword
+                int wordEnd = scanWord(pos, end);
+                if (wordEnd == pos)
+                {
+                    // Not a valid keyword, so consume the rest of the line as one
+                    add(TokenType.MNEMONIC, pos, end, 0);
+                    break;
+                }
+                int next = wordEnd;
+                while (next < end && isSpace(input.charAt(next)))
+                {
+                    next++;
+                }
+                if (next < end && input.charAt(next) == ':')
+                {
+                    add(TokenType.LABEL, pos, wordEnd, 0);
+                    pos = next + 1;
+                }
+                else if (c == '.')
+                {
+                    add(TokenType.DIRECTIVE, pos, wordEnd, 0);
+                    hasMnemonic = true;
+                    pos = wordEnd;
+                    if (isDirective(size - 1, ".asciz"))
+                    {
+                        // The rest of the line (after a single separator) is raw text
+                        int textStart = Math.min(wordEnd + 1, end), textEnd = textStart;
+                        while (textEnd < end && input.charAt(textEnd) != '#')
+                        {
+                            textEnd++;
+                        }
+                        add(TokenType.STRING, textStart, textEnd, 0);
+                        break;
+                    }
+                }
+                else
+                {
+                    add(TokenType.MNEMONIC, pos, wordEnd, 0);
+                    hasMnemonic = true;
+                    pos = wordEnd;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Copies the current tokens, so they can be kept after this lexer has moved on to another line
+     */
+    @NotNull
+    public Lexer copy()
+    {
+        Lexer copy = new Lexer();
+        copy.line = line;
+        copy.lineEnd = lineEnd;
+        copy.types = Arrays.copyOf(types, Math.max(size, 1));
+        copy.starts = Arrays.copyOf(starts, Math.max(size, 1));
+        copy.ends = Arrays.copyOf(ends, Math.max(size, 1));
+        copy.values = Arrays.copyOf(values, Math.max(size, 1));
+        copy.size = size;
+        return copy;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    @NotNull
+    public TokenType type(int token)
+    {
+        return types[token];
+    }
+
+    public int start(int token)
+    {
+        return starts[token];
+    }
+
+    public int end(int token)
+    {
+        return ends[token];
+    }
+
+    /**
+     * @return the register index for {@link TokenType#REGISTER} tokens, otherwise zero
+     */
+    public int value(int token)
+    {
+        return values[token];
+    }
+
+    @NotNull
+    public CharSequence line()
+    {
+        return line;
+    }
+
+    @NotNull
+    public String text(int token)
+    {
+        return line.subSequence(starts[token], ends[token]).toString();
+    }
+
+    /**
+     * @return the text from the start of the token until the end of the last token on the line
+     */
+    @NotNull
+    public String textFrom(int token)
+    {
+        return line.subSequence(starts[token], size == 0 ? lineEnd : ends[size - 1]).toString();
+    }
+
+    public boolean isDirective(int token, @NotNull String name)
+    {
+        if (types[token] != TokenType.DIRECTIVE || ends[token] - starts[token] != name.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++)
+        {
+            if (line.charAt(starts[token] + i) != name.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Groups the tokens following the given token into comma separated arguments.
+     * Each argument is the source text of its tokens without whitespace, i.e. "0 (r3)" becomes "0(r3)"
+     *
+     * @param token the mnemonic or directive token
+     * @return the arguments
+     */
+    @NotNull
+    public String[] arguments(int token)
+    {
+        int first = token + 1;
+        if (first >= size)
+        {
+            return new String[0];
+        }
+        int count = 1;
+        for (int i = first; i < size; i++)
+        {
+            if (types[i] == TokenType.COMMA)
+            {
+                count++;
+            }
+        }
+        String[] args = new String[count];
+        int arg = 0, groupStart = first;
+        for (int i = first; i <= size; i++)
+        {
+            if (i == size || types[i] == TokenType.COMMA)
+            {
+                args[arg++] = groupText(groupStart, i);
+                groupStart = i + 1;
+            }
+        }
+        return args;
+    }
+
+    private String groupText(int firstToken, int endToken)
+    {
+        if (firstToken >= endToken)
+        {
+            return "";
+        }
+        if (endToken - firstToken == 1)
+        {
+            return text(firstToken);
+        }
+        StringBuilder builder = new StringBuilder(ends[endToken - 1] - starts[firstToken]);
+        for (int i = firstToken; i < endToken; i++)
+        {
+            builder.append(line, starts[i], ends[i]);
+        }
+        return builder.toString();
+    }
+
+    private int scanWord(int pos, int end)
+    {
+        while (pos < end && !isWordEnd(line.charAt(pos)))
+        {
+            pos++;
+        }
+        return pos;
+    }
+
+    private void add(TokenType type, int start, int end, int value)
+    {
+        if (size == types.length)
+        {
+            int newLength = size * 2;
+            types = Arrays.copyOf(types, newLength);
+            starts = Arrays.copyOf(starts, newLength);
+            ends = Arrays.copyOf(ends, newLength);
+            values = Arrays.copyOf(values, newLength);
+        }
+        types[size] = type;
+        starts[size] = start;
+        ends[size] = end;
+        values[size] = value;
+        size++;
+    }
+
+    public enum TokenType
+    {
+        LABEL,
+        MNEMONIC,
+        DIRECTIVE,
+        REGISTER,
+        IMMEDIATE,
+        SYMBOL,
+        STRING,
+        COMMA,
+        OPEN_PAREN,
+        CLOSE_PAREN,
+        UNEXPECTED
+    }
+}
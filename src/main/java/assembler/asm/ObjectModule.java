@@ -0,0 +1,371 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A relocatable object module: a separately assembled source file, which can be linked into another assembly by {@link Assembly#addModule(ObjectModule)}.
+ * It contains:
+ * - The encoded words, assembled as if the module started at ROM address zero
+ * - The exported symbols: every label (as an offset from the start of the module) and every {@code .malloc} (as an offset from the start of its memory)
+ * - A relocation for every word which references a symbol, with the {@link SymbolSlice} of the symbol it uses. The field which is patched depends on the instruction type of the word
+ * - The files included by the module, which need to be linked with it
+ *
+ * References to symbols which are not defined in the module are left unresolved, and are resolved when linked.
+ *
+ * @author Alex O'Neill
+ */
+public final class ObjectModule
+{
+    /**
+     * The version of the object format and of the assembler which produced it.
+     * This must be increased whenever the format, or the encoding of any instruction or template, changes, so that cached modules are assembled again.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x46414F42; // 'FAOB'
+
+    /**
+     * Creates a module from an assembly which has not been linked
+     */
+    @NotNull
+    public static ObjectModule of(@NotNull Assembly assembly)
+    {
+        ProgramImage image = assembly.getImage();
+        SymbolTable symbolTable = assembly.getSymbolTable();
+
+        int size = image.size();
+        int[] words = image.toArray();
+        byte[] kinds = new byte[size];
+        int[] sourceLines = new int[size];
+        String[] texts = new String[size];
+        for (int address = 0; address < size; address++)
+        {
+            kinds[address] = image.getKind(address);
+            sourceLines[address] = image.getSourceLine(address);
+            texts[address] = image.getText(address);
+        }
+
+        int relocationCount = image.getRelocationCount();
+        int[] relocationAddresses = new int[relocationCount];
+        String[] relocationSymbols = new String[relocationCount];
+        SymbolSlice[] relocationSlices = new SymbolSlice[relocationCount];
+        for (int relocation = 0; relocation < relocationCount; relocation++)
+        {
+            relocationAddresses[relocation] = image.getRelocationAddress(relocation);
+            relocationSymbols[relocation] = symbolTable.name(image.getRelocationSymbol(relocation));
+            relocationSlices[relocation] = image.getRelocationSlice(relocation);
+        }
+
+        List<Integer> exported = new ArrayList<>();
+        for (int id = 0; id < symbolTable.size(); id++)
+        {
+            int line = symbolTable.definedLine(id);
+            if (line != -1 && line != SymbolTable.BUILT_IN)
+            {
+                exported.add(id);
+            }
+        }
+        String[] symbolNames = new String[exported.size()];
+        int[] symbolValues = new int[exported.size()];
+        int[] symbolLines = new int[exported.size()];
+        boolean[] labels = new boolean[exported.size()];
+        for (int symbol = 0; symbol < exported.size(); symbol++)
+        {
+            int id = exported.get(symbol);
+            symbolNames[symbol] = symbolTable.name(id);
+            labels[symbol] = symbolTable.isLabel(id);
+            symbolValues[symbol] = labels[symbol] ? symbolTable.value(id) : symbolTable.value(id) - 256;
+            symbolLines[symbol] = symbolTable.definedLine(id);
+        }
+
+        return new ObjectModule(words, kinds, sourceLines, texts, assembly.getMemory(), symbolNames, symbolValues, symbolLines, labels, relocationAddresses, relocationSymbols, relocationSlices, assembly.getIncludes().toArray(new String[0]));
+    }
+
+    /**
+     * Reads a module written by {@link ObjectModule#write(OutputStream)}
+     *
+     * @throws IOException if the input is not a module, or it was written by a different version
+     */
+    @NotNull
+    public static ObjectModule read(@NotNull InputStream input) throws IOException
+    {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != MAGIC)
+        {
+            throw new IOException("Not an object module");
+        }
+        int version = data.readInt();
+        if (version != VERSION)
+        {
+            throw new IOException("Object module version " + version + " does not match the assembler version " + VERSION);
+        }
+
+        int size = data.readInt();
+        int[] words = new int[size];
+        byte[] kinds = new byte[size];
+        int[] sourceLines = new int[size];
+        String[] texts = new String[size];
+        for (int address = 0; address < size; address++)
+        {
+            words[address] = data.readUnsignedShort();
+            kinds[address] = data.readByte();
+            if (kinds[address] < -1 || kinds[address] >= InstructionType.values().length)
+            {
+                throw new IOException("Invalid word kind " + kinds[address]);
+            }
+            sourceLines[address] = data.readInt();
+            if (data.readBoolean())
+            {
+                // Words from the same statement share their text
+                texts[address] = address > 0 && data.readBoolean() ? texts[address - 1] : data.readUTF();
+            }
+        }
+        int memory = data.readInt();
+
+        int symbolCount = data.readInt();
+        String[] symbolNames = new String[symbolCount];
+        int[] symbolValues = new int[symbolCount];
+        int[] symbolLines = new int[symbolCount];
+        boolean[] labels = new boolean[symbolCount];
+        for (int symbol = 0; symbol < symbolCount; symbol++)
+        {
+            symbolNames[symbol] = data.readUTF();
+            symbolValues[symbol] = data.readInt();
+            symbolLines[symbol] = data.readInt();
+            labels[symbol] = data.readBoolean();
+        }
+
+        SymbolSlice[] slices = SymbolSlice.values();
+        int relocationCount = data.readInt();
+        int[] relocationAddresses = new int[relocationCount];
+        String[] relocationSymbols = new String[relocationCount];
+        SymbolSlice[] relocationSlices = new SymbolSlice[relocationCount];
+        for (int relocation = 0; relocation < relocationCount; relocation++)
+        {
+            relocationAddresses[relocation] = data.readInt();
+            relocationSymbols[relocation] = data.readUTF();
+            int slice = data.readByte();
+            if (slice < 0 || slice >= slices.length)
+            {
+                throw new IOException("Invalid symbol slice " + slice);
+            }
+            relocationSlices[relocation] = slices[slice];
+        }
+
+        String[] includes = new String[data.readInt()];
+        for (int include = 0; include < includes.length; include++)
+        {
+            includes[include] = data.readUTF();
+        }
+        return new ObjectModule(words, kinds, sourceLines, texts, memory, symbolNames, symbolValues, symbolLines, labels, relocationAddresses, relocationSymbols, relocationSlices, includes);
+    }
+
+    private final int[] words;
+    private final byte[] kinds;
+    private final int[] sourceLines;
+    private final String[] texts;
+    private final int memory;
+
+    private final String[] symbolNames;
+    private final int[] symbolValues;
+    private final int[] symbolLines;
+    private final boolean[] labels;
+
+    private final int[] relocationAddresses;
+    private final String[] relocationSymbols;
+    private final SymbolSlice[] relocationSlices;
+
+    private final String[] includes;
+
+    private ObjectModule(int[] words, byte[] kinds, int[] sourceLines, String[] texts, int memory, String[] symbolNames, int[] symbolValues, int[] symbolLines, boolean[] labels, int[] relocationAddresses, String[] relocationSymbols, SymbolSlice[] relocationSlices, String[] includes)
+    {
+        this.words = words;
+        this.kinds = kinds;
+        this.sourceLines = sourceLines;
+        this.texts = texts;
+        this.memory = memory;
+        this.symbolNames = symbolNames;
+        this.symbolValues = symbolValues;
+        this.symbolLines = symbolLines;
+        this.labels = labels;
+        this.relocationAddresses = relocationAddresses;
+        this.relocationSymbols = relocationSymbols;
+        this.relocationSlices = relocationSlices;
+        this.includes = includes;
+    }
+
+    /**
+     * Writes the module in a binary format, which can be read by {@link ObjectModule#read(InputStream)}
+     */
+    public void write(@NotNull OutputStream output) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+
+        data.writeInt(words.length);
+        for (int address = 0; address < words.length; address++)
+        {
+            data.writeShort(words[address]);
+            data.writeByte(kinds[address]);
+            data.writeInt(sourceLines[address]);
+            data.writeBoolean(texts[address] != null);
+            if (texts[address] != null)
+            {
+                boolean shared = address > 0 && texts[address] == texts[address - 1];
+                if (address > 0)
+                {
+                    data.writeBoolean(shared);
+                }
+                if (!shared)
+                {
+                    data.writeUTF(texts[address]);
+                }
+            }
+        }
+        data.writeInt(memory);
+
+        data.writeInt(symbolNames.length);
+        for (int symbol = 0; symbol < symbolNames.length; symbol++)
+        {
+            data.writeUTF(symbolNames[symbol]);
+            data.writeInt(symbolValues[symbol]);
+            data.writeInt(symbolLines[symbol]);
+            data.writeBoolean(labels[symbol]);
+        }
+
+        data.writeInt(relocationAddresses.length);
+        for (int relocation = 0; relocation < relocationAddresses.length; relocation++)
+        {
+            data.writeInt(relocationAddresses[relocation]);
+            data.writeUTF(relocationSymbols[relocation]);
+            data.writeByte(relocationSlices[relocation].ordinal());
+        }
+
+        data.writeInt(includes.length);
+        for (String include : includes)
+        {
+            data.writeUTF(include);
+        }
+        data.flush();
+    }
+
+    /**
+     * @return the number of words
+     */
+    public int size()
+    {
+        return words.length;
+    }
+
+    /**
+     * @return the number of words of RAM allocated by the module
+     */
+    public int getMemory()
+    {
+        return memory;
+    }
+
+    /**
+     * @return the files included by the module, relative to its source file
+     */
+    @NotNull
+    public List<String> getIncludes()
+    {
+        return Arrays.asList(includes);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Object Module: %d words, %d words of memory, %d symbols, %d relocations, includes %s", words.length, memory, symbolNames.length, relocationAddresses.length, Arrays.toString(includes));
+    }
+
+    int getWord(int address)
+    {
+        return words[address];
+    }
+
+    byte getKind(int address)
+    {
+        return kinds[address];
+    }
+
+    int getSourceLine(int address)
+    {
+        return sourceLines[address];
+    }
+
+    @Nullable
+    String getText(int address)
+    {
+        return texts[address];
+    }
+
+    int getSymbolCount()
+    {
+        return symbolNames.length;
+    }
+
+    @NotNull
+    String getSymbolName(int symbol)
+    {
+        return symbolNames[symbol];
+    }
+
+    /**
+     * @return the offset of a label from the start of the module, or of memory from the start of the module's memory
+     */
+    int getSymbolValue(int symbol)
+    {
+        return symbolValues[symbol];
+    }
+
+    int getSymbolLine(int symbol)
+    {
+        return symbolLines[symbol];
+    }
+
+    boolean isLabel(int symbol)
+    {
+        return labels[symbol];
+    }
+
+    int getRelocationCount()
+    {
+        return relocationAddresses.length;
+    }
+
+    int getRelocationAddress(int relocation)
+    {
+        return relocationAddresses[relocation];
+    }
+
+    @NotNull
+    String getRelocationSymbol(int relocation)
+    {
+        return relocationSymbols[relocation];
+    }
+
+    @NotNull
+    SymbolSlice getRelocationSlice(int relocation)
+    {
+        return relocationSlices[relocation];
+    }
+}
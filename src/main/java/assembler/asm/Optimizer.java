@@ -0,0 +1,282 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Peephole optimizer, which runs on an assembled image before it is linked. Every instruction takes one clock cycle (about 1.3 s) on the processor, so this is aimed at removing instructions:
+ * - {@code movia} expansions of values which fit in six bits are shortened to a single {@code ori}
+ * - Branches and calls to an unconditional branch are threaded through to the final target
+ * - Instructions with no effect ({@code nop}, writes to r0, identity operations, and branches to the next instruction) are removed
+ * - {@code muli} and {@code divi} by a power of two are reduced to {@code lsi} and {@code rsi}. Registers are never negative, so these have the same result
+ *
+ * After any instructions are removed, labels are moved and every reference is patched again. Passes are repeated until nothing changes, as removing instructions may allow further optimizations.
+ *
+ * @author Alex O'Neill
+ */
+public final class Optimizer
+{
+    /**
+     * Optimizes an image in place. If there are unresolved symbols this does nothing, and they are left for the linker to report.
+     */
+    @NotNull
+    static Result optimize(@NotNull ProgramImage image, @NotNull SymbolTable symbolTable)
+    {
+        Result result = new Result(image.size());
+        if (symbolTable.isResolved())
+        {
+            do
+            {
+                result.passes++;
+            } while (pass(image, symbolTable, result));
+        }
+        result.finalSize = image.size();
+        return result;
+    }
+
+    /**
+     * @return if anything was changed
+     */
+    private static boolean pass(ProgramImage image, SymbolTable symbolTable, Result result)
+    {
+        int size = image.size();
+
+        // Addresses which may be jumped to, so they can't be removed from the middle of a sequence
+        boolean[] targets = new boolean[size];
+        symbolTable.markLabels(targets);
+        for (int address = 0; address < size; address++)
+        {
+            int target = symbolTable.target(address);
+            if (target >= 0 && target < size)
+            {
+                targets[target] = true;
+            }
+        }
+
+        boolean[] removed = new boolean[size];
+        boolean changed = false, anyRemoved = false;
+        for (int address = 0; address < size; address++)
+        {
+            InstructionType type = image.getType(address);
+            if (type == null)
+            {
+                continue;
+            }
+            int entry = Disassembler.decode(image.getWord(address));
+            if (isDead(image, symbolTable, address, type, entry))
+            {
+                removed[address] = anyRemoved = true;
+                result.removed++;
+            }
+            else if (shortenMovia(image, address, targets, removed))
+            {
+                anyRemoved = true;
+                result.shortened++;
+                address += 2;
+            }
+            else if (threadBranch(image, symbolTable, address, type))
+            {
+                changed = true;
+                result.threaded++;
+            }
+            else if (reduceStrength(image, address, type, entry))
+            {
+                changed = true;
+                result.reduced++;
+            }
+        }
+
+        if (anyRemoved)
+        {
+            // Branches and calls without a symbol have a fixed offset, which needs to be updated to the new address of the target
+            int[] literalTargets = symbolTable.literalTargets();
+            int[] addresses = image.remove(removed);
+            for (int address = 0; address < size; address++)
+            {
+                int target = literalTargets[address];
+                if (!removed[address] && target != SymbolTable.NO_TARGET)
+                {
+                    if (target >= 0)
+                    {
+                        target = target <= size ? addresses[target] : target - size + addresses[size];
+                    }
+                    image.relocate(addresses[address], target, SymbolSlice.ALL);
+                }
+            }
+            symbolTable.relocate(addresses);
+        }
+        return changed || anyRemoved;
+    }
+
+    /**
+     * Instructions which have no effect: writes to r0, operations which leave a register unchanged, and branches to the next instruction
+     */
+    private static boolean isDead(ProgramImage image, SymbolTable symbolTable, int address, InstructionType type, int entry)
+    {
+        int rd = Disassembler.rd(entry), rs = Disassembler.rs(entry), rt = Disassembler.rt(entry), immediate = Disassembler.immediate(entry);
+        switch (type.type)
+        {
+            case 2:
+                switch (type)
+                {
+                    case ADD:
+                    case OR:
+                    case XOR:
+                        return rd == 0 || (rd == rs && rt == 0) || (rd == rt && rs == 0);
+                    case SUB:
+                    case LEFT_SHIFT:
+                    case RIGHT_SHIFT:
+                        return rd == 0 || (rd == rs && rt == 0);
+                    default:
+                        return rd == 0;
+                }
+            case 4:
+                return symbolTable.target(address) == address + 1;
+            case 5:
+            case 6:
+                if (rd == 0)
+                {
+                    return true;
+                }
+                if (rd != rs || image.getSymbol(address) != -1)
+                {
+                    return false;
+                }
+                switch (type)
+                {
+                    case ADDI:
+                    case ORI:
+                    case LEFT_SHIFTI:
+                    case RIGHT_SHIFTI:
+                        return immediate == 0;
+                    case MULI:
+                    case DIVI:
+                        return immediate == 1;
+                    default:
+                        return false;
+                }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Shortens {@code ori rX, r0, HIGH; lsi rX, rX, 6; ori rX, rX, LOW} to {@code ori rX, r0, LOW}, if the high part is zero.
+     * If the high part is a symbol, removing instructions can only make it smaller, but the linker may insert instructions to relax branches. The word is marked as shortened, so the linker can expand it again if the high part becomes non-zero.
+     */
+    private static boolean shortenMovia(ProgramImage image, int address, boolean[] targets, boolean[] removed)
+    {
+        if (address + 2 >= image.size() || targets[address + 1] || targets[address + 2] || removed[address])
+        {
+            return false;
+        }
+        int high = Disassembler.decode(image.getWord(address)), shift = Disassembler.decode(image.getWord(address + 1)), low = Disassembler.decode(image.getWord(address + 2));
+        int rd = Disassembler.rd(high);
+        if (image.getType(address) != InstructionType.ORI || Disassembler.rs(high) != 0 || Disassembler.immediate(high) != 0
+            || image.getType(address + 1) != InstructionType.LEFT_SHIFTI || Disassembler.rd(shift) != rd || Disassembler.rs(shift) != rd || Disassembler.immediate(shift) != 6
+            || image.getType(address + 2) != InstructionType.ORI || Disassembler.rd(low) != rd || Disassembler.rs(low) != rd)
+        {
+            return false;
+        }
+        image.set(address, (rd << 13) | (Disassembler.immediate(low) << 4) | InstructionType.ORI.opcode, InstructionType.ORI);
+        image.setSymbol(address, image.getSymbol(address + 2), image.getSlice(address + 2));
+        image.setShortened(address, image.getSymbol(address + 2) != -1);
+        removed[address + 1] = removed[address + 2] = true;
+        return true;
+    }
+
+    /**
+     * Retargets a branch or call to an unconditional branch ({@code beq} with the same register twice, i.e. {@code br}) to the end of the chain of branches
+     */
+    private static boolean threadBranch(ProgramImage image, SymbolTable symbolTable, int address, InstructionType type)
+    {
+        if (type != InstructionType.CALL && type.type != 4)
+        {
+            return false;
+        }
+        int size = image.size(), target = symbolTable.target(address), end = target;
+        for (int steps = 0; steps < size && end >= 0 && end < size && isUnconditional(image, end); steps++)
+        {
+            int next = symbolTable.target(end);
+            if (next == end)
+            {
+                break;
+            }
+            end = next;
+        }
+        int offset = end - address - 1;
+        if (end == target || (type == InstructionType.CALL ? offset < -1024 || offset > 1023 : offset < -32 || offset > 31))
+        {
+            return false;
+        }
+        image.relocate(address, end, SymbolSlice.ALL);
+        image.setSymbol(address, -1, SymbolSlice.ALL);
+        return true;
+    }
+
+    private static boolean reduceStrength(ProgramImage image, int address, InstructionType type, int entry)
+    {
+        int immediate = Disassembler.immediate(entry);
+        if ((type != InstructionType.MULI && type != InstructionType.DIVI) || image.getSymbol(address) != -1 || immediate < 2 || Integer.bitCount(immediate) != 1)
+        {
+            return false;
+        }
+        InstructionType shift = type == InstructionType.MULI ? InstructionType.LEFT_SHIFTI : InstructionType.RIGHT_SHIFTI;
+        image.set(address, (Disassembler.rd(entry) << 13) | (Disassembler.rs(entry) << 10) | (Integer.numberOfTrailingZeros(immediate) << 4) | shift.opcode, shift);
+        return true;
+    }
+
+    /**
+     * @return if the word at an address always branches, i.e. {@code br}, which is {@code beq} with the same register twice
+     */
+    static boolean isUnconditional(ProgramImage image, int address)
+    {
+        int entry = Disassembler.decode(image.getWord(address));
+        return image.getType(address) == InstructionType.BR_EQUAL && Disassembler.rd(entry) == Disassembler.rs(entry);
+    }
+
+    private Optimizer() {}
+
+    public static final class Result
+    {
+        private final int initialSize;
+        private int finalSize, passes, shortened, threaded, removed, reduced;
+
+        Result(int initialSize)
+        {
+            this.initialSize = initialSize;
+        }
+
+        /**
+         * @return the number of instructions removed from the program
+         */
+        public int getInstructionsSaved()
+        {
+            return initialSize - finalSize;
+        }
+
+        /**
+         * An estimate of the cycles saved each time the program runs through every instruction: one for each instruction removed, and one for each branch which no longer goes through another branch.
+         */
+        public int getCyclesSaved()
+        {
+            return getInstructionsSaved() + threaded;
+        }
+
+        public int getPasses()
+        {
+            return passes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Optimized %d -> %d words in %d passes: %d movia shortened, %d branches threaded, %d instructions with no effect removed, %d multiply / divide reduced to shifts\nSaved %d instructions, and about %d cycles (%.1f s) per pass through the program", initialSize, finalSize, passes, shortened, threaded, removed, reduced, getInstructionsSaved(), getCyclesSaved(), getCyclesSaved() * 1.3);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The assembled ROM words of a program, stored as parallel primitive arrays rather than an object per word.
+ * Each word has its encoded value, the source line it came from, and its kind (the instruction type, or {@link ProgramImage#DATA}).
+ * The instruction text is only kept for debug output, and is stored once per statement, by the address of its first word.
+ * Words which reference a symbol have a relocation, which keeps the symbol id and slice, so they can be relocated again if the image is changed by the {@link Optimizer}. Relocations are sorted by address, and only exist for those words.
+ * A {@code movia} of a symbol which was shortened to a single {@code ori} is marked in its relocation, as it is only correct while the {@code [11-6]} part of the symbol is zero.
+ *
+ * @author Alex O'Neill
+ */
+public final class ProgramImage
+{
+    private static final byte DATA = -1;
+    private static final InstructionType[] TYPES = InstructionType.values();
+    private static final SymbolSlice[] SLICES = SymbolSlice.values();
+
+    private short[] words = new short[64];
+    private int[] sourceLines = new int[64];
+    private byte[] kinds = new byte[64];
+    private int size;
+
+    private int[] statementStarts = new int[16]; // The address of the first word of each statement, the text of which is shared by the words up to the next statement
+    private String[] statementTexts = new String[16];
+    private int statementCount;
+
+    private int[] relocationAddresses = new int[16];
+    private int[] relocationSymbols = new int[16];
+    private byte[] relocationSlices = new byte[16];
+    private boolean[] relocationShortened = new boolean[16];
+    private int relocationCount;
+
+    /**
+     * Creates an image from encoded words which were not assembled, i.e. read from a blueprint.
+     * The kind of each word is decoded from the word itself, so data may appear as instructions, and there are no source lines.
+     */
+    @NotNull
+    public static ProgramImage of(@NotNull int[] words)
+    {
+        ProgramImage image = new ProgramImage();
+        for (int word : words)
+        {
+            InstructionType type = Disassembler.type(Disassembler.decode(word));
+            image.add(word, type == null ? DATA : (byte) type.ordinal(), 0, null);
+        }
+        return image;
+    }
+
+    ProgramImage() {}
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the encoded word at an address
+     */
+    public int getWord(int address)
+    {
+        return words[address] & 0xFFFF;
+    }
+
+    /**
+     * @return the source line (starting from one) of the word at an address, or zero if it is not known
+     */
+    public int getSourceLine(int address)
+    {
+        return sourceLines[address];
+    }
+
+    /**
+     * @return the instruction type of the word at an address, or null if it is data
+     */
+    @Nullable
+    public InstructionType getType(int address)
+    {
+        return kinds[address] == DATA ? null : TYPES[kinds[address]];
+    }
+
+    /**
+     * @return a copy of the encoded words
+     */
+    @NotNull
+    public int[] toArray()
+    {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            result[i] = words[i] & 0xFFFF;
+        }
+        return result;
+    }
+
+    /**
+     * Compares the words of two images. Any addresses past the end of an image are treated as zero, as they would be in ROM.
+     *
+     * @return the first address at which the images differ, or -1 if they are the same
+     */
+    public int firstDifference(@NotNull ProgramImage other)
+    {
+        int length = Math.max(size, other.size);
+        for (int address = 0; address < length; address++)
+        {
+            int word = address < size ? getWord(address) : 0, otherWord = address < other.size ? other.getWord(address) : 0;
+            if (word != otherWord)
+            {
+                return address;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a view of the words as instructions. The instruction objects are created on access
+     */
+    @NotNull
+    public List<IInstruction> asList()
+    {
+        return new AbstractList<IInstruction>()
+        {
+            @Override
+            public IInstruction get(int index)
+            {
+                if (index < 0 || index >= size)
+                {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                }
+                return new Word(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return the kind of the word at an address: the ordinal of the instruction type, or a negative value for data
+     */
+    byte getKind(int address)
+    {
+        return kinds[address];
+    }
+
+    /**
+     * @return the source text of the statement which the word at an address came from, or null if there is none
+     */
+    @Nullable
+    String getText(int address)
+    {
+        int statement = Arrays.binarySearch(statementStarts, 0, statementCount, address);
+        return statementTexts[statement >= 0 ? statement : ~statement - 1];
+    }
+
+    /**
+     * @return the id of the symbol referenced by the word at an address, or -1 if it does not reference a symbol
+     */
+    int getSymbol(int address)
+    {
+        int relocation = findRelocation(address);
+        return relocation < 0 ? -1 : relocationSymbols[relocation];
+    }
+
+    @NotNull
+    SymbolSlice getSlice(int address)
+    {
+        int relocation = findRelocation(address);
+        return relocation < 0 ? SymbolSlice.ALL : SLICES[relocationSlices[relocation]];
+    }
+
+    /**
+     * @return if the word at an address is a {@code movia} of a symbol shortened to only the {@code [5-0]} part, which assumes the {@code [11-6]} part is zero
+     */
+    boolean isShortened(int address)
+    {
+        int relocation = findRelocation(address);
+        return relocation >= 0 && relocationShortened[relocation];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the word at the address does not reference a symbol
+     */
+    void setShortened(int address, boolean value)
+    {
+        int relocation = findRelocation(address);
+        if (relocation >= 0)
+        {
+            relocationShortened[relocation] = value;
+        }
+        else if (value)
+        {
+            throw new IllegalArgumentException("Word at " + address + " does not reference a symbol");
+        }
+    }
+
+    /**
+     * Records the symbol referenced by the word at an address
+     *
+     * @param id The symbol id, or -1 to remove the reference
+     */
+    void setSymbol(int address, int id, @NotNull SymbolSlice slice)
+    {
+        int relocation = findRelocation(address);
+        if (id == -1)
+        {
+            if (relocation >= 0)
+            {
+                relocationCount--;
+                System.arraycopy(relocationAddresses, relocation + 1, relocationAddresses, relocation, relocationCount - relocation);
+                System.arraycopy(relocationSymbols, relocation + 1, relocationSymbols, relocation, relocationCount - relocation);
+                System.arraycopy(relocationSlices, relocation + 1, relocationSlices, relocation, relocationCount - relocation);
+                System.arraycopy(relocationShortened, relocation + 1, relocationShortened, relocation, relocationCount - relocation);
+            }
+            return;
+        }
+        if (relocation < 0)
+        {
+            relocation = ~relocation;
+            if (relocationCount == relocationAddresses.length)
+            {
+                int capacity = relocationCount * 2;
+                relocationAddresses = Arrays.copyOf(relocationAddresses, capacity);
+                relocationSymbols = Arrays.copyOf(relocationSymbols, capacity);
+                relocationSlices = Arrays.copyOf(relocationSlices, capacity);
+                relocationShortened = Arrays.copyOf(relocationShortened, capacity);
+            }
+            System.arraycopy(relocationAddresses, relocation, relocationAddresses, relocation + 1, relocationCount - relocation);
+            System.arraycopy(relocationSymbols, relocation, relocationSymbols, relocation + 1, relocationCount - relocation);
+            System.arraycopy(relocationSlices, relocation, relocationSlices, relocation + 1, relocationCount - relocation);
+            System.arraycopy(relocationShortened, relocation, relocationShortened, relocation + 1, relocationCount - relocation);
+            relocationAddresses[relocation] = address;
+            relocationShortened[relocation] = false;
+            relocationCount++;
+        }
+        relocationSymbols[relocation] = id;
+        relocationSlices[relocation] = (byte) slice.ordinal();
+    }
+
+    /**
+     * @return the number of words which reference a symbol
+     */
+    int getRelocationCount()
+    {
+        return relocationCount;
+    }
+
+    /**
+     * @return the address of a word which references a symbol. Relocations are in order of address
+     */
+    int getRelocationAddress(int relocation)
+    {
+        return relocationAddresses[relocation];
+    }
+
+    int getRelocationSymbol(int relocation)
+    {
+        return relocationSymbols[relocation];
+    }
+
+    @NotNull
+    SymbolSlice getRelocationSlice(int relocation)
+    {
+        return SLICES[relocationSlices[relocation]];
+    }
+
+    /**
+     * Replaces the word at an address with another instruction
+     */
+    void set(int address, int encoded, @NotNull InstructionType type)
+    {
+        words[address] = (short) encoded;
+        kinds[address] = (byte) type.ordinal();
+    }
+
+    /**
+     * Removes words from the image, moving the remaining words down to fill the gaps
+     *
+     * @param removed Which addresses to remove
+     * @return the new address of every address from zero to the old size (inclusive). Removed addresses map to the next word which was kept
+     */
+    @NotNull
+    int[] remove(@NotNull boolean[] removed)
+    {
+        int[] addresses = new int[size + 1];
+        int next = 0;
+        for (int address = 0; address < size; address++)
+        {
+            addresses[address] = next;
+            if (!removed[address])
+            {
+                words[next] = words[address];
+                sourceLines[next] = sourceLines[address];
+                kinds[next] = kinds[address];
+                next++;
+            }
+        }
+        addresses[size] = next;
+        size = next;
+
+        int kept = 0;
+        for (int relocation = 0; relocation < relocationCount; relocation++)
+        {
+            int address = relocationAddresses[relocation];
+            if (!removed[address])
+            {
+                relocationAddresses[kept] = addresses[address];
+                relocationSymbols[kept] = relocationSymbols[relocation];
+                relocationSlices[kept] = relocationSlices[relocation];
+                relocationShortened[kept] = relocationShortened[relocation];
+                kept++;
+            }
+        }
+        relocationCount = kept;
+
+        // A statement with every word removed starts at the same address as the next one, which replaces it
+        kept = 0;
+        for (int statement = 0; statement < statementCount; statement++)
+        {
+            int start = addresses[statementStarts[statement]];
+            if (kept > 0 && statementStarts[kept - 1] == start)
+            {
+                kept--;
+            }
+            if (start < size)
+            {
+                statementStarts[kept] = start;
+                statementTexts[kept] = statementTexts[statement];
+                kept++;
+            }
+        }
+        Arrays.fill(statementTexts, kept, statementCount, null);
+        statementCount = kept;
+        return addresses;
+    }
+
+    /**
+     * Inserts an instruction before the word at an address, moving the following words up
+     *
+     * @return the new address of every address from zero to the old size (inclusive). The address of the insertion maps to the word which was there before
+     */
+    @NotNull
+    int[] insert(int address, int encoded, @NotNull InstructionType type, int sourceLine, @Nullable String text)
+    {
+        ensureCapacity();
+        int moved = size - address;
+        System.arraycopy(words, address, words, address + 1, moved);
+        System.arraycopy(sourceLines, address, sourceLines, address + 1, moved);
+        System.arraycopy(kinds, address, kinds, address + 1, moved);
+        words[address] = (short) encoded;
+        sourceLines[address] = sourceLine;
+        kinds[address] = (byte) type.ordinal();
+        size++;
+
+        for (int relocation = relocationCount - 1; relocation >= 0 && relocationAddresses[relocation] >= address; relocation--)
+        {
+            relocationAddresses[relocation]++;
+        }
+
+        // The inserted word is a statement of its own. If it splits a statement, the rest of that statement continues after it
+        int statement = Arrays.binarySearch(statementStarts, 0, statementCount, address);
+        boolean split = statement < 0 && ~statement > 0 && moved > 0;
+        statement = statement < 0 ? ~statement : statement;
+        for (int i = statement; i < statementCount; i++)
+        {
+            statementStarts[i]++;
+        }
+        if (split)
+        {
+            addStatement(statement, address + 1, statementTexts[statement - 1]);
+        }
+        addStatement(statement, address, text);
+
+        int[] addresses = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            addresses[i] = i < address ? i : i + 1;
+        }
+        return addresses;
+    }
+
+    @Nullable
+    IInstruction get(int address)
+    {
+        return address < 0 || address >= size ? null : new Word(address);
+    }
+
+    /**
+     * Adds an instruction
+     *
+     * @return the address of the instruction
+     */
+    int add(int encoded, @NotNull InstructionType type, int sourceLine, @Nullable String text)
+    {
+        return add(encoded, (byte) type.ordinal(), sourceLine, text);
+    }
+
+    /**
+     * Adds a data word
+     *
+     * @return the address of the word
+     */
+    int addData(int value, int sourceLine)
+    {
+        return add(value, DATA, sourceLine, null);
+    }
+
+    /**
+     * Patches the operand of an instruction with the value of a symbol, replacing any previous value
+     *
+     * @param address The address of the instruction
+     * @param value   The value of the symbol, before the slice is applied
+     * @param slice   The bit range of the symbol used by the instruction
+     */
+    void relocate(int address, int value, @NotNull SymbolSlice slice)
+    {
+        value = slice.apply(value);
+        int encoded = words[address];
+        switch (TYPES[kinds[address]].type)
+        {
+            case 1: // Call = 11 bit signed offset value
+                encoded = (encoded & 0b11111) | (((value - address - 1) & 0b11111111111) << 5);
+                break;
+            case 4: // Branch = 6 bit signed offset value
+                encoded = (encoded & ~(0b111111 << 4)) | (((value - address - 1) & 0b111111) << 4);
+                break;
+            case 3: // Memory Instructions = 6 bit signed offset value
+            case 5: // ALU Instructions = 6 bit signed immediate value
+            case 6:
+                // Values which don't fit are reported by SymbolTable#checkRanges, but must not overwrite the register fields
+                encoded = (encoded & ~(0b111111 << 4)) | ((value & 0b111111) << 4);
+        }
+        words[address] = (short) encoded;
+    }
+
+    /**
+     * Adds a word of any kind, as returned by {@link ProgramImage#getKind(int)}
+     *
+     * @return the address of the word
+     */
+    int add(int encoded, byte kind, int sourceLine, @Nullable String text)
+    {
+        ensureCapacity();
+        words[size] = (short) encoded;
+        sourceLines[size] = sourceLine;
+        kinds[size] = kind;
+        // The words of a statement share the same text
+        if (statementCount == 0 || statementTexts[statementCount - 1] != text)
+        {
+            addStatement(statementCount, size, text);
+        }
+        return size++;
+    }
+
+    private void ensureCapacity()
+    {
+        if (size == words.length)
+        {
+            int capacity = size * 2;
+            words = Arrays.copyOf(words, capacity);
+            sourceLines = Arrays.copyOf(sourceLines, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+    }
+
+    private void addStatement(int statement, int start, @Nullable String text)
+    {
+        if (statementCount == statementStarts.length)
+        {
+            int capacity = statementCount * 2;
+            statementStarts = Arrays.copyOf(statementStarts, capacity);
+            statementTexts = Arrays.copyOf(statementTexts, capacity);
+        }
+        System.arraycopy(statementStarts, statement, statementStarts, statement + 1, statementCount - statement);
+        System.arraycopy(statementTexts, statement, statementTexts, statement + 1, statementCount - statement);
+        statementStarts[statement] = start;
+        statementTexts[statement] = text;
+        statementCount++;
+    }
+
+    /**
+     * @return the index of the relocation of the word at an address, or the complement of the index it would be inserted at if there is none
+     */
+    private int findRelocation(int address)
+    {
+        return Arrays.binarySearch(relocationAddresses, 0, relocationCount, address);
+    }
+
+    /**
+     * A view of a single word
+     */
+    private final class Word implements IInstruction
+    {
+        private final int address;
+
+        Word(int address)
+        {
+            this.address = address;
+        }
+
+        @Override
+        public int getEncoded()
+        {
+            return getWord(address);
+        }
+
+        @Override
+        public int getLine()
+        {
+            return address;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (kinds[address] == DATA)
+            {
+                return "[asciz]";
+            }
+            String name = "[" + TYPES[kinds[address]].name().toLowerCase() + "]";
+            String text = getText(address);
+            if (text == null)
+            {
+                // Words without a source, such as those read from a blueprint, are disassembled instead
+                return sourceLines[address] == 0 ? name + " " + Disassembler.disassemble(getWord(address)) : name;
+            }
+            return name + " " + text;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The bit range of a symbol value that is used by an instruction.
+ * In source, these are written as a prefix to the symbol, i.e. {@code ori r2, r0, [11-6]MSG1}
+ */
+public enum SymbolSlice
+{
+    ALL(""),
+    LOW("[5-0]"),
+    HIGH("[11-6]");
+
+    /**
+     * Splits a slice prefix from a symbol
+     *
+     * @param symbol The symbol, possibly with a prefix
+     * @return the slice, which is {@link SymbolSlice#ALL} if there is no prefix
+     */
+    @NotNull
+    public static SymbolSlice of(@NotNull String symbol)
+    {
+        if (symbol.startsWith(LOW.prefix))
+        {
+            return LOW;
+        }
+        else if (symbol.startsWith(HIGH.prefix))
+        {
+            return HIGH;
+        }
+        return ALL;
+    }
+
+    private final String prefix;
+
+    SymbolSlice(String prefix)
+    {
+        this.prefix = prefix;
+    }
+
+    public int apply(int value)
+    {
+        switch (this)
+        {
+            case LOW:
+                return value & 0b111111;
+            case HIGH:
+                return (value >> 6) & 0b111111;
+            default:
+                return value;
+        }
+    }
+
+    @NotNull
+    public String strip(@NotNull String symbol)
+    {
+        return symbol.substring(prefix.length());
+    }
+
+    @NotNull
+    public String getPrefix()
+    {
+        return prefix;
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.asm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import assembler.util.Diagnostic;
+import assembler.util.Diagnostics;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Symbol table for an assembly. Symbol names are interned to int ids, and values are kept in a primitive array indexed by id.
+ * References to a symbol which is not defined yet are recorded in a per-symbol fixup list, and patched as soon as the symbol is defined.
+ * This means linking only has to check for symbols which still have fixups, rather than scanning every instruction.
+ * Every reference is also recorded in the image, so labels can be moved and their references patched again by {@link SymbolTable#relocate(int[])}.
+ *
+ * @author Alex O'Neill
+ */
+final class SymbolTable
+{
+    /**
+     * The source line of built in symbols
+     */
+    static final int BUILT_IN = 0;
+
+    /**
+     * Returned by {@link SymbolTable#target(int)} for words which are not a branch or call
+     */
+    static final int NO_TARGET = Integer.MIN_VALUE;
+
+    private static final int NONE = -1;
+    private static final String GENERATED_LABEL = "@";
+
+    private final ProgramImage image;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[16];
+    private int[] values = new int[16];
+    private int[] definedLines = new int[16]; // NONE if the symbol is not defined
+    private int[] firstFixups = new int[16]; // NONE if the symbol has no fixups
+    private boolean[] labels = new boolean[16]; // If the symbol is a ROM address
+    private int size;
+
+    // Fixups, as a linked list for each symbol
+    private int[] fixupAddresses = new int[16];
+    private SymbolSlice[] fixupSlices = new SymbolSlice[16];
+    private int[] fixupLines = new int[16];
+    private int[] fixupNext = new int[16];
+    private int fixupCount;
+    private int unresolved; // The number of symbols which have fixups
+
+    /**
+     * @param image The image which references are patched in
+     */
+    SymbolTable(@NotNull ProgramImage image)
+    {
+        this.image = image;
+    }
+
+    /**
+     * Defines a symbol, and patches all previous references to it
+     *
+     * @param sourceLine The source line of the definition, or {@link SymbolTable#BUILT_IN}
+     * @throws InvalidAssemblyException if the symbol is already defined
+     */
+    void define(@NotNull String name, int value, int sourceLine) throws InvalidAssemblyException
+    {
+        int id = intern(name);
+        if (definedLines[id] != NONE)
+        {
+            if (definedLines[id] == BUILT_IN)
+            {
+                throw new InvalidAssemblyException(Diagnostic.Code.DUPLICATE_BUILT_IN_SYMBOL, name, sourceLine);
+            }
+            throw new InvalidAssemblyException(Diagnostic.Code.DUPLICATE_SYMBOL, name, sourceLine, definedLines[id]);
+        }
+        values[id] = value;
+        definedLines[id] = sourceLine;
+        if (firstFixups[id] != NONE)
+        {
+            for (int fixup = firstFixups[id]; fixup != NONE; fixup = fixupNext[fixup])
+            {
+                image.relocate(fixupAddresses[fixup], value, fixupSlices[fixup]);
+                fixupSlices[fixup] = null;
+            }
+            firstFixups[id] = NONE;
+            unresolved--;
+        }
+    }
+
+    /**
+     * Defines a label, which is a symbol for a ROM address
+     *
+     * @see SymbolTable#define(String, int, int)
+     */
+    void defineLabel(@NotNull String name, int address, int sourceLine) throws InvalidAssemblyException
+    {
+        define(name, address, sourceLine);
+        labels[ids.get(name)] = true;
+    }
+
+    /**
+     * References a symbol from an instruction. If the symbol is already defined, the instruction is patched immediately, otherwise when the symbol is defined.
+     *
+     * @param address The address of the instruction in the image
+     * @param slice   The bit range of the symbol used by the instruction
+     */
+    void reference(@NotNull String name, int address, @NotNull SymbolSlice slice, int sourceLine)
+    {
+        int id = intern(name);
+        image.setSymbol(address, id, slice);
+        if (definedLines[id] != NONE)
+        {
+            image.relocate(address, values[id], slice);
+            return;
+        }
+        if (fixupCount == fixupAddresses.length)
+        {
+            int capacity = fixupCount * 2;
+            fixupAddresses = Arrays.copyOf(fixupAddresses, capacity);
+            fixupSlices = Arrays.copyOf(fixupSlices, capacity);
+            fixupLines = Arrays.copyOf(fixupLines, capacity);
+            fixupNext = Arrays.copyOf(fixupNext, capacity);
+        }
+        if (firstFixups[id] == NONE)
+        {
+            unresolved++;
+        }
+        fixupAddresses[fixupCount] = address;
+        fixupSlices[fixupCount] = slice;
+        fixupLines[fixupCount] = sourceLine;
+        fixupNext[fixupCount] = firstFixups[id];
+        firstFixups[id] = fixupCount;
+        fixupCount++;
+    }
+
+    /**
+     * Checks that every referenced symbol has been defined
+     *
+     * @throws InvalidAssemblyException for the first symbol which was referenced but never defined
+     */
+    void checkResolved() throws InvalidAssemblyException
+    {
+        if (unresolved == 0)
+        {
+            return;
+        }
+        for (int id = 0; id < size; id++)
+        {
+            if (firstFixups[id] != NONE)
+            {
+                throw new InvalidAssemblyException(Diagnostic.Code.UNKNOWN_SYMBOL, unknownSymbol(id));
+            }
+        }
+    }
+
+    /**
+     * Checks that every referenced symbol has been defined, and adds an error for each symbol which was not, at the line of the first reference
+     */
+    void checkResolved(@NotNull Diagnostics diagnostics)
+    {
+        if (unresolved == 0)
+        {
+            return;
+        }
+        for (int id = 0; id < size; id++)
+        {
+            if (firstFixups[id] != NONE)
+            {
+                int firstLine = 0;
+                for (int fixup = firstFixups[id]; fixup != NONE; fixup = fixupNext[fixup])
+                {
+                    firstLine = fixupLines[fixup];
+                }
+                diagnostics.add(firstLine, 0, Diagnostic.Code.UNKNOWN_SYMBOL, unknownSymbol(id));
+            }
+        }
+    }
+
+    /**
+     * @return the arguments for {@link Diagnostic.Code#UNKNOWN_SYMBOL}: the name, and the lines of every reference
+     */
+    private Object[] unknownSymbol(int id)
+    {
+        // Fixups are in reverse order of the references
+        int count = 0;
+        for (int fixup = firstFixups[id]; fixup != NONE; fixup = fixupNext[fixup])
+        {
+            count++;
+        }
+        String[] sourceLines = new String[count];
+        for (int fixup = firstFixups[id]; fixup != NONE; fixup = fixupNext[fixup])
+        {
+            sourceLines[--count] = Integer.toString(fixupLines[fixup]);
+        }
+        return new Object[] {names[id], sourceLines.length > 1 ? "s" : "", String.join(", ", sourceLines)};
+    }
+
+    /**
+     * Checks that every symbol used as an immediate value or memory offset fits in six bits, as labels may have moved since the instruction was assembled.
+     * This must only be used once all symbols are resolved.
+     *
+     * @throws InvalidAssemblyException for the first reference which does not fit
+     */
+    void checkRanges() throws InvalidAssemblyException
+    {
+        for (int relocation = 0; relocation < image.getRelocationCount(); relocation++)
+        {
+            int address = image.getRelocationAddress(relocation), id = image.getRelocationSymbol(relocation);
+            InstructionType type = image.getType(address);
+            if (type == null || image.getRelocationSlice(relocation) != SymbolSlice.ALL)
+            {
+                continue;
+            }
+            int min = type.type == 6 ? 0 : -32, max = type.type == 6 ? 63 : 31;
+            if ((type.type == 3 || type.type == 5 || type.type == 6) && (values[id] < min || values[id] > max))
+            {
+                throw new InvalidAssemblyException(Diagnostic.Code.SYMBOL_RANGE, names[id], values[id], min, max, image.getSourceLine(address));
+            }
+        }
+    }
+
+    /**
+     * @return if every referenced symbol has been defined
+     */
+    boolean isResolved()
+    {
+        return unresolved == 0;
+    }
+
+    /**
+     * Moves all labels after words have been removed from the image, and patches every reference to a symbol again.
+     * This must only be used once all symbols are resolved.
+     *
+     * @param addresses The new address of every previous address, as returned by {@link ProgramImage#remove(boolean[])}
+     */
+    void relocate(@NotNull int[] addresses)
+    {
+        int end = addresses.length - 1, removed = end - addresses[end];
+        for (int id = 0; id < size; id++)
+        {
+            if (labels[id])
+            {
+                values[id] = values[id] <= end ? addresses[values[id]] : values[id] - removed;
+            }
+        }
+        for (int relocation = 0; relocation < image.getRelocationCount(); relocation++)
+        {
+            image.relocate(image.getRelocationAddress(relocation), values[image.getRelocationSymbol(relocation)], image.getRelocationSlice(relocation));
+        }
+    }
+
+    /**
+     * Finds the target of every branch or call with a fixed offset, as these are not patched by {@link SymbolTable#relocate(int[])}
+     *
+     * @return the target of the word at each address, or {@link SymbolTable#NO_TARGET} if it is not a branch or call, or references a symbol
+     */
+    @NotNull
+    int[] literalTargets()
+    {
+        int[] targets = new int[image.size()];
+        int relocation = 0;
+        for (int address = 0; address < targets.length; address++)
+        {
+            if (relocation < image.getRelocationCount() && image.getRelocationAddress(relocation) == address)
+            {
+                targets[address] = NO_TARGET;
+                relocation++;
+            }
+            else
+            {
+                targets[address] = target(address);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Finds the target of a branch or call. If it references a symbol, this is the value of the symbol, which may be out of range of the encoded offset.
+     * This must only be used once all symbols are resolved.
+     *
+     * @return the target address, which may be outside the image, or {@link SymbolTable#NO_TARGET} if the word is not a branch or call
+     */
+    int target(int address)
+    {
+        InstructionType type = image.getType(address);
+        if (type != InstructionType.CALL && (type == null || type.type != 4))
+        {
+            return NO_TARGET;
+        }
+        int id = image.getSymbol(address);
+        if (id != NONE && image.getSlice(address) == SymbolSlice.ALL)
+        {
+            return values[id];
+        }
+        return address + 1 + Disassembler.immediate(Disassembler.decode(image.getWord(address)));
+    }
+
+    /**
+     * Finds a label at an address, or creates a new one with a name which can't be used in source
+     *
+     * @return the symbol id
+     */
+    int label(int address)
+    {
+        for (int id = 0; id < size; id++)
+        {
+            if (labels[id] && values[id] == address)
+            {
+                return id;
+            }
+        }
+        int id = intern(GENERATED_LABEL + size);
+        values[id] = address;
+        definedLines[id] = BUILT_IN;
+        labels[id] = true;
+        return id;
+    }
+
+    /**
+     * @return the labels in source, and their addresses, in order of first use
+     */
+    @NotNull
+    Map<String, Integer> labels()
+    {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (int id = 0; id < size; id++)
+        {
+            if (labels[id] && !names[id].startsWith(GENERATED_LABEL))
+            {
+                result.put(names[id], values[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Marks the address of every label
+     */
+    void markLabels(@NotNull boolean[] addresses)
+    {
+        for (int id = 0; id < size; id++)
+        {
+            if (labels[id] && values[id] >= 0 && values[id] < addresses.length)
+            {
+                addresses[values[id]] = true;
+            }
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    @NotNull
+    String name(int id)
+    {
+        return names[id];
+    }
+
+    int value(int id)
+    {
+        return values[id];
+    }
+
+    /**
+     * @return the source line of the definition, {@link SymbolTable#BUILT_IN}, or -1 if the symbol is not defined
+     */
+    int definedLine(int id)
+    {
+        return definedLines[id];
+    }
+
+    boolean isLabel(int id)
+    {
+        return labels[id];
+    }
+
+    private int intern(String name)
+    {
+        Integer id = ids.get(name);
+        if (id != null)
+        {
+            return id;
+        }
+        if (size == names.length)
+        {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+            definedLines = Arrays.copyOf(definedLines, capacity);
+            firstFixups = Arrays.copyOf(firstFixups, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+        }
+        names[size] = name;
+        definedLines[size] = NONE;
+        firstFixups[size] = NONE;
+        ids.put(name, size);
+        return size++;
+    }
+
+    /**
+     * @return the defined symbols and their values, in order of first use
+     */
+    @Override
+    public String toString()
+    {
+        StringJoiner joiner = new StringJoiner(", ", "{", "}");
+        for (int id = 0; id < size; id++)
+        {
+            if (definedLines[id] != NONE && !names[id].startsWith(GENERATED_LABEL))
+            {
+                joiner.add(names[id] + "=" + values[id]);
+            }
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.blueprint;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import assembler.asm.Assembly;
+import assembler.util.AssemblerEvents;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Streaming encoder / decoder for blueprint strings.
+ * A blueprint string is a version byte ('0'), followed by the Base64 encoding of the zlib deflated blueprint json.
+ *
+ * Json is written straight through a deflater into a Base64 encoder, and read back the same way, so no intermediate copies are made of either the compressed or encoded data.
+ * A codec owns its {@link Deflater}, {@link Inflater} and json buffer, and reuses them for every call. As such, it is not thread safe.
+ */
+public final class BlueprintCodec
+{
+    private static final int BUFFER_SIZE = 4096;
+    private static final int VERSION = '0';
+
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private byte[] json;
+
+    public BlueprintCodec()
+    {
+        this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * @param level    The compression level, from 0 - 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param strategy The compression strategy, one of {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or {@link Deflater#HUFFMAN_ONLY}
+     */
+    public BlueprintCodec(int level, int strategy)
+    {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY)
+        {
+            throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+        }
+        this.deflater = new Deflater(level);
+        this.deflater.setStrategy(strategy);
+        this.inflater = new Inflater();
+        this.json = new byte[0];
+    }
+
+    /**
+     * Encodes an assembly as a ROM blueprint string, with as many ROM blocks as it needs, written to the output. The output is not closed.
+     */
+    public void encode(@NotNull Assembly asm, @NotNull OutputStream output) throws IOException
+    {
+        int blocks = RomBlueprint.blocks(asm.size());
+        if (json.length < RomBlueprint.maxLength(blocks))
+        {
+            json = new byte[RomBlueprint.maxLength(blocks)];
+        }
+        int length = RomBlueprint.fill(asm.getImage(), blocks, json);
+        encode(json, 0, length, output);
+    }
+
+    /**
+     * Encodes an assembly as a blueprint string using a custom template, written to the output. The output is not closed.
+     */
+    public void encode(@NotNull BlueprintTemplate template, @NotNull Assembly asm, @NotNull OutputStream output) throws IOException
+    {
+        if (json.length < template.maxLength())
+        {
+            json = new byte[template.maxLength()];
+        }
+        int length = template.fill(asm, json);
+        encode(json, 0, length, output);
+    }
+
+    /**
+     * Encodes raw blueprint json as a blueprint string, written to the output. The output is not closed.
+     */
+    public void encode(@NotNull byte[] input, int offset, int length, @NotNull OutputStream output) throws IOException
+    {
+        AssemblerEvents.EncodeBlueprint event = new AssemblerEvents.EncodeBlueprint();
+        event.begin();
+        deflater.reset();
+        output.write(VERSION);
+        try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(Base64.getEncoder().wrap(new NonClosingOutputStream(output)), deflater, BUFFER_SIZE))
+        {
+            deflaterStream.write(input, offset, length);
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.jsonBytes = length;
+            event.deflatedBytes = deflater.getBytesWritten();
+            event.commit();
+        }
+    }
+
+    /**
+     * Decodes a blueprint string, writing the inflated json to the output. Neither stream is closed.
+     *
+     * @throws IOException if the input is not a valid blueprint string
+     */
+    public void decode(@NotNull InputStream input, @NotNull OutputStream output) throws IOException
+    {
+        int version = input.read();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported blueprint string version: " + version);
+        }
+        inflater.reset();
+        try (InflaterInputStream inflaterStream = new InflaterInputStream(Base64.getDecoder().wrap(new NonClosingInputStream(input)), inflater, BUFFER_SIZE))
+        {
+            inflaterStream.transferTo(output);
+        }
+    }
+
+    /**
+     * Releases the native resources held by this codec. It can not be used afterwards.
+     */
+    public void end()
+    {
+        deflater.end();
+        inflater.end();
+    }
+
+    /**
+     * The Base64 and deflater streams close their underlying stream when finished, which would close the caller's output
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream
+    {
+        NonClosingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+        }
+    }
+
+    private static final class NonClosingInputStream extends FilterInputStream
+    {
+        NonClosingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public void close() {}
+    }
+}
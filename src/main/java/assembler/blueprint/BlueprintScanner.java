@@ -0,0 +1,411 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.blueprint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import assembler.asm.ProgramImage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Extracts the ROM words from blueprint json, as it is written. No json tree is built, and the only allocations are per constant combinator.
+ * The scanner only tracks the keys it needs, by depth: entities, their name and position, and the signal and count of each filter.
+ * Constant combinators are ordered by position (top to bottom, then left to right), and each signal {@code signal-0} to {@code signal-F} is a word within the combinator.
+ * Any other entities are ignored.
+ *
+ * @author Alex O'Neill
+ */
+final class BlueprintScanner extends OutputStream
+{
+    private static final int MAX_DEPTH = 64;
+    private static final int MAX_TOKEN_LENGTH = 32;
+
+    // Known keys, everything else is OTHER
+    private static final int OTHER = 0, ENTITIES = 1, NAME = 2, POSITION = 3, X = 4, Y = 5, FILTERS = 6, SIGNAL = 7, COUNT = 8;
+    private static final byte[][] KEYS = {null, bytes("entities"), bytes("name"), bytes("position"), bytes("x"), bytes("y"), bytes("filters"), bytes("signal"), bytes("count")};
+    private static final byte[] CONSTANT_COMBINATOR = bytes("constant-combinator");
+    private static final byte[] SIGNAL_PREFIX = bytes("signal-");
+
+    // Lexer states
+    private static final int VALUE = 0, STRING = 1, STRING_ESCAPE = 2, NUMBER = 3, LITERAL = 4;
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // For each open container: if it is an object, the key it belongs to (array elements have the key of the array), and the last key read in it
+    private final boolean[] objects = new boolean[MAX_DEPTH];
+    private final int[] containerKeys = new int[MAX_DEPTH];
+    private final int[] currentKeys = new int[MAX_DEPTH];
+    private final boolean[] expectKeys = new boolean[MAX_DEPTH];
+    private int depth = -1;
+
+    private final byte[] token = new byte[MAX_TOKEN_LENGTH];
+    private int tokenLength;
+    private boolean tokenOverflow;
+    private int state = VALUE;
+
+    // The entity and filter currently being read, or -1
+    private int entityDepth = -1, filterDepth = -1;
+    private boolean constantCombinator;
+    private String entityError;
+    private double x, y;
+    private int[] words = new int[RomBlueprint.WORDS_PER_COMBINATOR];
+    private int signal, count; // -1 if missing or invalid
+
+    private final List<Combinator> combinators = new ArrayList<>();
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        accept((byte) b);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException
+    {
+        for (int i = off; i < off + len; i++)
+        {
+            accept(b[i]);
+        }
+    }
+
+    /**
+     * @return the ROM words of every constant combinator that was read
+     * @throws IOException if the json was incomplete
+     */
+    @NotNull
+    ProgramImage finish() throws IOException
+    {
+        if (state == NUMBER || state == LITERAL)
+        {
+            endToken();
+        }
+        if (depth != -1 || state != VALUE)
+        {
+            throw new IOException("Unexpected end of blueprint json");
+        }
+        combinators.sort(Comparator.comparingDouble((Combinator c) -> c.y).thenComparingDouble(c -> c.x));
+        int[] image = new int[combinators.size() * RomBlueprint.WORDS_PER_COMBINATOR];
+        for (int i = 0; i < combinators.size(); i++)
+        {
+            System.arraycopy(combinators.get(i).words, 0, image, i * RomBlueprint.WORDS_PER_COMBINATOR, RomBlueprint.WORDS_PER_COMBINATOR);
+        }
+        return ProgramImage.of(image);
+    }
+
+    private void accept(byte c) throws IOException
+    {
+        switch (state)
+        {
+            case STRING:
+                if (c == '"')
+                {
+                    state = VALUE;
+                    endString();
+                }
+                else if (c == '\\')
+                {
+                    state = STRING_ESCAPE;
+                }
+                else
+                {
+                    append(c);
+                }
+                return;
+            case STRING_ESCAPE:
+                // None of the strings that are matched contain escapes, so the escaped character is kept as is
+                append(c);
+                state = STRING;
+                return;
+            case NUMBER:
+            case LITERAL:
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t')
+                {
+                    endToken();
+                    state = VALUE;
+                    break;
+                }
+                append(c);
+                return;
+        }
+
+        switch (c)
+        {
+            case '{':
+            case '[':
+                openContainer(c == '{');
+                break;
+            case '}':
+            case ']':
+                closeContainer();
+                break;
+            case ',':
+                if (depth >= 0)
+                {
+                    expectKeys[depth] = objects[depth];
+                }
+                break;
+            case ':':
+                if (depth >= 0)
+                {
+                    expectKeys[depth] = false;
+                }
+                break;
+            case '"':
+                startToken(STRING);
+                break;
+            case ' ':
+            case '\n':
+            case '\r':
+            case '\t':
+                break;
+            default:
+                startToken(c == '-' || (c >= '0' && c <= '9') ? NUMBER : LITERAL);
+                append(c);
+        }
+    }
+
+    private void openContainer(boolean object) throws IOException
+    {
+        if (depth == MAX_DEPTH - 1)
+        {
+            throw new IOException("Blueprint json is nested too deeply");
+        }
+        int parent = depth++;
+        objects[depth] = object;
+        containerKeys[depth] = parent == -1 ? OTHER : (objects[parent] ? currentKeys[parent] : containerKeys[parent]);
+        currentKeys[depth] = OTHER;
+        expectKeys[depth] = object;
+
+        if (object && parent >= 0 && !objects[parent])
+        {
+            if (containerKeys[depth] == ENTITIES && entityDepth == -1)
+            {
+                entityDepth = depth;
+                constantCombinator = false;
+                entityError = null;
+                x = y = 0;
+                words = new int[RomBlueprint.WORDS_PER_COMBINATOR];
+            }
+            else if (containerKeys[depth] == FILTERS && entityDepth != -1 && filterDepth == -1)
+            {
+                filterDepth = depth;
+                signal = -1;
+                count = -1;
+            }
+        }
+    }
+
+    private void closeContainer() throws IOException
+    {
+        if (depth == -1)
+        {
+            throw new IOException("Unbalanced blueprint json");
+        }
+        if (depth == filterDepth)
+        {
+            filterDepth = -1;
+            if (signal >= 0 && count >= 0)
+            {
+                words[signal] = count;
+            }
+            else if (entityError == null)
+            {
+                entityError = signal == -1 ? "ROM filter is missing a signal" : (signal == -2 ? "Unexpected ROM signal" : "Invalid ROM value");
+            }
+        }
+        else if (depth == entityDepth)
+        {
+            entityDepth = -1;
+            if (constantCombinator)
+            {
+                if (entityError != null)
+                {
+                    throw new IOException(entityError);
+                }
+                combinators.add(new Combinator(x, y, words));
+            }
+        }
+        depth--;
+    }
+
+    private void endString() throws IOException
+    {
+        if (depth >= 0 && objects[depth] && expectKeys[depth])
+        {
+            currentKeys[depth] = key();
+        }
+        else
+        {
+            value(true);
+        }
+    }
+
+    private void endToken() throws IOException
+    {
+        value(false);
+    }
+
+    /**
+     * Handles a value, if it is one of the values being tracked
+     */
+    private void value(boolean string) throws IOException
+    {
+        if (depth < 0 || !objects[depth])
+        {
+            return;
+        }
+        int key = currentKeys[depth];
+        if (depth == entityDepth && key == NAME)
+        {
+            constantCombinator = string && matches(CONSTANT_COMBINATOR, 0);
+        }
+        else if (entityDepth != -1 && depth == entityDepth + 1 && containerKeys[depth] == POSITION && (key == X || key == Y))
+        {
+            double value = decimal();
+            if (key == X)
+            {
+                x = value;
+            }
+            else
+            {
+                y = value;
+            }
+        }
+        else if (filterDepth != -1 && depth == filterDepth && key == COUNT)
+        {
+            count = integer();
+        }
+        else if (filterDepth != -1 && depth == filterDepth + 1 && containerKeys[depth] == SIGNAL && key == NAME)
+        {
+            signal = signal();
+        }
+    }
+
+    private int key()
+    {
+        for (int key = 1; key < KEYS.length; key++)
+        {
+            if (matches(KEYS[key], 0))
+            {
+                return key;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * @return the word index of a signal-0 to signal-F, or -2 for any other signal. Only constant combinators are checked for other signals, as other entities may use any signal
+     */
+    private int signal()
+    {
+        if (tokenLength == SIGNAL_PREFIX.length + 1 && matches(SIGNAL_PREFIX, 1))
+        {
+            int digit = Character.digit(token[SIGNAL_PREFIX.length], 16);
+            if (digit != -1 && !Character.isLowerCase(token[SIGNAL_PREFIX.length]))
+            {
+                return digit;
+            }
+        }
+        return -2;
+    }
+
+    /**
+     * @return the value of a ROM word, or -1 if it is not an unsigned 16-bit integer. Only constant combinators are checked, as other entities may have any count
+     */
+    private int integer()
+    {
+        if (tokenOverflow || tokenLength == 0 || tokenLength > 5)
+        {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < tokenLength; i++)
+        {
+            if (token[i] < '0' || token[i] > '9')
+            {
+                return -1;
+            }
+            value = value * 10 + (token[i] - '0');
+        }
+        return value > 0xFFFF ? -1 : value;
+    }
+
+    private double decimal() throws IOException
+    {
+        try
+        {
+            return Double.parseDouble(text());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("Invalid position: " + text());
+        }
+    }
+
+    /**
+     * @param offset The number of characters to ignore at the end of the token
+     * @return if the token starts with, or is equal to when offset is zero, the expected bytes
+     */
+    private boolean matches(byte[] expected, int offset)
+    {
+        if (tokenOverflow || tokenLength != expected.length + offset)
+        {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++)
+        {
+            if (token[i] != expected[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startToken(int tokenState)
+    {
+        state = tokenState;
+        tokenLength = 0;
+        tokenOverflow = false;
+    }
+
+    private void append(byte c)
+    {
+        if (tokenLength == MAX_TOKEN_LENGTH)
+        {
+            tokenOverflow = true;
+            return;
+        }
+        token[tokenLength++] = c;
+    }
+
+    private String text()
+    {
+        return new String(token, 0, tokenLength, StandardCharsets.US_ASCII) + (tokenOverflow ? "..." : "");
+    }
+
+    private static final class Combinator
+    {
+        private final double x, y;
+        private final int[] words;
+
+        Combinator(double x, double y, int[] words)
+        {
+            this.x = x;
+            this.y = y;
+            this.words = words;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.blueprint;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import assembler.asm.Assembly;
+import assembler.asm.ProgramImage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A ROM blueprint template, pre-indexed into literal segments and memory value slots.
+ * The template json contains placeholders in the form {@code "MEMORY_VALUE_n"}, which are replaced with the encoded value of the instruction at ROM address n.
+ * Indexing is done once, so filling in a template is a single linear write.
+ */
+public final class BlueprintTemplate
+{
+    private static final String PLACEHOLDER = "\"MEMORY_VALUE_";
+    private static final int MAX_VALUE_LENGTH = 11; // Length of Integer.MIN_VALUE
+
+    /**
+     * Removes all whitespace from json, in place
+     *
+     * @return the compacted length
+     */
+    public static int compact(@NotNull byte[] json)
+    {
+        int length = 0;
+        for (byte b : json)
+        {
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+            {
+                json[length++] = b;
+            }
+        }
+        return length;
+    }
+
+    private final byte[][] segments;
+    private final int[] slots;
+    private final int size;
+    private final int maxLength;
+
+    /**
+     * @param json The template json. It must not contain any whitespace outside of strings.
+     */
+    public BlueprintTemplate(@NotNull String json)
+    {
+        List<byte[]> segmentList = new ArrayList<>();
+        List<Integer> slotList = new ArrayList<>();
+
+        int last = 0, index;
+        while ((index = json.indexOf(PLACEHOLDER, last)) != -1)
+        {
+            int valueStart = index + PLACEHOLDER.length(), valueEnd = valueStart;
+            while (valueEnd < json.length() && Character.isDigit(json.charAt(valueEnd)))
+            {
+                valueEnd++;
+            }
+            if (valueEnd == valueStart || valueEnd >= json.length() || json.charAt(valueEnd) != '"')
+            {
+                throw new IllegalArgumentException("Malformed memory value placeholder at " + index);
+            }
+            segmentList.add(json.substring(last, index).getBytes(StandardCharsets.UTF_8));
+            slotList.add(Integer.parseInt(json.substring(valueStart, valueEnd)));
+            last = valueEnd + 1;
+        }
+        segmentList.add(json.substring(last).getBytes(StandardCharsets.UTF_8));
+
+        this.segments = segmentList.toArray(new byte[0][]);
+        this.slots = slotList.stream().mapToInt(Integer::intValue).toArray();
+        this.size = Arrays.stream(slots).max().orElse(-1) + 1;
+        this.maxLength = segmentList.stream().mapToInt(s -> s.length).sum() + slots.length * MAX_VALUE_LENGTH;
+    }
+
+    /**
+     * @return The number of ROM words in this template
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return The maximum number of bytes that {@link BlueprintTemplate#fill(Assembly, byte[])} can write
+     */
+    public int maxLength()
+    {
+        return maxLength;
+    }
+
+    /**
+     * Fills in the template with the given assembly. Any addresses past the end of the assembly are set to zero.
+     *
+     * @param asm    The assembly
+     * @param output The output buffer, which must be at least {@link BlueprintTemplate#maxLength()} bytes
+     * @return the number of bytes written
+     */
+    public int fill(@NotNull Assembly asm, @NotNull byte[] output)
+    {
+        ProgramImage image = asm.getImage();
+        int pos = 0;
+        for (int i = 0; i < slots.length; i++)
+        {
+            byte[] segment = segments[i];
+            System.arraycopy(segment, 0, output, pos, segment.length);
+            pos += segment.length;
+
+            pos = writeValue(output, pos, slots[i] < image.size() ? image.getWord(slots[i]) : 0);
+        }
+        byte[] segment = segments[slots.length];
+        System.arraycopy(segment, 0, output, pos, segment.length);
+        return pos + segment.length;
+    }
+
+    /**
+     * Writes an integer as decimal ascii
+     *
+     * @return the position after the value
+     */
+    static int writeValue(@NotNull byte[] output, int pos, int value)
+    {
+        if (value < 0)
+        {
+            String text = Integer.toString(value);
+            for (int i = 0; i < text.length(); i++)
+            {
+                output[pos++] = (byte) text.charAt(i);
+            }
+            return pos;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10)
+        {
+            digits++;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--)
+        {
+            output[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+}
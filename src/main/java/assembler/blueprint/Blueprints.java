@@ -6,87 +6,101 @@
 
 package assembler.blueprint;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import assembler.asm.Assembly;
-import assembler.asm.IInstruction;
-import assembler.util.Helpers;
+import assembler.asm.ProgramImage;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class Blueprints
 {
-    private static final String BLUEPRINT_128W, BLUEPRINT_256W;
+    private static final ThreadLocal<BlueprintCodec> CODEC = ThreadLocal.withInitial(BlueprintCodec::new);
 
-    static
+    @Nullable
+    public static String decode(@NotNull String input)
     {
-        BLUEPRINT_128W = Helpers.loadResource("128w_rom_blueprint.json").replaceAll("[\n\r\t ]+", "");
-        BLUEPRINT_256W = Helpers.loadResource("256w_rom_blueprint.json").replaceAll("[\n\r\t ]+", "");
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length() * 8);
+        try
+        {
+            decode(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), output);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            return null;
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
     }
 
+    /**
+     * Imports the ROM words from a blueprint string
+     *
+     * @return the program image, or null if the input is not a valid ROM blueprint
+     */
     @Nullable
-    @SuppressWarnings("unused")
-    public static String decode(@NotNull String input)
+    public static ProgramImage importImage(@NotNull String input)
     {
-        byte[] bytes = Base64.getDecoder().decode(input.substring(1));
-        byte[] result, buffer = new byte[1024];
-
-        Inflater inflater = new Inflater();
-        inflater.setInput(bytes, 0, bytes.length);
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length))
+        try
         {
-            while (!inflater.finished())
-            {
-                int count = inflater.inflate(buffer);
-                outputStream.write(buffer, 0, count);
-            }
-            result = outputStream.toByteArray();
+            return importImage(new ByteArrayInputStream(input.trim().getBytes(StandardCharsets.US_ASCII)));
         }
-        catch (DataFormatException | IOException e)
+        catch (IOException | IllegalArgumentException e)
         {
             return null;
         }
-        String outputString = new String(result, 0, result.length, StandardCharsets.UTF_8);
+    }
 
-        System.out.println(outputString);
-        return outputString;
+    /**
+     * Imports the ROM words from a blueprint string. The json is scanned as it is inflated, and is never held in memory as a whole.
+     *
+     * @throws IOException if the input is not a valid ROM blueprint
+     */
+    @NotNull
+    public static ProgramImage importImage(@NotNull InputStream input) throws IOException
+    {
+        BlueprintScanner scanner = new BlueprintScanner();
+        decode(input, scanner);
+        return scanner.finish();
+    }
+
+    /**
+     * Decodes a blueprint string from the input, and writes the json to the output, using the default codec for the current thread
+     */
+    public static void decode(@NotNull InputStream input, @NotNull OutputStream output) throws IOException
+    {
+        CODEC.get().decode(input, output);
     }
 
     @Nullable
     public static String encode(@NotNull Assembly asm)
     {
-        int size = asm.size() >= 128 ? 256 : 128;
-        String input = asm.size() >= 128 ? BLUEPRINT_256W : BLUEPRINT_128W;
-        for (int i = 0; i < size; i++)
-        {
-            IInstruction inst = asm.getInstruction(i);
-            String replacement = inst == null ? "0" : "" + inst.getEncoded();
-            input = input.replaceAll("\"MEMORY_VALUE_" + i + "\"", replacement);
-        }
-
-        byte[] result, buffer = new byte[1024];
-        Deflater deflater = new Deflater();
-        deflater.finish();
-        deflater.setInput(input.getBytes(StandardCharsets.UTF_8));
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream())
+        ByteArrayOutputStream output = new ByteArrayOutputStream(4096);
+        try
         {
-            while (!deflater.finished())
-            {
-                int count = deflater.deflate(buffer);
-                outputStream.write(buffer, 0, count);
-            }
-            result = outputStream.toByteArray();
+            encode(asm, output);
         }
         catch (IOException e)
         {
             return null;
         }
-        return "0" + Base64.getEncoder().encodeToString(result);
+        return new String(output.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes an assembly as a blueprint string, written to the output, using the default codec for the current thread
+     */
+    public static void encode(@NotNull Assembly asm, @NotNull OutputStream output) throws IOException
+    {
+        encode(asm, CODEC.get(), output);
+    }
+
+    public static void encode(@NotNull Assembly asm, @NotNull BlueprintCodec codec, @NotNull OutputStream output) throws IOException
+    {
+        codec.encode(asm, output);
     }
 }
@@ -0,0 +1,118 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.blueprint;
+
+import java.nio.charset.StandardCharsets;
+
+import assembler.asm.ProgramImage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Generates ROM blueprint json for any number of ROM blocks, without a template.
+ * The ROM is built from 128 byte blocks, each of which is four constant combinators holding 16 words (32 bytes) each. See PROCESSOR.md section 1.4.
+ * Combinators are placed in a single column, with a wider gap between blocks, and the whole column is centered on the origin.
+ *
+ * @author Alex O'Neill
+ */
+public final class RomBlueprint
+{
+    public static final int WORDS_PER_COMBINATOR = 16;
+    public static final int COMBINATORS_PER_BLOCK = 4;
+    public static final int WORDS_PER_BLOCK = WORDS_PER_COMBINATOR * COMBINATORS_PER_BLOCK;
+
+    private static final byte[] HEADER = bytes("{\"blueprint\":{\"icons\":[{\"signal\":{\"type\":\"item\",\"name\":\"constant-combinator\"},\"index\":1}],\"entities\":[");
+    private static final byte[] ENTITY_START = bytes("{\"entity_number\":");
+    private static final byte[] ENTITY_POSITION = bytes(",\"name\":\"constant-combinator\",\"position\":{\"x\":0,\"y\":");
+    private static final byte[] ENTITY_FILTERS = bytes("},\"direction\":4,\"control_behavior\":{\"filters\":[");
+    private static final byte[] ENTITY_END = bytes("]}}");
+    private static final byte[] LABEL = bytes("],\"item\":\"blueprint\",\"label\":\"");
+    private static final byte[] FOOTER = bytes("B-ROM-Template\",\"version\":68722819072}}");
+
+    // The json for each filter, before and after the value
+    private static final byte[][] FILTER_STARTS = new byte[WORDS_PER_COMBINATOR][];
+    private static final byte[][] FILTER_ENDS = new byte[WORDS_PER_COMBINATOR][];
+    private static final int MAX_ENTITY_LENGTH;
+    private static final int MAX_VALUE_LENGTH = 11; // Length of Integer.MIN_VALUE
+
+    static
+    {
+        int length = ENTITY_START.length + ENTITY_POSITION.length + ENTITY_FILTERS.length + ENTITY_END.length + 2 * MAX_VALUE_LENGTH + 1;
+        for (int i = 0; i < WORDS_PER_COMBINATOR; i++)
+        {
+            FILTER_STARTS[i] = bytes((i == 0 ? "" : ",") + "{\"signal\":{\"type\":\"virtual\",\"name\":\"signal-" + Character.toUpperCase(Character.forDigit(i, 16)) + "\"},\"count\":");
+            FILTER_ENDS[i] = bytes(",\"index\":" + (i + 1) + "}");
+            length += FILTER_STARTS[i].length + FILTER_ENDS[i].length + MAX_VALUE_LENGTH;
+        }
+        MAX_ENTITY_LENGTH = length;
+    }
+
+    /**
+     * @return the number of ROM blocks needed to hold a program. This is always at least one.
+     */
+    public static int blocks(int words)
+    {
+        return Math.max(1, (words + WORDS_PER_BLOCK - 1) / WORDS_PER_BLOCK);
+    }
+
+    /**
+     * @return The maximum number of bytes that {@link RomBlueprint#fill(ProgramImage, int, byte[])} can write for a number of blocks
+     */
+    public static int maxLength(int blocks)
+    {
+        return HEADER.length + blocks * COMBINATORS_PER_BLOCK * MAX_ENTITY_LENGTH + LABEL.length + MAX_VALUE_LENGTH + FOOTER.length;
+    }
+
+    /**
+     * Writes the blueprint json for a program. Any addresses past the end of the program are set to zero.
+     *
+     * @param image  The program
+     * @param blocks The number of ROM blocks
+     * @param output The output buffer, which must be at least {@link RomBlueprint#maxLength(int)} bytes
+     * @return the number of bytes written
+     */
+    public static int fill(@NotNull ProgramImage image, int blocks, @NotNull byte[] output)
+    {
+        int pos = write(output, 0, HEADER);
+        int combinators = blocks * COMBINATORS_PER_BLOCK;
+        for (int entity = 0; entity < combinators; entity++)
+        {
+            int block = entity / COMBINATORS_PER_BLOCK, index = entity % COMBINATORS_PER_BLOCK;
+            if (entity > 0)
+            {
+                output[pos++] = ',';
+            }
+            pos = write(output, pos, ENTITY_START);
+            pos = BlueprintTemplate.writeValue(output, pos, entity + 1);
+            pos = write(output, pos, ENTITY_POSITION);
+            pos = BlueprintTemplate.writeValue(output, pos, 18 * block - 9 * blocks + 3 + 4 * index);
+            pos = write(output, pos, ENTITY_FILTERS);
+            for (int i = 0, address = entity * WORDS_PER_COMBINATOR; i < WORDS_PER_COMBINATOR; i++, address++)
+            {
+                pos = write(output, pos, FILTER_STARTS[i]);
+                pos = BlueprintTemplate.writeValue(output, pos, address < image.size() ? image.getWord(address) : 0);
+                pos = write(output, pos, FILTER_ENDS[i]);
+            }
+            pos = write(output, pos, ENTITY_END);
+        }
+        pos = write(output, pos, LABEL);
+        pos = BlueprintTemplate.writeValue(output, pos, blocks * WORDS_PER_BLOCK * 2);
+        return write(output, pos, FOOTER);
+    }
+
+    private static int write(byte[] output, int pos, byte[] segment)
+    {
+        System.arraycopy(segment, 0, output, pos, segment.length);
+        return pos + segment.length;
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private RomBlueprint() {}
+}
@@ -0,0 +1,86 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.emulator;
+
+/**
+ * ALU operations, with the same semantics as factorio combinators.
+ * All operations are done on 32-bit signed integers, and the results are truncated to 16-bits when stored in a register.
+ */
+final class Alu
+{
+    static final int WORD_MASK = 0xFFFF;
+
+    static int div(int a, int b)
+    {
+        // Factorio combinators output zero on a division by zero
+        return b == 0 ? 0 : a / b;
+    }
+
+    static int mod(int a, int b)
+    {
+        return b == 0 ? 0 : a % b;
+    }
+
+    static int pow(int a, int b)
+    {
+        if (b < 0)
+        {
+            return 0;
+        }
+        int result = 1;
+        while (b != 0)
+        {
+            if ((b & 1) != 0)
+            {
+                result *= a;
+            }
+            a *= a;
+            b >>>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Rotations are compound operations on the 16-bit word, rather than the 32-bit combinator value
+     */
+    static int rotateLeft(int a, int b)
+    {
+        a &= WORD_MASK;
+        b &= 15;
+        return (a << b) | (a >>> (16 - b));
+    }
+
+    static int rotateRight(int a, int b)
+    {
+        a &= WORD_MASK;
+        b &= 15;
+        return (a >>> b) | (a << (16 - b));
+    }
+
+    /**
+     * Sign extends a 6-bit immediate
+     */
+    static int imm6Sign(int word)
+    {
+        return (word << 22) >> 26;
+    }
+
+    static int imm6Logical(int word)
+    {
+        return (word >> 4) & 0b111111;
+    }
+
+    /**
+     * Sign extends the 11-bit immediate of a call
+     */
+    static int imm11Sign(int word)
+    {
+        return (word << 16) >> 21;
+    }
+
+    private Alu() {}
+}
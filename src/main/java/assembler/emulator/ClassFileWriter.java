@@ -0,0 +1,278 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A minimal writer for a class file containing a single static method.
+ * Class files are written with major version 49, so the verifier infers stack map frames itself, and none need to be computed here.
+ */
+final class ClassFileWriter
+{
+    static final int ILOAD = 0x15, LLOAD = 0x16, ALOAD = 0x19, ISTORE = 0x36, LSTORE = 0x37;
+    static final int ICONST_M1 = 0x02, ICONST_0 = 0x03, LCONST_0 = 0x09, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13;
+    static final int IALOAD = 0x2E, IASTORE = 0x4F, POP = 0x57;
+    static final int IADD = 0x60, LADD = 0x61, ISUB = 0x64, IMUL = 0x68, ISHL = 0x78, ISHR = 0x7A, IAND = 0x7E, IOR = 0x80, IXOR = 0x82, I2L = 0x85;
+    static final int LCMP = 0x94, IFLE = 0x9E, IF_ICMPEQ = 0x9F, IF_ICMPNE = 0xA0, IF_ICMPLT = 0xA1, IF_ICMPGT = 0xA3, GOTO = 0xA7, TABLESWITCH = 0xAA, LRETURN = 0xAD;
+    static final int INVOKEVIRTUAL = 0xB6, INVOKESTATIC = 0xB8;
+
+    private static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    private final List<Object[]> constants = new ArrayList<>();
+    private final Map<String, Integer> constantIndex = new HashMap<>();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<int[]> fixups = new ArrayList<>(); // [position of offset, position of instruction, label, width]
+    private int[] labels = new int[16];
+    private int labelCount;
+
+    // Constant pool
+
+    int utf8(String value)
+    {
+        return constant("U" + value, new Object[] {1, value});
+    }
+
+    int classRef(String internalName)
+    {
+        return constant("C" + internalName, new Object[] {7, utf8(internalName)});
+    }
+
+    int integer(int value)
+    {
+        return constant("I" + value, new Object[] {3, value});
+    }
+
+    int methodRef(String owner, String name, String descriptor)
+    {
+        int nameAndType = constant("N" + name + descriptor, new Object[] {12, utf8(name), utf8(descriptor)});
+        return constant("M" + owner + "." + name + descriptor, new Object[] {10, classRef(owner), nameAndType});
+    }
+
+    private int constant(String key, Object[] value)
+    {
+        Integer index = constantIndex.get(key);
+        if (index == null)
+        {
+            constants.add(value);
+            index = constants.size(); // Constant pool indexes start at one
+            constantIndex.put(key, index);
+        }
+        return index;
+    }
+
+    // Code
+
+    int position()
+    {
+        return code.size();
+    }
+
+    void op(int opcode)
+    {
+        code.write(opcode);
+    }
+
+    void op(int opcode, int operand)
+    {
+        code.write(opcode);
+        code.write(operand);
+    }
+
+    void op2(int opcode, int operand)
+    {
+        code.write(opcode);
+        code.write(operand >> 8);
+        code.write(operand);
+    }
+
+    void pushInt(int value)
+    {
+        if (value >= -1 && value <= 5)
+        {
+            op(ICONST_0 + value);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+        {
+            op(BIPUSH, value & 0xFF);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+        {
+            op2(SIPUSH, value);
+        }
+        else
+        {
+            int index = integer(value);
+            if (index < 256)
+            {
+                op(LDC, index);
+            }
+            else
+            {
+                op2(LDC_W, index);
+            }
+        }
+    }
+
+    int newLabel()
+    {
+        if (labelCount == labels.length)
+        {
+            labels = Arrays.copyOf(labels, labelCount * 2);
+        }
+        labels[labelCount] = -1;
+        return labelCount++;
+    }
+
+    void mark(int label)
+    {
+        labels[label] = code.size();
+    }
+
+    /**
+     * Writes a jump instruction with a 16-bit offset to a label
+     */
+    void jump(int opcode, int label)
+    {
+        int instruction = code.size();
+        code.write(opcode);
+        fixups.add(new int[] {code.size(), instruction, label, 2});
+        code.write(0);
+        code.write(0);
+    }
+
+    /**
+     * Writes a tableswitch over the range [0, targets.length)
+     */
+    void tableSwitch(int defaultLabel, int[] targets)
+    {
+        int instruction = code.size();
+        code.write(TABLESWITCH);
+        while (code.size() % 4 != 0)
+        {
+            code.write(0);
+        }
+        switchOffset(instruction, defaultLabel);
+        writeInt(0);
+        writeInt(targets.length - 1);
+        for (int target : targets)
+        {
+            switchOffset(instruction, target);
+        }
+    }
+
+    private void switchOffset(int instruction, int label)
+    {
+        fixups.add(new int[] {code.size(), instruction, label, 4});
+        writeInt(0);
+    }
+
+    private void writeInt(int value)
+    {
+        code.write(value >> 24);
+        code.write(value >> 16);
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    /**
+     * Builds the class file
+     *
+     * @param className  The internal class name
+     * @param methodName The name of the single public static method
+     * @param descriptor The method descriptor
+     * @param maxStack   The maximum operand stack depth
+     * @param maxLocals  The number of local variable slots
+     */
+    @NotNull
+    byte[] toClassFile(String className, String methodName, String descriptor, int maxStack, int maxLocals)
+    {
+        byte[] body = code.toByteArray();
+        if (body.length > Short.MAX_VALUE)
+        {
+            throw new IllegalStateException("Method is too large: " + body.length + " bytes");
+        }
+        for (int[] fixup : fixups)
+        {
+            int target = labels[fixup[2]];
+            if (target == -1)
+            {
+                throw new IllegalStateException("Unmarked label " + fixup[2]);
+            }
+            int offset = target - fixup[1];
+            for (int i = 0; i < fixup[3]; i++)
+            {
+                body[fixup[0] + i] = (byte) (offset >> (8 * (fixup[3] - 1 - i)));
+            }
+        }
+
+        int thisClass = classRef(className), superClass = classRef("java/lang/Object");
+        int name = utf8(methodName), type = utf8(descriptor), codeAttribute = utf8("Code");
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 1024);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(0xCAFEBABE);
+            output.writeShort(0);
+            output.writeShort(49);
+            output.writeShort(constants.size() + 1);
+            for (Object[] constant : constants)
+            {
+                int tag = (int) constant[0];
+                output.writeByte(tag);
+                switch (tag)
+                {
+                    case 1:
+                        output.writeUTF((String) constant[1]);
+                        break;
+                    case 3:
+                        output.writeInt((int) constant[1]);
+                        break;
+                    case 7:
+                        output.writeShort((int) constant[1]);
+                        break;
+                    default:
+                        output.writeShort((int) constant[1]);
+                        output.writeShort((int) constant[2]);
+                }
+            }
+            output.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            output.writeShort(thisClass);
+            output.writeShort(superClass);
+            output.writeShort(0); // Interfaces
+            output.writeShort(0); // Fields
+            output.writeShort(1); // Methods
+            output.writeShort(ACC_PUBLIC | ACC_STATIC);
+            output.writeShort(name);
+            output.writeShort(type);
+            output.writeShort(1); // Attributes
+            output.writeShort(codeAttribute);
+            output.writeInt(12 + body.length);
+            output.writeShort(maxStack);
+            output.writeShort(maxLocals);
+            output.writeInt(body.length);
+            output.write(body);
+            output.writeShort(0); // Exception table
+            output.writeShort(0); // Code attributes
+            output.writeShort(0); // Class attributes
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to write class file", e);
+        }
+    }
+}
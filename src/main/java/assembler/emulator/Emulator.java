@@ -0,0 +1,308 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.emulator;
+
+import java.util.Arrays;
+
+import assembler.asm.Assembly;
+import assembler.asm.InstructionType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Instruction level emulator for the processor, see PROCESSOR.md
+ * Registers and memory are kept in flat arrays, and instructions are decoded from the encoded ROM words as they are executed.
+ *
+ * Memory map:
+ * 0 - 255: ROM (read only)
+ * 256 - 319: RAM
+ * 320 - 335: Character display (CHAR_OUT_LOC)
+ * 336: Keyboard input buffer (CHAR_IN_LOC). Reading this will return the next key press, or zero if there is none.
+ *
+ * @author Alex O'Neill
+ */
+public class Emulator
+{
+    public static final int ROM_SIZE = 256;
+    public static final int RAM_START = 256;
+    public static final int DISPLAY_START = 320;
+    public static final int DISPLAY_SIZE = 16;
+    public static final int KEYBOARD = 336;
+    public static final int MEMORY_SIZE = 1 << 16;
+
+    static final int EXIT_WORD = InstructionType.EXIT_ENCODING;
+    static final int EXIT_ALTERNATE_WORD = InstructionType.EXIT.getOpcode();
+    static final int BREAK_WORD = InstructionType.BREAK.getOpcode();
+
+    protected final int[] rom;
+    protected final int[] memory;
+    protected final int[] registers;
+    protected int pc;
+    protected long instructions;
+    private int[] keys;
+    private int keyStart, keyEnd;
+
+    /**
+     * @return the encoded ROM words of an assembly
+     */
+    @NotNull
+    public static int[] romOf(@NotNull Assembly asm)
+    {
+        return asm.getImage().toArray();
+    }
+
+    public Emulator(@NotNull Assembly asm)
+    {
+        this(romOf(asm));
+    }
+
+    /**
+     * @param rom The encoded ROM words. Must be at most {@link Emulator#ROM_SIZE} words
+     */
+    public Emulator(@NotNull int[] rom)
+    {
+        if (rom.length > ROM_SIZE)
+        {
+            throw new IllegalArgumentException("Program is too large for ROM: " + rom.length + " words");
+        }
+        this.rom = rom.clone();
+        this.memory = new int[MEMORY_SIZE];
+        this.registers = new int[8];
+        this.keys = new int[16];
+        reset();
+    }
+
+    /**
+     * Resets the processor, and clears all memory. This also clears any pending key presses.
+     */
+    public void reset()
+    {
+        Arrays.fill(memory, 0);
+        Arrays.fill(registers, 0);
+        System.arraycopy(rom, 0, memory, 0, rom.length);
+        pc = 0;
+        instructions = 0;
+        keyStart = keyEnd = 0;
+    }
+
+    /**
+     * Queues key presses for the keyboard. Each read of {@link Emulator#KEYBOARD} will consume a single key
+     */
+    public void type(@NotNull CharSequence text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (keyEnd == keys.length)
+            {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[keyEnd++] = Character.toUpperCase(text.charAt(i));
+        }
+    }
+
+    /**
+     * Executes a single instruction
+     */
+    @NotNull
+    public Status step()
+    {
+        return run(1);
+    }
+
+    /**
+     * Executes instructions until the program exits, hits a break, or the instruction limit is reached
+     *
+     * @param maxInstructions The maximum number of instructions to execute
+     * @return the reason execution stopped
+     */
+    @NotNull
+    public Status run(long maxInstructions)
+    {
+        final int[] mem = memory, reg = registers;
+        int pc = this.pc;
+        long count = 0;
+        Status status = Status.LIMIT;
+        while (count < maxInstructions)
+        {
+            int word = mem[pc];
+            int next = (pc + 1) & Alu.WORD_MASK;
+            int rd = (word >> 13) & 7, rs = (word >> 10) & 7;
+            count++;
+            switch (word & 0b1111)
+            {
+                case 0b0000: // L-Type
+                    if ((word & 0b10000) == 0)
+                    {
+                        // call
+                        reg[1] = next;
+                        next = (next + Alu.imm11Sign(word)) & Alu.WORD_MASK;
+                    }
+                    else if (word == EXIT_WORD || word == EXIT_ALTERNATE_WORD)
+                    {
+                        status = Status.EXIT;
+                    }
+                    else if (word == BREAK_WORD)
+                    {
+                        status = Status.BREAK;
+                    }
+                    else
+                    {
+                        // ret
+                        next = reg[1];
+                    }
+                    break;
+                case 0b0001: // R-Type
+                case 0b0010:
+                {
+                    int a = reg[rs], b = reg[(word >> 7) & 7], result;
+                    switch (word & 0b1111111)
+                    {
+                        case 0b0000001: result = a + b; break;
+                        case 0b0010001: result = a - b; break;
+                        case 0b0100001: result = a * b; break;
+                        case 0b0110001: result = Alu.div(a, b); break;
+                        case 0b1000001: result = Alu.pow(a, b); break;
+                        case 0b1010001: result = Alu.mod(a, b); break;
+                        case 0b1100001: result = a & b; break;
+                        case 0b1110001: result = a | b; break;
+                        case 0b0000010: result = a ^ b; break;
+                        case 0b0010010: result = ~(a ^ b); break;
+                        case 0b0100010: result = a << b; break;
+                        case 0b0110010: result = a >> b; break;
+                        case 0b1000010: result = Alu.rotateLeft(a, b); break;
+                        case 0b1010010: result = Alu.rotateRight(a, b); break;
+                        default:
+                            status = Status.ILLEGAL_INSTRUCTION;
+                            result = reg[rd];
+                    }
+                    if (rd != 0) reg[rd] = result & Alu.WORD_MASK;
+                    break;
+                }
+                case 0b0011: // stw
+                    write((reg[rs] + Alu.imm6Sign(word)) & Alu.WORD_MASK, reg[rd]);
+                    break;
+                case 0b0100: // ldw
+                {
+                    int value = read((reg[rs] + Alu.imm6Sign(word)) & Alu.WORD_MASK);
+                    if (rd != 0) reg[rd] = value;
+                    break;
+                }
+                case 0b0101: // beq
+                    if (reg[rd] == reg[rs]) next = (next + Alu.imm6Sign(word)) & Alu.WORD_MASK;
+                    break;
+                case 0b0110: // bne
+                    if (reg[rd] != reg[rs]) next = (next + Alu.imm6Sign(word)) & Alu.WORD_MASK;
+                    break;
+                case 0b0111: // bgt
+                    if (reg[rd] > reg[rs]) next = (next + Alu.imm6Sign(word)) & Alu.WORD_MASK;
+                    break;
+                case 0b1000: // blt
+                    if (reg[rd] < reg[rs]) next = (next + Alu.imm6Sign(word)) & Alu.WORD_MASK;
+                    break;
+                case 0b1001: // addi
+                    if (rd != 0) reg[rd] = (reg[rs] + Alu.imm6Sign(word)) & Alu.WORD_MASK;
+                    break;
+                case 0b1010: // muli
+                    if (rd != 0) reg[rd] = (reg[rs] * Alu.imm6Sign(word)) & Alu.WORD_MASK;
+                    break;
+                case 0b1011: // divi
+                    if (rd != 0) reg[rd] = Alu.div(reg[rs], Alu.imm6Sign(word)) & Alu.WORD_MASK;
+                    break;
+                case 0b1100: // andi
+                    if (rd != 0) reg[rd] = reg[rs] & Alu.imm6Logical(word);
+                    break;
+                case 0b1101: // ori
+                    if (rd != 0) reg[rd] = reg[rs] | Alu.imm6Logical(word);
+                    break;
+                case 0b1110: // lsi
+                    if (rd != 0) reg[rd] = (reg[rs] << Alu.imm6Logical(word)) & Alu.WORD_MASK;
+                    break;
+                case 0b1111: // rsi
+                    if (rd != 0) reg[rd] = (reg[rs] >> Alu.imm6Logical(word)) & Alu.WORD_MASK;
+                    break;
+            }
+            if (status != Status.LIMIT)
+            {
+                // The halting instruction does not advance the program counter
+                break;
+            }
+            pc = next;
+        }
+        this.pc = pc;
+        this.instructions += count;
+        return status;
+    }
+
+    public int getRegister(int register)
+    {
+        return registers[register];
+    }
+
+    public int getPc()
+    {
+        return pc;
+    }
+
+    /**
+     * @return the total number of instructions executed since the last reset
+     */
+    public long getInstructionCount()
+    {
+        return instructions;
+    }
+
+    /**
+     * Reads a memory location without side effects (i.e. this will not consume a key press)
+     */
+    public int peek(int address)
+    {
+        return memory[address & Alu.WORD_MASK];
+    }
+
+    /**
+     * @return the contents of the character display, with unset characters as spaces
+     */
+    @NotNull
+    public String getDisplay()
+    {
+        StringBuilder builder = new StringBuilder(DISPLAY_SIZE);
+        for (int i = DISPLAY_START; i < DISPLAY_START + DISPLAY_SIZE; i++)
+        {
+            int c = memory[i];
+            builder.append(c > 32 && c < 127 ? (char) c : ' ');
+        }
+        return builder.toString();
+    }
+
+    protected int read(int address)
+    {
+        if (address == KEYBOARD)
+        {
+            return keyStart < keyEnd ? keys[keyStart++] : 0;
+        }
+        return memory[address];
+    }
+
+    protected void write(int address, int value)
+    {
+        // Stores to ROM, or to addresses without any memory, have no effect
+        if (address >= RAM_START && address < KEYBOARD)
+        {
+            memory[address] = value;
+        }
+    }
+
+    public enum Status
+    {
+        /**
+         * The instruction limit was reached before the program halted
+         */
+        LIMIT,
+        EXIT,
+        BREAK,
+        ILLEGAL_INSTRUCTION
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.emulator;
+
+import assembler.asm.Assembly;
+import assembler.asm.InstructionType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An emulator which decodes the ROM once, into compact micro-op records per ROM address, and dispatches from those.
+ * Micro-ops are keyed by the {@link InstructionType} id, with operands already extracted (and sign / logical extended), and branch and call targets resolved to absolute addresses.
+ *
+ * Fixed instruction sequences emitted by the assembler are fused into a single superinstruction, at the address of the first instruction:
+ * - {@code movia} (ori rX, r0, HI / lsi rX, rX, 6 / ori rX, rX, LO) becomes a single constant load
+ * - {@code br} (beq r0, r0, LABEL) becomes an unconditional jump
+ * - {@code nop} (add r0, r0, r0) does nothing
+ * The following addresses keep their own micro-ops, so a branch into the middle of a fused sequence still behaves correctly.
+ *
+ * Since the ROM is read only, the decoded program never needs to be invalidated. Instructions fetched from outside of ROM are executed by the decoding emulator.
+ *
+ * @author Alex O'Neill
+ */
+public class PredecodedEmulator extends Emulator
+{
+    // Micro-ops which are not instruction ids. Ids 17 and 18 are unused by the instruction set, and are treated as illegal.
+    static final int OP_EXIT = 0;
+    static final int OP_ILLEGAL = 17;
+    static final int OP_BREAK = 32;
+    static final int OP_LOAD_CONSTANT = 33;
+    static final int OP_JUMP = 34;
+    static final int OP_NOP = 35;
+
+    // Per-address micro-op records, as parallel arrays
+    final int[] ops;
+    final int[] a;
+    final int[] b;
+    final int[] c;
+    final int[] length;
+
+    public PredecodedEmulator(@NotNull Assembly asm)
+    {
+        this(Emulator.romOf(asm));
+    }
+
+    public PredecodedEmulator(@NotNull int[] rom)
+    {
+        super(rom);
+        ops = new int[ROM_SIZE];
+        a = new int[ROM_SIZE];
+        b = new int[ROM_SIZE];
+        c = new int[ROM_SIZE];
+        length = new int[ROM_SIZE];
+        for (int address = 0; address < ROM_SIZE; address++)
+        {
+            decode(address, memory[address]);
+        }
+        for (int address = 0; address < ROM_SIZE; address++)
+        {
+            fuse(address);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Status run(long maxInstructions)
+    {
+        final int[] reg = registers, ops = this.ops, a = this.a, b = this.b, c = this.c, length = this.length;
+        int pc = this.pc;
+        long count = 0;
+        Status status = Status.LIMIT;
+        while (count < maxInstructions)
+        {
+            if (pc >= ROM_SIZE || length[pc] > maxInstructions - count)
+            {
+                // Outside of ROM, or a superinstruction that would overrun the instruction limit, so execute a single instruction by decoding it
+                long total = this.instructions;
+                this.pc = pc;
+                status = super.run(1);
+                pc = this.pc;
+                count += this.instructions - total;
+                this.instructions = total;
+                if (status != Status.LIMIT)
+                {
+                    break;
+                }
+                continue;
+            }
+            int next = pc + 1;
+            switch (ops[pc])
+            {
+                case OP_EXIT:
+                    status = Status.EXIT;
+                    break;
+                case 1: // call
+                    reg[1] = next;
+                    next = c[pc];
+                    break;
+                case 2: // ret
+                    next = reg[1];
+                    break;
+                case 3: // add
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] + reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 4: // sub
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] - reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 5: // mul
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] * reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 6: // div
+                    if (a[pc] != 0) reg[a[pc]] = Alu.div(reg[b[pc]], reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 7: // pow
+                    if (a[pc] != 0) reg[a[pc]] = Alu.pow(reg[b[pc]], reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 8: // mod
+                    if (a[pc] != 0) reg[a[pc]] = Alu.mod(reg[b[pc]], reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 9: // and
+                    if (a[pc] != 0) reg[a[pc]] = reg[b[pc]] & reg[c[pc]];
+                    break;
+                case 10: // or
+                    if (a[pc] != 0) reg[a[pc]] = reg[b[pc]] | reg[c[pc]];
+                    break;
+                case 11: // xor
+                    if (a[pc] != 0) reg[a[pc]] = reg[b[pc]] ^ reg[c[pc]];
+                    break;
+                case 12: // xnor
+                    if (a[pc] != 0) reg[a[pc]] = ~(reg[b[pc]] ^ reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 13: // ls
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] << reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 14: // rs
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] >> reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 15: // lr
+                    if (a[pc] != 0) reg[a[pc]] = Alu.rotateLeft(reg[b[pc]], reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case 16: // rr
+                    if (a[pc] != 0) reg[a[pc]] = Alu.rotateRight(reg[b[pc]], reg[c[pc]]) & Alu.WORD_MASK;
+                    break;
+                case OP_ILLEGAL:
+                    status = Status.ILLEGAL_INSTRUCTION;
+                    break;
+                case 19: // stw
+                    write((reg[b[pc]] + c[pc]) & Alu.WORD_MASK, reg[a[pc]]);
+                    break;
+                case 20: // ldw
+                {
+                    int value = read((reg[b[pc]] + c[pc]) & Alu.WORD_MASK);
+                    if (a[pc] != 0) reg[a[pc]] = value;
+                    break;
+                }
+                case 21: // beq
+                    if (reg[a[pc]] == reg[b[pc]]) next = c[pc];
+                    break;
+                case 22: // bne
+                    if (reg[a[pc]] != reg[b[pc]]) next = c[pc];
+                    break;
+                case 23: // bgt
+                    if (reg[a[pc]] > reg[b[pc]]) next = c[pc];
+                    break;
+                case 24: // blt
+                    if (reg[a[pc]] < reg[b[pc]]) next = c[pc];
+                    break;
+                case 25: // addi
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] + c[pc]) & Alu.WORD_MASK;
+                    break;
+                case 26: // muli
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] * c[pc]) & Alu.WORD_MASK;
+                    break;
+                case 27: // divi
+                    if (a[pc] != 0) reg[a[pc]] = Alu.div(reg[b[pc]], c[pc]) & Alu.WORD_MASK;
+                    break;
+                case 28: // andi
+                    if (a[pc] != 0) reg[a[pc]] = reg[b[pc]] & c[pc];
+                    break;
+                case 29: // ori
+                    if (a[pc] != 0) reg[a[pc]] = reg[b[pc]] | c[pc];
+                    break;
+                case 30: // lsi
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] << c[pc]) & Alu.WORD_MASK;
+                    break;
+                case 31: // rsi
+                    if (a[pc] != 0) reg[a[pc]] = (reg[b[pc]] >> c[pc]) & Alu.WORD_MASK;
+                    break;
+                case OP_BREAK:
+                    status = Status.BREAK;
+                    break;
+                case OP_LOAD_CONSTANT:
+                    reg[a[pc]] = c[pc];
+                    next = pc + 3;
+                    break;
+                case OP_JUMP:
+                    next = c[pc];
+                    break;
+                case OP_NOP:
+                    break;
+            }
+            count += length[pc];
+            if (status != Status.LIMIT)
+            {
+                break;
+            }
+            pc = next;
+        }
+        this.pc = pc;
+        this.instructions += count;
+        return status;
+    }
+
+    private void decode(int address, int word)
+    {
+        InstructionType type = InstructionType.decode(word);
+        length[address] = 1;
+        a[address] = (word >> 13) & 7;
+        b[address] = (word >> 10) & 7;
+        if (type == null)
+        {
+            ops[address] = OP_ILLEGAL;
+            return;
+        }
+        if (type == InstructionType.EXIT)
+        {
+            ops[address] = OP_EXIT;
+            return;
+        }
+        if (type == InstructionType.BREAK)
+        {
+            ops[address] = OP_BREAK;
+            return;
+        }
+        ops[address] = type.getId();
+        switch (type.getType())
+        {
+            case 1:
+                c[address] = (address + 1 + Alu.imm11Sign(word)) & Alu.WORD_MASK;
+                break;
+            case 2:
+                c[address] = (word >> 7) & 7;
+                break;
+            case 3:
+            case 5:
+                c[address] = Alu.imm6Sign(word);
+                break;
+            case 4:
+                c[address] = (address + 1 + Alu.imm6Sign(word)) & Alu.WORD_MASK;
+                break;
+            case 6:
+                c[address] = Alu.imm6Logical(word);
+                break;
+        }
+    }
+
+    private void fuse(int address)
+    {
+        int op = ops[address];
+        if (op == InstructionType.BR_EQUAL.getId() && a[address] == 0 && b[address] == 0)
+        {
+            // br LABEL
+            ops[address] = OP_JUMP;
+        }
+        else if (op == InstructionType.ADD.getId() && a[address] == 0)
+        {
+            // Any add which targets r0, including nop
+            ops[address] = OP_NOP;
+        }
+        else if (op == InstructionType.ORI.getId() && a[address] != 0 && b[address] == 0 && address + 2 < ROM_SIZE)
+        {
+            // movia rX, VALUE
+            int rd = a[address];
+            int shift = address + 1, low = address + 2;
+            if (ops[shift] == InstructionType.LEFT_SHIFTI.getId() && a[shift] == rd && b[shift] == rd && c[shift] == 6
+                    && ops[low] == InstructionType.ORI.getId() && a[low] == rd && b[low] == rd)
+            {
+                ops[address] = OP_LOAD_CONSTANT;
+                c[address] = ((c[address] << 6) | c[low]) & Alu.WORD_MASK;
+                length[address] = 3;
+            }
+        }
+    }
+}
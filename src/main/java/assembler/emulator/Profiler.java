@@ -0,0 +1,299 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.emulator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import assembler.asm.Assembly;
+import assembler.asm.Disassembler;
+import assembler.asm.InstructionType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runs a program on the emulator one instruction at a time, and counts how often each ROM address is executed, and how often each branch is taken.
+ * Counts are rolled up to labels: each address belongs to the closest label at or before it. Calls and returns are followed, so the counts can also be written as folded stacks for flame graph tools.
+ *
+ * Time is estimated as it would be in game: each instruction is {@link Profiler#STEPS_PER_INSTRUCTION} steps of {@link Profiler#TICKS_PER_STEP} ticks, at {@link Profiler#TICKS_PER_SECOND} UPS.
+ *
+ * @author Alex O'Neill
+ */
+public final class Profiler
+{
+    public static final int STEPS_PER_INSTRUCTION = 5;
+    public static final int TICKS_PER_STEP = 16;
+    public static final int TICKS_PER_SECOND = 60;
+    public static final int TICKS_PER_INSTRUCTION = STEPS_PER_INSTRUCTION * TICKS_PER_STEP;
+
+    private static final int MAX_STACK_DEPTH = 64;
+    private static final String START = "(start)";
+
+    private final Emulator emulator;
+    private final String[] text;
+    private final String[] regionNames;
+    private final int[] regions; // The region (closest label) of each ROM address
+    private final long[] counts = new long[Emulator.ROM_SIZE];
+    private final long[] taken = new long[Emulator.ROM_SIZE];
+    private final long[] notTaken = new long[Emulator.ROM_SIZE];
+    private final Map<String, long[]> stacks = new HashMap<>();
+    private final List<String> frames = new ArrayList<>();
+    private long outside; // Instructions executed from outside of ROM
+    private int skippedFrames; // Calls past the maximum stack depth, which are not recorded as frames
+    private Emulator.Status status = Emulator.Status.LIMIT;
+
+    public Profiler(@NotNull Assembly asm)
+    {
+        emulator = new Emulator(asm);
+        text = new String[asm.size()];
+        for (int address = 0; address < text.length; address++)
+        {
+            text[address] = asm.getImage().getType(address) == null ? null : Disassembler.disassemble(asm.getImage().getWord(address));
+        }
+
+        // Labels in address order. If there are several at the same address, the first defined is used
+        TreeMap<Integer, String> labels = new TreeMap<>();
+        asm.getLabels().forEach((name, address) -> labels.putIfAbsent(address, name));
+        regionNames = new String[labels.size() + 1];
+        regionNames[0] = START;
+        regions = new int[Emulator.ROM_SIZE];
+        int region = 0;
+        for (int address = 0; address < Emulator.ROM_SIZE; address++)
+        {
+            String name = labels.get(address);
+            if (name != null)
+            {
+                regionNames[++region] = name;
+            }
+            regions[address] = region;
+        }
+        frames.add(regionNames[regions[0]]);
+    }
+
+    /**
+     * @return the emulator, i.e. to queue key presses before running
+     */
+    @NotNull
+    public Emulator getEmulator()
+    {
+        return emulator;
+    }
+
+    /**
+     * Runs the program until it halts, or the instruction limit is reached
+     *
+     * @return the reason execution stopped
+     */
+    @NotNull
+    public Emulator.Status run(long maxInstructions)
+    {
+        for (long i = 0; i < maxInstructions; i++)
+        {
+            int pc = emulator.getPc();
+            int word = emulator.peek(pc);
+            if (pc >= Emulator.ROM_SIZE)
+            {
+                outside++;
+                record(START);
+            }
+            else
+            {
+                counts[pc]++;
+                record(regionNames[regions[pc]]);
+            }
+
+            int entry = Disassembler.decode(word);
+            InstructionType type = Disassembler.type(entry);
+            if (type != null && type.getType() == 4 && pc < Emulator.ROM_SIZE)
+            {
+                if (isTaken(type, emulator.getRegister(Disassembler.rd(entry)), emulator.getRegister(Disassembler.rs(entry))))
+                {
+                    taken[pc]++;
+                }
+                else
+                {
+                    notTaken[pc]++;
+                }
+            }
+
+            status = emulator.step();
+            if (status != Emulator.Status.LIMIT)
+            {
+                return status;
+            }
+
+            if (type == InstructionType.CALL)
+            {
+                if (frames.size() < MAX_STACK_DEPTH)
+                {
+                    int target = emulator.getPc();
+                    frames.add(target < Emulator.ROM_SIZE ? regionNames[regions[target]] : START);
+                }
+                else
+                {
+                    skippedFrames++;
+                }
+            }
+            else if (type == InstructionType.RETURN)
+            {
+                if (skippedFrames > 0)
+                {
+                    skippedFrames--;
+                }
+                else if (frames.size() > 1)
+                {
+                    frames.remove(frames.size() - 1);
+                }
+            }
+        }
+        return status;
+    }
+
+    /**
+     * @return the number of times the instruction at a ROM address was executed
+     */
+    public long getCount(int address)
+    {
+        return counts[address];
+    }
+
+    public long getTaken(int address)
+    {
+        return taken[address];
+    }
+
+    public long getNotTaken(int address)
+    {
+        return notTaken[address];
+    }
+
+    /**
+     * @return the total number of instructions executed
+     */
+    public long getInstructions()
+    {
+        return emulator.getInstructionCount();
+    }
+
+    /**
+     * @return the estimated number of game ticks the instructions executed would take
+     */
+    public long getTicks()
+    {
+        return getInstructions() * TICKS_PER_INSTRUCTION;
+    }
+
+    /**
+     * @return the number of instructions executed under each label, in address order. Labels which were never executed are not included
+     */
+    @NotNull
+    public Map<String, Long> getLabelCounts()
+    {
+        long[] regionCounts = new long[regionNames.length];
+        for (int address = 0; address < Emulator.ROM_SIZE; address++)
+        {
+            regionCounts[regions[address]] += counts[address];
+        }
+        regionCounts[0] += outside;
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int region = 0; region < regionNames.length; region++)
+        {
+            if (regionCounts[region] > 0)
+            {
+                result.put(regionNames[region], regionCounts[region]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a text report, with the time spent under each label, and the counts for each instruction which was executed
+     */
+    @NotNull
+    public String report()
+    {
+        long total = getInstructions();
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Executed %d instructions (%s), about %d ticks (%.1f s) in game\n", total, status, getTicks(), seconds(total)));
+
+        builder.append("\nLabels:\n");
+        builder.append(String.format("%-20s %12s %7s %10s\n", "Label", "Instructions", "%", "Time (s)"));
+        getLabelCounts().forEach((name, count) -> builder.append(String.format("%-20s %12d %6.1f%% %10.1f\n", name, count, 100.0 * count / Math.max(1, total), seconds(count))));
+
+        builder.append("\nInstructions:\n");
+        builder.append(String.format("%4s %12s %7s %19s  %s\n", "Addr", "Count", "%", "Taken / Not Taken", "Instruction"));
+        int region = -1;
+        for (int address = 0; address < text.length; address++)
+        {
+            if (counts[address] == 0)
+            {
+                continue;
+            }
+            if (regions[address] != region)
+            {
+                region = regions[address];
+                builder.append(regionNames[region]).append(":\n");
+            }
+            String branches = taken[address] + notTaken[address] > 0 ? String.format("%9d / %-9d", taken[address], notTaken[address]) : "";
+            builder.append(String.format("%4d %12d %6.1f%% %19s  %s\n", address, counts[address], 100.0 * counts[address] / Math.max(1, total), branches, text[address]));
+        }
+        if (outside > 0)
+        {
+            builder.append(String.format("Executed %d instructions outside of ROM\n", outside));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes the instruction counts as folded stacks: one line per call stack, with the frames separated by semicolons, followed by the number of instructions executed.
+     * This is the input format of flame graph tools, i.e. {@code flamegraph.pl}
+     */
+    public void writeFoldedStacks(@NotNull Appendable output) throws IOException
+    {
+        for (Map.Entry<String, long[]> entry : new TreeMap<>(stacks).entrySet())
+        {
+            output.append(entry.getKey()).append(' ').append(Long.toString(entry.getValue()[0])).append('\n');
+        }
+    }
+
+    private void record(String region)
+    {
+        // The leaf is the label of the current instruction, unless it is the same as the function it is in
+        String key = String.join(";", frames);
+        if (!region.equals(frames.get(frames.size() - 1)))
+        {
+            key += ";" + region;
+        }
+        stacks.computeIfAbsent(key, k -> new long[1])[0]++;
+    }
+
+    private static boolean isTaken(InstructionType type, int a, int b)
+    {
+        switch (type)
+        {
+            case BR_EQUAL:
+                return a == b;
+            case BR_NOT_EQUAL:
+                return a != b;
+            case BR_GREATER:
+                return a > b;
+            case BR_LESS:
+                return a < b;
+            default:
+                return false;
+        }
+    }
+
+    private static double seconds(long instructions)
+    {
+        return (double) instructions * TICKS_PER_INSTRUCTION / TICKS_PER_SECOND;
+    }
+}
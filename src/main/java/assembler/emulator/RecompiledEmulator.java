@@ -0,0 +1,141 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.emulator;
+
+import java.lang.invoke.MethodHandle;
+
+import assembler.asm.Assembly;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An emulator which recompiles the ROM into JVM bytecode, see {@link Recompiler}. This is intended for very long running simulations.
+ *
+ * The ROM is compiled once, when the emulator is constructed. Since the ROM is read only (stores to it have no effect), the compiled program never needs to be invalidated.
+ * Execution falls back to the decoding emulator for instructions outside of ROM, for returns to an address which is not the start of a basic block, and for the last few instructions before the instruction limit.
+ *
+ * @author Alex O'Neill
+ */
+public class RecompiledEmulator extends Emulator
+{
+    private final MethodHandle program;
+    private int exitStatus;
+
+    public RecompiledEmulator(@NotNull Assembly asm)
+    {
+        this(Emulator.romOf(asm));
+    }
+
+    public RecompiledEmulator(@NotNull int[] rom)
+    {
+        super(rom);
+        this.program = Recompiler.compile(this.rom);
+    }
+
+    @NotNull
+    @Override
+    public Status run(long maxInstructions)
+    {
+        long count = 0;
+        while (count < maxInstructions)
+        {
+            if (pc < ROM_SIZE)
+            {
+                long executed = invoke(maxInstructions - count);
+                count += executed;
+                instructions += executed;
+                switch (exitStatus)
+                {
+                    case Recompiler.STATUS_EXIT:
+                        return Status.EXIT;
+                    case Recompiler.STATUS_BREAK:
+                        return Status.BREAK;
+                    case Recompiler.STATUS_ILLEGAL:
+                        return Status.ILLEGAL_INSTRUCTION;
+                    case Recompiler.STATUS_LIMIT:
+                        // The next block does not fit within the limit, so the remaining instructions are all interpreted
+                        return count < maxInstructions ? super.run(maxInstructions - count) : Status.LIMIT;
+                }
+                if (count == maxInstructions)
+                {
+                    break;
+                }
+            }
+
+            // Outside of ROM, or not at the start of a basic block, so execute a single instruction by decoding it
+            long total = instructions;
+            Status status = super.run(1);
+            count += instructions - total;
+            if (status != Status.LIMIT)
+            {
+                return status;
+            }
+        }
+        return Status.LIMIT;
+    }
+
+    private long invoke(long maxInstructions)
+    {
+        try
+        {
+            return (long) program.invokeExact(this, registers, pc, maxInstructions);
+        }
+        catch (RuntimeException | Error e)
+        {
+            throw e;
+        }
+        catch (Throwable t)
+        {
+            throw new IllegalStateException("Unknown exception from recompiled program. This is a bug!", t);
+        }
+    }
+
+    // Entry points for the compiled program. It is defined in a separate class loader, so these must be public
+
+    /**
+     * Called by the compiled program before it returns
+     */
+    public final void leave(int pc, int status)
+    {
+        this.pc = pc;
+        this.exitStatus = status;
+    }
+
+    public final int load(int address)
+    {
+        return read(address);
+    }
+
+    public final void store(int address, int value)
+    {
+        write(address, value);
+    }
+
+    public static int div(int a, int b)
+    {
+        return Alu.div(a, b);
+    }
+
+    public static int mod(int a, int b)
+    {
+        return Alu.mod(a, b);
+    }
+
+    public static int pow(int a, int b)
+    {
+        return Alu.pow(a, b);
+    }
+
+    public static int rotateLeft(int a, int b)
+    {
+        return Alu.rotateLeft(a, b);
+    }
+
+    public static int rotateRight(int a, int b)
+    {
+        return Alu.rotateRight(a, b);
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.emulator;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import assembler.asm.InstructionType;
+import org.jetbrains.annotations.NotNull;
+
+import static assembler.emulator.ClassFileWriter.*;
+
+/**
+ * Translates a ROM image into a single JVM method, with one labeled section per basic block.
+ *
+ * Basic blocks start at address zero, at every branch and call target, and after every branch, call, ret, and halting instruction.
+ * Direct branches and calls jump straight to the target block, so loops in the program become loops in bytecode, which the JIT can optimize as a whole.
+ * Registers are kept in locals for the duration of the call. Indirect jumps (ret) dispatch on the program counter through a table switch.
+ *
+ * The generated method has the signature {@code static long run(RecompiledEmulator emulator, int[] registers, int pc, long maxInstructions)}.
+ * It returns the number of instructions executed, and before returning, stores the registers and reports the program counter and exit status through {@link RecompiledEmulator#leave(int, int)}.
+ *
+ * Only the words of the program are compiled, not the empty remainder of ROM. A full 256 word program compiles to a few kilobytes of bytecode, which is below the size HotSpot will refuse to JIT compile (8000 bytes).
+ */
+final class Recompiler
+{
+    static final int STATUS_LIMIT = 0;
+    static final int STATUS_EXIT = 1;
+    static final int STATUS_BREAK = 2;
+    static final int STATUS_ILLEGAL = 3;
+    static final int STATUS_FALLBACK = 4;
+
+    private static final String CLASS_NAME = "assembler/emulator/RecompiledProgram";
+    private static final String METHOD_NAME = "run";
+    private static final String EMULATOR = "assembler/emulator/RecompiledEmulator";
+    private static final MethodType METHOD_TYPE = MethodType.methodType(long.class, RecompiledEmulator.class, int[].class, int.class, long.class);
+
+    // Local variable slots
+    private static final int EMULATOR_LOCAL = 0, REGISTERS_LOCAL = 1, PC_LOCAL = 2, MAX_LOCAL = 3, COUNT_LOCAL = 5, STATUS_LOCAL = 7;
+    private static final int REGISTER_LOCAL_OFFSET = 7; // r1 - r7 are in slots 8 - 14
+    private static final int MAX_LOCALS = 15, MAX_STACK = 6;
+
+    /**
+     * Compiles and loads a ROM image. Each program is defined in its own class loader, so it can be unloaded once the emulator is no longer reachable.
+     *
+     * @param rom The ROM, at most {@link Emulator#ROM_SIZE} words. Any addresses past the end are left to the interpreter
+     * @return a handle to the generated method
+     */
+    @NotNull
+    static MethodHandle compile(@NotNull int[] rom)
+    {
+        byte[] bytes = generate(rom);
+        Class<?> program = new ProgramClassLoader(RecompiledEmulator.class.getClassLoader()).define(bytes);
+        try
+        {
+            return MethodHandles.publicLookup().findStatic(program, METHOD_NAME, METHOD_TYPE);
+        }
+        catch (NoSuchMethodException | IllegalAccessException e)
+        {
+            throw new IllegalStateException("Unable to link recompiled program. This is a bug!", e);
+        }
+    }
+
+    /**
+     * @return the class file for a ROM image
+     */
+    @NotNull
+    static byte[] generate(@NotNull int[] rom)
+    {
+        return new Recompiler(rom).generate();
+    }
+
+    /**
+     * @return which addresses start a basic block
+     */
+    @NotNull
+    static boolean[] findLeaders(@NotNull int[] rom)
+    {
+        boolean[] leaders = new boolean[rom.length];
+        leaders[0] = true;
+        for (int address = 0; address < rom.length; address++)
+        {
+            int word = rom[address];
+            InstructionType type = InstructionType.decode(word);
+            if (type != null && type.getType() == 1 && type != InstructionType.RETURN)
+            {
+                mark(leaders, (address + 1 + Alu.imm11Sign(word)) & Alu.WORD_MASK);
+            }
+            else if (type != null && type.getType() == 4)
+            {
+                mark(leaders, (address + 1 + Alu.imm6Sign(word)) & Alu.WORD_MASK);
+            }
+            if (isTerminator(type))
+            {
+                mark(leaders, address + 1);
+            }
+        }
+        return leaders;
+    }
+
+    private static void mark(boolean[] leaders, int address)
+    {
+        if (address < leaders.length)
+        {
+            leaders[address] = true;
+        }
+    }
+
+    /**
+     * @return if the instruction ends a basic block
+     */
+    private static boolean isTerminator(InstructionType type)
+    {
+        return type == null || type == InstructionType.EXIT || type == InstructionType.BREAK || type.getType() == 1 || type.getType() == 4;
+    }
+
+    private final int[] rom;
+    private final boolean[] leaders;
+    private final ClassFileWriter writer;
+    private final int[] blocks;
+    private final int dispatch, fallback, exit;
+    private final int mask;
+
+    private Recompiler(int[] rom)
+    {
+        this.rom = rom;
+        this.leaders = findLeaders(rom);
+        this.writer = new ClassFileWriter();
+        this.blocks = new int[rom.length];
+        this.dispatch = writer.newLabel();
+        this.fallback = writer.newLabel();
+        this.exit = writer.newLabel();
+        this.mask = writer.integer(Alu.WORD_MASK);
+        for (int address = 0; address < rom.length; address++)
+        {
+            blocks[address] = leaders[address] ? writer.newLabel() : fallback;
+        }
+    }
+
+    private byte[] generate()
+    {
+        // Load registers into locals
+        for (int register = 1; register < 8; register++)
+        {
+            writer.op(ALOAD, REGISTERS_LOCAL);
+            writer.pushInt(register);
+            writer.op(IALOAD);
+            writer.op(ISTORE, REGISTER_LOCAL_OFFSET + register);
+        }
+        writer.op(LCONST_0);
+        writer.op(LSTORE, COUNT_LOCAL);
+
+        // Dispatch on the program counter. Anything which is not the start of a block falls back to the interpreter
+        writer.mark(dispatch);
+        writer.op(ILOAD, PC_LOCAL);
+        writer.tableSwitch(fallback, blocks);
+
+        int address = 0;
+        while (address < rom.length)
+        {
+            address = generateBlock(address);
+        }
+
+        writer.mark(fallback);
+        writer.pushInt(STATUS_FALLBACK);
+        writer.op(ISTORE, STATUS_LOCAL);
+
+        // Store registers and leave
+        writer.mark(exit);
+        for (int register = 1; register < 8; register++)
+        {
+            writer.op(ALOAD, REGISTERS_LOCAL);
+            writer.pushInt(register);
+            writer.op(ILOAD, REGISTER_LOCAL_OFFSET + register);
+            writer.op(IASTORE);
+        }
+        writer.op(ALOAD, EMULATOR_LOCAL);
+        writer.op(ILOAD, PC_LOCAL);
+        writer.op(ILOAD, STATUS_LOCAL);
+        writer.op2(INVOKEVIRTUAL, writer.methodRef(EMULATOR, "leave", "(II)V"));
+        writer.op(LLOAD, COUNT_LOCAL);
+        writer.op(LRETURN);
+
+        return writer.toClassFile(CLASS_NAME, METHOD_NAME, METHOD_TYPE.toMethodDescriptorString(), MAX_STACK, MAX_LOCALS);
+    }
+
+    /**
+     * @return the address of the next block
+     */
+    private int generateBlock(int start)
+    {
+        int end = start;
+        do
+        {
+            end++;
+        } while (end < rom.length && !leaders[end] && !isTerminator(InstructionType.decode(rom[end - 1])));
+
+        // If the whole block does not fit within the instruction limit, leave at the start of the block, and the interpreter will execute the remainder
+        int length = end - start, enter = writer.newLabel();
+        writer.mark(blocks[start]);
+        writer.op(LLOAD, COUNT_LOCAL);
+        writer.pushInt(length);
+        writer.op(I2L);
+        writer.op(LADD);
+        writer.op(LLOAD, MAX_LOCAL);
+        writer.op(LCMP);
+        writer.jump(IFLE, enter);
+        leave(start, STATUS_LIMIT);
+        writer.mark(enter);
+        writer.op(LLOAD, COUNT_LOCAL);
+        writer.pushInt(length);
+        writer.op(I2L);
+        writer.op(LADD);
+        writer.op(LSTORE, COUNT_LOCAL);
+
+        for (int address = start; address < end; address++)
+        {
+            generateInstruction(address, rom[address]);
+        }
+        if (!isTerminator(InstructionType.decode(rom[end - 1])))
+        {
+            jumpTo(end);
+        }
+        return end;
+    }
+
+    private void generateInstruction(int address, int word)
+    {
+        InstructionType type = InstructionType.decode(word);
+        int rd = (word >> 13) & 7, rs = (word >> 10) & 7, rt = (word >> 7) & 7;
+        if (type == null)
+        {
+            leave(address, STATUS_ILLEGAL);
+            return;
+        }
+        switch (type)
+        {
+            case EXIT:
+                leave(address, STATUS_EXIT);
+                break;
+            case BREAK:
+                leave(address, STATUS_BREAK);
+                break;
+            case CALL:
+                writer.pushInt(address + 1);
+                writer.op(ISTORE, REGISTER_LOCAL_OFFSET + 1);
+                jumpTo((address + 1 + Alu.imm11Sign(word)) & Alu.WORD_MASK);
+                break;
+            case RETURN:
+                loadRegister(1);
+                writer.op(ISTORE, PC_LOCAL);
+                writer.jump(GOTO, dispatch);
+                break;
+            case ADD:
+                arithmetic(rd, rs, rt, IADD, true);
+                break;
+            case SUB:
+                arithmetic(rd, rs, rt, ISUB, true);
+                break;
+            case MUL:
+                arithmetic(rd, rs, rt, IMUL, true);
+                break;
+            case AND:
+                arithmetic(rd, rs, rt, IAND, false);
+                break;
+            case OR:
+                arithmetic(rd, rs, rt, IOR, false);
+                break;
+            case XOR:
+                arithmetic(rd, rs, rt, IXOR, false);
+                break;
+            case XNOR:
+                if (rd != 0)
+                {
+                    loadRegister(rs);
+                    loadRegister(rt);
+                    writer.op(IXOR);
+                    writer.op(ICONST_M1);
+                    writer.op(IXOR);
+                    storeMasked(rd);
+                }
+                break;
+            case LEFT_SHIFT:
+                arithmetic(rd, rs, rt, ISHL, true);
+                break;
+            case RIGHT_SHIFT:
+                arithmetic(rd, rs, rt, ISHR, true);
+                break;
+            case DIV:
+                helper(rd, rs, rt, "div");
+                break;
+            case POW:
+                helper(rd, rs, rt, "pow");
+                break;
+            case MOD:
+                helper(rd, rs, rt, "mod");
+                break;
+            case LEFT_ROTATE:
+                helper(rd, rs, rt, "rotateLeft");
+                break;
+            case RIGHT_ROTATE:
+                helper(rd, rs, rt, "rotateRight");
+                break;
+            case STORE:
+                writer.op(ALOAD, EMULATOR_LOCAL);
+                loadAddress(rs, word);
+                loadRegister(rd);
+                writer.op2(INVOKEVIRTUAL, writer.methodRef(EMULATOR, "store", "(II)V"));
+                break;
+            case LOAD:
+                writer.op(ALOAD, EMULATOR_LOCAL);
+                loadAddress(rs, word);
+                writer.op2(INVOKEVIRTUAL, writer.methodRef(EMULATOR, "load", "(I)I"));
+                if (rd != 0)
+                {
+                    writer.op(ISTORE, REGISTER_LOCAL_OFFSET + rd);
+                }
+                else
+                {
+                    writer.op(POP);
+                }
+                break;
+            case BR_EQUAL:
+                branch(address, word, rd, rs, IF_ICMPEQ);
+                break;
+            case BR_NOT_EQUAL:
+                branch(address, word, rd, rs, IF_ICMPNE);
+                break;
+            case BR_GREATER:
+                branch(address, word, rd, rs, IF_ICMPGT);
+                break;
+            case BR_LESS:
+                branch(address, word, rd, rs, IF_ICMPLT);
+                break;
+            case ADDI:
+                immediate(rd, rs, Alu.imm6Sign(word), IADD, true);
+                break;
+            case MULI:
+                immediate(rd, rs, Alu.imm6Sign(word), IMUL, true);
+                break;
+            case DIVI:
+                if (rd != 0)
+                {
+                    loadRegister(rs);
+                    writer.pushInt(Alu.imm6Sign(word));
+                    writer.op2(INVOKESTATIC, writer.methodRef(EMULATOR, "div", "(II)I"));
+                    storeMasked(rd);
+                }
+                break;
+            case ANDI:
+                immediate(rd, rs, Alu.imm6Logical(word), IAND, false);
+                break;
+            case ORI:
+                immediate(rd, rs, Alu.imm6Logical(word), IOR, false);
+                break;
+            case LEFT_SHIFTI:
+                immediate(rd, rs, Alu.imm6Logical(word), ISHL, true);
+                break;
+            case RIGHT_SHIFTI:
+                immediate(rd, rs, Alu.imm6Logical(word), ISHR, true);
+                break;
+        }
+    }
+
+    private void arithmetic(int rd, int rs, int rt, int opcode, boolean masked)
+    {
+        // Register operations have no side effects, so writes to r0 can be dropped entirely
+        if (rd != 0)
+        {
+            loadRegister(rs);
+            loadRegister(rt);
+            writer.op(opcode);
+            store(rd, masked);
+        }
+    }
+
+    private void helper(int rd, int rs, int rt, String name)
+    {
+        if (rd != 0)
+        {
+            loadRegister(rs);
+            loadRegister(rt);
+            writer.op2(INVOKESTATIC, writer.methodRef(EMULATOR, name, "(II)I"));
+            storeMasked(rd);
+        }
+    }
+
+    private void immediate(int rd, int rs, int value, int opcode, boolean masked)
+    {
+        if (rd != 0)
+        {
+            loadRegister(rs);
+            writer.pushInt(value);
+            writer.op(opcode);
+            store(rd, masked);
+        }
+    }
+
+    private void branch(int address, int word, int rd, int rs, int opcode)
+    {
+        int taken = writer.newLabel();
+        loadRegister(rd);
+        loadRegister(rs);
+        writer.jump(opcode, taken);
+        jumpTo(address + 1);
+        writer.mark(taken);
+        jumpTo((address + 1 + Alu.imm6Sign(word)) & Alu.WORD_MASK);
+    }
+
+    private void loadAddress(int rs, int word)
+    {
+        loadRegister(rs);
+        writer.pushInt(Alu.imm6Sign(word));
+        writer.op(IADD);
+        mask();
+    }
+
+    private void loadRegister(int register)
+    {
+        if (register == 0)
+        {
+            writer.op(ICONST_0);
+        }
+        else
+        {
+            writer.op(ILOAD, REGISTER_LOCAL_OFFSET + register);
+        }
+    }
+
+    private void store(int rd, boolean masked)
+    {
+        if (masked)
+        {
+            mask();
+        }
+        writer.op(ISTORE, REGISTER_LOCAL_OFFSET + rd);
+    }
+
+    private void storeMasked(int rd)
+    {
+        store(rd, true);
+    }
+
+    private void mask()
+    {
+        writer.op(LDC, this.mask);
+        writer.op(IAND);
+    }
+
+    /**
+     * Jumps to the block starting at the target address, or falls back to the interpreter if the target is outside of ROM
+     */
+    private void jumpTo(int target)
+    {
+        if (target < rom.length)
+        {
+            writer.jump(GOTO, blocks[target]);
+        }
+        else
+        {
+            writer.pushInt(target);
+            writer.op(ISTORE, PC_LOCAL);
+            writer.jump(GOTO, fallback);
+        }
+    }
+
+    private void leave(int pc, int status)
+    {
+        writer.pushInt(pc);
+        writer.op(ISTORE, PC_LOCAL);
+        writer.pushInt(status);
+        writer.op(ISTORE, STATUS_LOCAL);
+        writer.jump(GOTO, exit);
+    }
+
+    private static final class ProgramClassLoader extends ClassLoader
+    {
+        ProgramClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytes)
+        {
+            return defineClass(CLASS_NAME.replace('/', '.'), bytes, 0, bytes.length);
+        }
+    }
+}
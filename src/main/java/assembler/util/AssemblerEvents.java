@@ -0,0 +1,126 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events for each phase of assembling a program. These cost nothing unless a recording is running, i.e. with:
+ * {@code java -XX:StartFlightRecording=filename=assembler.jfr -jar factorioassembler-all.jar --batch programs}
+ *
+ * The events are under the "Factorio Assembler" category, and can be viewed with {@code jfr print --categories "Factorio Assembler" assembler.jfr}, or in JDK Mission Control.
+ *
+ * @author Alex O'Neill
+ */
+public final class AssemblerEvents
+{
+    private static final String CATEGORY = "Factorio Assembler";
+
+    private AssemblerEvents() {}
+
+    @Name("assembler.ReadLines")
+    @Label("Read Lines")
+    @Description("Splitting the source into lines, and removing comments")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class ReadLines extends Event
+    {
+        @Label("Characters")
+        public int characters;
+
+        @Label("Lines")
+        public int lines;
+    }
+
+    @Name("assembler.Compile")
+    @Label("Compile")
+    @Description("Compiling every line of a program, before linking")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Compile extends Event
+    {
+        @Label("Lines")
+        public int lines;
+
+        @Label("Instructions")
+        @Description("The number of words in the image, including data")
+        public int instructions;
+
+        @Label("Symbols")
+        public int symbols;
+    }
+
+    @Name("assembler.ExpandTemplate")
+    @Label("Expand Template")
+    @Description("Expanding a single template instruction, i.e. movia")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class ExpandTemplate extends Event
+    {
+        @Label("Template")
+        public String template;
+
+        @Label("Instructions")
+        public int instructions;
+    }
+
+    @Name("assembler.Optimize")
+    @Label("Optimize")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Optimize extends Event
+    {
+        @Label("Instructions")
+        @Description("The number of words in the image after optimizing")
+        public int instructions;
+
+        @Label("Instructions Saved")
+        public int instructionsSaved;
+
+        @Label("Passes")
+        public int passes;
+    }
+
+    @Name("assembler.Link")
+    @Label("Link")
+    @Description("Checking every symbol is resolved, and relaxing out of range branches")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Link extends Event
+    {
+        @Label("Instructions")
+        public int instructions;
+
+        @Label("Symbols")
+        public int symbols;
+
+        @Label("Relaxed Branches")
+        public int relaxedBranches;
+    }
+
+    @Name("assembler.EncodeBlueprint")
+    @Label("Encode Blueprint")
+    @Description("Deflating and Base64 encoding blueprint json")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class EncodeBlueprint extends Event
+    {
+        @Label("Json Size")
+        @DataAmount
+        public int jsonBytes;
+
+        @Label("Deflated Size")
+        @DataAmount
+        public long deflatedBytes;
+    }
+}
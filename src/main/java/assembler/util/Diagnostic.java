@@ -0,0 +1,103 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.util;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A single assembly error, at a position in the source. Only the error code and its arguments are kept, and the message is formatted when it is needed.
+ *
+ * @author Alex O'Neill
+ */
+public final class Diagnostic
+{
+    private final int line;
+    private final int column;
+    private final Code code;
+    private final Object[] args;
+
+    /**
+     * @param line   The source line, starting from one, or zero if the error is not for a single line
+     * @param column The column in the line, starting from one, or zero if unknown. Runs of spaces and tabs count as a single column
+     */
+    public Diagnostic(int line, int column, @NotNull Code code, @NotNull Object... args)
+    {
+        this.line = line;
+        this.column = column;
+        this.code = code;
+        this.args = args;
+    }
+
+    public int getLine()
+    {
+        return line;
+    }
+
+    public int getColumn()
+    {
+        return column;
+    }
+
+    @NotNull
+    public Code getCode()
+    {
+        return code;
+    }
+
+    @NotNull
+    public String getMessage()
+    {
+        return code.format(args);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (line == 0)
+        {
+            return code + ": " + getMessage();
+        }
+        return "Line " + line + (column == 0 ? "" : ":" + column) + ": " + code + ": " + getMessage();
+    }
+
+    public enum Code
+    {
+        INVALID("%s"),
+        INTERNAL("Unknown exception occurred during parsing: %s"),
+        UNEXPECTED_TOKEN("Unexpected token: %s"),
+        UNKNOWN_INSTRUCTION("Unknown instruction: %s"),
+        UNKNOWN_DIRECTIVE("Unknown directive: %s"),
+        INVALID_REGISTER("Invalid register: %s"),
+        IMMEDIATE_UNSIGNED_RANGE("Immediate out of range for %dbits unsigned."),
+        IMMEDIATE_NOT_UNSIGNED("Immediate value is signed, expecting unsigned %d bits"),
+        IMMEDIATE_SIGNED_RANGE("Immediate value %d out of range for %d bit signed: [%d, %d]"),
+        DUPLICATE_SYMBOL("Duplicate symbol %s at line %d, previously defined at line %d"),
+        DUPLICATE_BUILT_IN_SYMBOL("Duplicate symbol %s at line %d, which is a built in symbol"),
+        UNKNOWN_SYMBOL("Unknown symbol %s at line%s %s"),
+        MEMORY_OVERFLOW("Memory overflow! Too much memory allocated."),
+        MEMORY_NOT_POSITIVE("Can't allocate a non-positive amount of memory."),
+        SYMBOL_RANGE("Symbol %s = %d is out of range [%d, %d] for the immediate at line %d"),
+        UNRELAXABLE_BRANCH("Unable to relax the branch at address %d, the program may be too large"),
+        UNBRIDGEABLE_BRANCH("Unable to relax the branch at line %d to %s, as it would need to jump over %d words of data at %s"),
+        INVALID_INCLUDE("Expected a single file to include"),
+        UNKNOWN_INCLUDE("Can't find included file %s"),
+        UNLINKED_INCLUDE("Included file %s was not linked. Includes are only supported when assembling a file");
+
+        private final String format;
+
+        Code(String format)
+        {
+            this.format = format;
+        }
+
+        @NotNull
+        public String format(@NotNull Object... args)
+        {
+            return String.format(format, args);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Collects every error found while assembling a program, so they can all be reported at once instead of stopping at the first.
+ * Adding an error is constant time: messages are only formatted when the diagnostics are printed.
+ *
+ * @author Alex O'Neill
+ */
+public final class Diagnostics implements Iterable<Diagnostic>
+{
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    public void add(int line, int column, @NotNull Diagnostic.Code code, @NotNull Object... args)
+    {
+        diagnostics.add(new Diagnostic(line, column, code, args));
+    }
+
+    public void add(int line, int column, @NotNull InvalidAssemblyException e)
+    {
+        diagnostics.add(new Diagnostic(line, column, e.getCode(), e.getArgs()));
+    }
+
+    public boolean isEmpty()
+    {
+        return diagnostics.isEmpty();
+    }
+
+    public int size()
+    {
+        return diagnostics.size();
+    }
+
+    @NotNull
+    public Diagnostic get(int index)
+    {
+        return diagnostics.get(index);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Diagnostic> iterator()
+    {
+        return diagnostics.iterator();
+    }
+
+    /**
+     * @return every error, one per line, followed by the number of errors
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (Diagnostic diagnostic : diagnostics)
+        {
+            builder.append(diagnostic).append('\n');
+        }
+        return builder.append(diagnostics.size()).append(diagnostics.size() == 1 ? " error" : " errors").toString();
+    }
+}
@@ -10,10 +10,11 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -31,7 +32,7 @@ public final class Helpers
         Path filePath = Paths.get(fileName);
         try (BufferedReader reader = Files.newBufferedReader(filePath))
         {
-            return reader.lines().reduce((x, y) -> x + "\n" + y).orElse("");
+            return reader.lines().collect(Collectors.joining("\n"));
         }
         catch (IOException e)
         {
@@ -49,7 +50,7 @@ public final class Helpers
         }
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(input)))
         {
-            return reader.lines().reduce((x, y) -> x + "\n" + y).orElse("");
+            return reader.lines().collect(Collectors.joining("\n"));
         }
         catch (IOException e)
         {
@@ -57,30 +58,26 @@ public final class Helpers
         }
     }
 
+    /**
+     * Splits the input into lines, with standard spacing and comments removed. See {@link SourceReader}
+     */
+    @NotNull
     public static List<String> getLinesUnformatted(String input)
     {
-        return Arrays.stream(input
-                .replaceAll("\r\n", "\n") // Standardize Line Endings
-                .replaceAll("\r", "\n")
-                .replaceAll("[ \t]+", " ") // Standardize spacing
-                .split("\n"))
-                .map(s -> s.split("#")[0]) // Trim comments
-                .collect(Collectors.toList());
-    }
-
-    public static void nextChar(StringBuilder result, StringBuilder source)
-    {
-        char c = source.charAt(0);
-        source.deleteCharAt(0);
-        if (result.length() > 0 || c != ' ')
+        List<String> lines = new ArrayList<>();
+        try (SourceReader reader = new SourceReader(new StringReader(input)))
         {
-            result.append(c);
+            CharSequence line;
+            while ((line = reader.readLine()) != null)
+            {
+                lines.add(line.toString());
+            }
         }
-    }
-
-    public static boolean isNextNonAlphanumeric(StringBuilder input)
-    {
-        return input.length() == 0 || !(Character.isLetterOrDigit(input.charAt(0)) || input.charAt(0) == '_');
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to read from a string. This is a bug!", e);
+        }
+        return lines;
     }
 
     /**
@@ -124,7 +121,7 @@ public final class Helpers
         int maxBits = (1 << length) - 1;
         if ((value & maxBits) != value)
         {
-            throw new InvalidAssemblyException("Immediate out of range for " + length + "bits unsigned.");
+            throw new InvalidAssemblyException(Diagnostic.Code.IMMEDIATE_UNSIGNED_RANGE, length);
         }
         return value;
     }
@@ -136,7 +133,7 @@ public final class Helpers
         if (input.startsWith("-"))
         {
             if (!signed)
-                throw new InvalidAssemblyException("Immediate value is signed, expecting unsigned " + length + " bits");
+                throw new InvalidAssemblyException(Diagnostic.Code.IMMEDIATE_NOT_UNSIGNED, length);
             input = input.substring(1);
             negative = true;
         }
@@ -152,7 +149,7 @@ public final class Helpers
         }
         if (absoluteValue < minValue || absoluteValue > maxValue)
         {
-            throw new InvalidAssemblyException("Immediate value " + absoluteValue + " out of range for " + length + " bit signed: [" + minValue + ", " + maxValue + "]");
+            throw new InvalidAssemblyException(Diagnostic.Code.IMMEDIATE_SIGNED_RANGE, absoluteValue, length, minValue, maxValue);
         }
         int maxBits = (1 << length) - 1;
         return absoluteValue & maxBits;
@@ -6,30 +6,132 @@
 
 package assembler.util;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An error in the assembly. Errors with a {@link Diagnostic.Code} only format their message when it is read, and debug data is only converted to a string when printed.
+ */
 public class InvalidAssemblyException extends Exception
 {
-    private String extraData = "";
+    private final Diagnostic.Code code;
+    private final Object[] args;
+    private final List<Object> extraData = new ArrayList<>();
+    private String file;
+    private int line;
+    private int column;
 
     public InvalidAssemblyException(String message, Throwable cause)
     {
         super(message, cause);
+        this.code = Diagnostic.Code.INVALID;
+        this.args = new Object[] {message};
     }
 
     public InvalidAssemblyException(String message)
     {
         super(message);
+        this.code = Diagnostic.Code.INVALID;
+        this.args = new Object[] {message};
+    }
+
+    public InvalidAssemblyException(@NotNull Diagnostic.Code code, @NotNull Object... args)
+    {
+        super(null, null);
+        this.code = code;
+        this.args = args;
+    }
+
+    public InvalidAssemblyException(@NotNull Diagnostic.Code code, Throwable cause, @NotNull Object... args)
+    {
+        super(null, cause);
+        this.code = code;
+        this.args = args;
+    }
+
+    @Override
+    public String getMessage()
+    {
+        String message = super.getMessage();
+        if (message == null)
+        {
+            message = code.format(args);
+        }
+        return file == null ? message : "In included file " + file + ": " + message;
+    }
+
+    /**
+     * @return the included file where the error is, which the line and column are in, or null if it is in the file being assembled
+     */
+    @Nullable
+    public String getFile()
+    {
+        return file;
+    }
+
+    public void setFile(@Nullable String file)
+    {
+        this.file = file;
+    }
+
+    @NotNull
+    public Diagnostic.Code getCode()
+    {
+        return code;
+    }
+
+    @NotNull
+    public Object[] getArgs()
+    {
+        return args;
+    }
+
+    /**
+     * @return the source line where the error is, starting from one, or zero if unknown
+     */
+    public int getLine()
+    {
+        return line;
+    }
+
+    public void setLine(int line)
+    {
+        this.line = line;
     }
 
+    /**
+     * @return the column in the source line where the error is, starting from one, or zero if unknown
+     */
+    public int getColumn()
+    {
+        return column;
+    }
+
+    public void setColumn(int column)
+    {
+        this.column = column;
+    }
+
+    /**
+     * Adds extra data to be printed with the error. This is converted to a string when printed, so it may be expensive to print, but not to attach.
+     */
     public void attachData(Object... args)
     {
-        extraData += Arrays.stream(args).map(Object::toString).collect(Collectors.joining("\n"));
+        Collections.addAll(extraData, args);
+    }
+
+    public String getData()
+    {
+        return extraData.stream().map(Object::toString).collect(Collectors.joining("\n"));
     }
 
     public void printData()
     {
-        System.out.println("Extra Debug Data:\n" + extraData);
+        System.out.println("Extra Debug Data:\n" + getData());
     }
 }
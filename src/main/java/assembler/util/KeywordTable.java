@@ -0,0 +1,83 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.util;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A fixed lookup table for keywords, which is queried by a region of a character sequence.
+ * Keywords are bucketed by length, so a lookup only compares against keywords which could possibly match, and never allocates a substring.
+ *
+ * @param <T> the value type
+ */
+public final class KeywordTable<T>
+{
+    private final String[][] keys;
+    private final Object[][] values;
+
+    public KeywordTable(@NotNull Map<String, T> entries)
+    {
+        int maxLength = entries.keySet().stream().mapToInt(String::length).max().orElse(0);
+        keys = new String[maxLength + 1][0];
+        values = new Object[maxLength + 1][0];
+        entries.forEach((key, value) -> {
+            int length = key.length();
+            keys[length] = Arrays.copyOf(keys[length], keys[length].length + 1);
+            values[length] = Arrays.copyOf(values[length], values[length].length + 1);
+            keys[length][keys[length].length - 1] = key;
+            values[length][values[length].length - 1] = value;
+        });
+    }
+
+    @Nullable
+    public T get(@NotNull CharSequence input)
+    {
+        return get(input, 0, input.length());
+    }
+
+    /**
+     * @param input The input characters
+     * @param start The start of the region (inclusive)
+     * @param end   The end of the region (exclusive)
+     * @return the value for the keyword matching the region exactly, or null if there is none
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public T get(@NotNull CharSequence input, int start, int end)
+    {
+        int length = end - start;
+        if (length <= 0 || length >= keys.length)
+        {
+            return null;
+        }
+        String[] bucket = keys[length];
+        for (int i = 0; i < bucket.length; i++)
+        {
+            if (regionEquals(bucket[i], input, start, length))
+            {
+                return (T) values[length][i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean regionEquals(String key, CharSequence input, int start, int length)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            if (key.charAt(i) != input.charAt(start + i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.util;
+
+import java.lang.management.ManagementFactory;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Wall time and allocated bytes for each phase of assembling a program, on the current thread.
+ * Allocation is measured with {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)} where the JVM supports it.
+ *
+ * Phases may be nested (template expansion is part of compiling), but a phase can not be nested in itself. This is not thread safe.
+ *
+ * @author Alex O'Neill
+ */
+public final class PhaseStats
+{
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final long[] nanos = new long[Phase.values().length];
+    private final long[] bytes = new long[Phase.values().length];
+    private final int[] calls = new int[Phase.values().length];
+    private final long[] startNanos = new long[Phase.values().length];
+    private final long[] startBytes = new long[Phase.values().length];
+
+    public void begin(@NotNull Phase phase)
+    {
+        startBytes[phase.ordinal()] = allocatedBytes();
+        startNanos[phase.ordinal()] = System.nanoTime();
+    }
+
+    public void end(@NotNull Phase phase)
+    {
+        long endNanos = System.nanoTime();
+        int index = phase.ordinal();
+        nanos[index] += endNanos - startNanos[index];
+        bytes[index] += allocatedBytes() - startBytes[index];
+        calls[index]++;
+    }
+
+    public long getNanos(@NotNull Phase phase)
+    {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return the bytes allocated during a phase, or -1 if the JVM can't measure allocation
+     */
+    public long getAllocatedBytes(@NotNull Phase phase)
+    {
+        return THREADS == null ? -1 : bytes[phase.ordinal()];
+    }
+
+    public int getCalls(@NotNull Phase phase)
+    {
+        return calls[phase.ordinal()];
+    }
+
+    /**
+     * @return a table of every phase which was run, with the total time, allocation and number of times it was run
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder(String.format("%-22s %12s %14s %8s\n", "Phase", "Time (ms)", "Allocated (KB)", "Calls"));
+        for (Phase phase : Phase.values())
+        {
+            if (calls[phase.ordinal()] > 0)
+            {
+                String allocated = THREADS == null ? "n/a" : String.format("%.1f", bytes[phase.ordinal()] / 1024.0);
+                builder.append(String.format("%-22s %12.3f %14s %8d\n", phase.getName(), nanos[phase.ordinal()] / 1_000_000.0, allocated, calls[phase.ordinal()]));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static long allocatedBytes()
+    {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Nullable
+    private static com.sun.management.ThreadMXBean threads()
+    {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported())
+        {
+            com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+            allocation.setThreadAllocatedMemoryEnabled(true);
+            return allocation;
+        }
+        return null;
+    }
+
+    public enum Phase
+    {
+        READ_LINES("Read lines"),
+        COMPILE("Compile"),
+        EXPAND_TEMPLATES("  Expand templates"),
+        OPTIMIZE("Optimize"),
+        LINK("Link"),
+        ENCODE_BLUEPRINT("Encode blueprint");
+
+        private final String name;
+
+        Phase(String name)
+        {
+            this.name = name;
+        }
+
+        @NotNull
+        public String getName()
+        {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Part of Factorio Assembler
+ * Copyright (c) 2019 - 2019 Alex O'Neill
+ * See the project LICENCE.md for more information
+ */
+
+package assembler.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads assembly source one line at a time, normalizing each line in a single pass over the characters:
+ * - Line endings may be {@code \n}, {@code \r\n} or {@code \r}
+ * - Runs of spaces and tabs become a single space
+ * - Comments, from {@code #} to the end of the line, are removed
+ *
+ * The input is read through a fixed size buffer, and each line is written into the same builder, so memory use does not depend on the size of the input.
+ *
+ * @author Alex O'Neill
+ */
+public final class SourceReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader input;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder line = new StringBuilder(128);
+    private int position, limit;
+    private boolean afterCarriageReturn; // If the last line ended with '\r', so a following '\n' is part of the same line ending
+    private int lineNumber;
+
+    public SourceReader(@NotNull Reader input)
+    {
+        this.input = input;
+    }
+
+    /**
+     * @return the next line, or null at the end of the input. The line is reused by the next call, so it must be copied to be kept
+     */
+    @Nullable
+    public CharSequence readLine() throws IOException
+    {
+        line.setLength(0);
+        boolean any = false, comment = false, space = false;
+        while (true)
+        {
+            if (position == limit)
+            {
+                limit = input.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit == -1)
+                {
+                    limit = 0;
+                    if (!any)
+                    {
+                        return null;
+                    }
+                    break;
+                }
+            }
+            char c = buffer[position++];
+            if (afterCarriageReturn)
+            {
+                afterCarriageReturn = false;
+                if (c == '\n')
+                {
+                    continue;
+                }
+            }
+            any = true;
+            if (c == '\n')
+            {
+                break;
+            }
+            if (c == '\r')
+            {
+                afterCarriageReturn = true;
+                break;
+            }
+            if (comment)
+            {
+                continue;
+            }
+            if (c == '#')
+            {
+                comment = true;
+            }
+            else if (c == ' ' || c == '\t')
+            {
+                if (!space)
+                {
+                    line.append(' ');
+                    space = true;
+                }
+            }
+            else
+            {
+                line.append(c);
+                space = false;
+            }
+        }
+        lineNumber++;
+        return line;
+    }
+
+    /**
+     * @return the line number of the last line read, starting from one
+     */
+    public int getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        input.close();
+    }
+}
@@ -0,0 +1,179 @@
+package assembler;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import assembler.asm.IInstruction;
+import assembler.blueprint.Blueprints;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssemblerServerTest
+{
+    private AssemblerServer server;
+    private Thread thread;
+
+    @BeforeEach
+    void setup() throws IOException
+    {
+        server = new AssemblerServer(0);
+        thread = new Thread(() -> {
+            try
+            {
+                server.serve();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+    }
+
+    @AfterEach
+    void teardown() throws Exception
+    {
+        server.close();
+        thread.join();
+    }
+
+    @Test
+    void testAssemble() throws Exception
+    {
+        String source = Helpers.loadResource("test1.s");
+        String expected = FactorioAssembler.build(source).getInstructions().stream().map(inst -> inst.getEncoded() + "\n").collect(Collectors.joining());
+        try (Socket socket = connect())
+        {
+            assertEquals("OK " + expected, request(socket, "ASSEMBLE", source));
+        }
+    }
+
+    @Test
+    void testBlueprint() throws Exception
+    {
+        String source = Helpers.loadResource("test_hello_world.s");
+        try (Socket socket = connect())
+        {
+            assertEquals("OK " + Blueprints.encode(FactorioAssembler.build(source)), request(socket, "BLUEPRINT", source));
+        }
+    }
+
+    @Test
+    void testErrors() throws Exception
+    {
+        try (Socket socket = connect())
+        {
+            assertTrue(request(socket, "ASSEMBLE", "foo r2").startsWith("ERROR Unknown instruction: foo r2"));
+            assertEquals("ERROR Invalid register: r9 (line 2, column 4)", request(socket, "ASSEMBLE", "exit\nL: add r2, r9, r3"));
+            assertEquals("ERROR Unknown symbol Nowhere at line 1", request(socket, "ASSEMBLE", "br Nowhere"));
+            assertEquals("ERROR Unknown command: DISASSEMBLE", request(socket, "DISASSEMBLE", "exit"));
+
+            // The connection is still usable after an error
+            assertEquals("OK 32784\n", request(socket, "ASSEMBLE", "exit"));
+        }
+    }
+
+    @Test
+    void testInclude() throws Exception
+    {
+        Path library = Files.createTempFile("library", ".s");
+        try (Socket socket = connect())
+        {
+            Files.write(library, "Print: movi r3, 1\n    ret\n".getBytes(StandardCharsets.UTF_8));
+            String source = ".include " + library.toAbsolutePath() + "\ncall Print\nexit";
+            String expected = FactorioAssembler.build("call Print\nexit\nPrint: movi r3, 1\n    ret\n").getInstructions().stream().map(inst -> inst.getEncoded() + "\n").collect(Collectors.joining());
+            assertEquals("OK " + expected, request(socket, "ASSEMBLE", source));
+            assertTrue(request(socket, "ASSEMBLE", ".include missing.s\nexit").startsWith("ERROR Can't find included file"));
+
+            // Errors in the included file give its path with their position
+            Files.write(library, "Print: ret\n    foo r2\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("ERROR In included file " + library.toAbsolutePath().normalize() + ": Unknown instruction: foo r2 (line 2, column 2)", request(socket, "ASSEMBLE", source));
+        }
+        finally
+        {
+            Files.delete(library);
+        }
+    }
+
+    @Test
+    void testConcurrentClients() throws Exception
+    {
+        String source = Helpers.loadResource("test_input_output.s");
+        String expected = "OK " + FactorioAssembler.build(source).getInstructions().stream().map(IInstruction::getEncoded).map(word -> word + "\n").collect(Collectors.joining());
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+            {
+                futures.add(clients.submit(() -> {
+                    try (Socket socket = connect())
+                    {
+                        for (int j = 0; j < 20; j++)
+                        {
+                            assertEquals(expected, request(socket, "ASSEMBLE", source));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            clients.shutdown();
+        }
+    }
+
+    @TestOnly
+    private Socket connect() throws IOException
+    {
+        return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    /**
+     * @return the response status, followed by the payload
+     */
+    @TestOnly
+    private String request(Socket socket, String command, String source) throws IOException
+    {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        OutputStream output = socket.getOutputStream();
+        output.write((command + " " + bytes.length + "\n").getBytes(StandardCharsets.US_ASCII));
+        output.write(bytes);
+        output.flush();
+
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        StringBuilder header = new StringBuilder();
+        int c;
+        while ((c = input.read()) != '\n')
+        {
+            assertNotEquals(-1, c);
+            header.append((char) c);
+        }
+        String[] parts = header.toString().split(" ");
+        byte[] payload = new byte[Integer.parseInt(parts[1])];
+        input.readFully(payload);
+        return parts[0] + " " + new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+package assembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import assembler.blueprint.BlueprintCodec;
+import assembler.blueprint.Blueprints;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlueprintVerifierTest
+{
+    private Path directory;
+
+    @BeforeEach
+    void setup() throws IOException
+    {
+        directory = Files.createTempDirectory("blueprints");
+    }
+
+    @AfterEach
+    void teardown() throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void testVerify() throws Exception
+    {
+        write("hello.s", Helpers.loadResource("test_hello_world.s"));
+        write("hello.blueprint", Blueprints.encode(FactorioAssembler.build(Helpers.loadResource("test_hello_world.s"))) + "\n");
+
+        // A blueprint which was saved before the source was changed
+        write("changed.s", "movi r2, 3\nexit");
+        write("changed.blueprint", Blueprints.encode(FactorioAssembler.build("movi r2, 2\nexit")));
+
+        write("missing.blueprint", Blueprints.encode(FactorioAssembler.build("exit")));
+        write("invalid.s", "exit");
+        write("invalid.blueprint", "0notablueprint");
+
+        List<Path> blueprints = BlueprintVerifier.findBlueprints(Collections.singletonList(directory.toString()));
+        assertEquals(4, blueprints.size());
+
+        List<BlueprintVerifier.Result> results = new BlueprintVerifier(2).verify(blueprints);
+        assertEquals("Address 0 is 16425 (addi r2, r0, 2) in the blueprint, but 16441 (addi r2, r0, 3) in the source", results.get(0).getError());
+        assertTrue(results.get(1).isSuccess());
+        assertTrue(results.get(2).getError().startsWith("Invalid blueprint"));
+        assertTrue(results.get(3).getError().startsWith("Can't find source file"));
+    }
+
+    @Test
+    void testInclude() throws Exception
+    {
+        write("lib.s", "Print: movi r3, 1\n    ret\n");
+        write("main.s", ".include lib.s\n    call Print\n    exit\n");
+        write("main.blueprint", Blueprints.encode(FactorioAssembler.build("    call Print\n    exit\nPrint: movi r3, 1\n    ret\n")));
+        write("other.s", ".include lib.s\n    call Print\n    call Print\n    exit\n");
+        write("other.blueprint", Blueprints.encode(FactorioAssembler.build("    call Print\n    call Print\n    exit\nPrint: movi r3, 1\n    ret\n")));
+
+        // The library is only assembled once (with one thread, as two threads may both assemble it)
+        ObjectCache cache = new ObjectCache(null);
+        List<BlueprintVerifier.Result> results = new BlueprintVerifier(1, false, cache).verify(BlueprintVerifier.findBlueprints(Collections.singletonList(directory.toString())));
+        assertTrue(results.get(0).isSuccess(), results.get(0).toString());
+        assertTrue(results.get(1).isSuccess(), results.get(1).toString());
+        assertEquals(1, cache.getAssembled());
+    }
+
+    @Test
+    void testOptimized() throws Exception
+    {
+        // A blueprint written by an optimized batch only matches an optimized build
+        write("optimized.s", "movia r2, 5\nnop\nexit");
+        List<BatchAssembler.Result> batch = new BatchAssembler(true, true, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, true, 1, new ObjectCache(null)).assemble(Collections.singletonList(directory.resolve("optimized.s")));
+        assertEquals(2, batch.get(0).getAssembly().size());
+
+        List<Path> blueprints = Collections.singletonList(directory.resolve("optimized.blueprint"));
+        assertTrue(new BlueprintVerifier(1, true, new ObjectCache(null)).verify(blueprints).get(0).isSuccess());
+        assertFalse(new BlueprintVerifier(1, false, new ObjectCache(null)).verify(blueprints).get(0).isSuccess());
+    }
+
+    @Test
+    void testCompression() throws Exception
+    {
+        // Blueprints written by a batch use the given compression, and still verify
+        String source = Helpers.loadResource("test_hello_world.s");
+        write("hello.s", source);
+        new BatchAssembler(false, true, 0, Deflater.HUFFMAN_ONLY, false, 1, new ObjectCache(null)).assemble(Collections.singletonList(directory.resolve("hello.s")));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BlueprintCodec codec = new BlueprintCodec(0, Deflater.HUFFMAN_ONLY);
+        codec.encode(FactorioAssembler.build(source), expected);
+        codec.end();
+        assertEquals(expected.toString("UTF-8"), new String(Files.readAllBytes(directory.resolve("hello.blueprint")), StandardCharsets.UTF_8));
+        assertNotEquals(Blueprints.encode(FactorioAssembler.build(source)), expected.toString("UTF-8"));
+        assertTrue(new BlueprintVerifier(1).verify(Collections.singletonList(directory.resolve("hello.blueprint"))).get(0).isSuccess());
+
+        assertThrows(IllegalArgumentException.class, () -> new BatchAssembler(false, true, 42, Deflater.DEFAULT_STRATEGY, false, 1, new ObjectCache(null)));
+    }
+
+    @TestOnly
+    private void write(String fileName, String content) throws IOException
+    {
+        Files.write(directory.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
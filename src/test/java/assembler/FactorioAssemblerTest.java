@@ -1,9 +1,15 @@
 package assembler;
 
+import java.io.IOException;
+import java.io.StringReader;
+
 import assembler.asm.Assembly;
 import assembler.asm.IInstruction;
+import assembler.util.Diagnostic;
+import assembler.util.Diagnostics;
 import assembler.util.Helpers;
 import assembler.util.InvalidAssemblyException;
+import assembler.util.PhaseStats;
 import org.jetbrains.annotations.TestOnly;
 import org.junit.jupiter.api.Test;
 
@@ -60,6 +66,67 @@ class FactorioAssemblerTest
         test("test_input_output.s", 57421, 64622, 65533, 24605, 27758, 27789, 32861, 36974, 36877, 1280, 24653, 27758, 27661, 37001, 448, 1504, 24605, 27758, 27885, 32861, 36974, 36877, 864, 24653, 27758, 27661, 37001, 704, 32784, 65513, 31747, 39955, 41053, 46190, 46349, 49321, 21508, 17381, 22613, 19459, 20483, 27673, 36889, 901, 27673, 3075, 31748, 39956, 64553, 16, 65513, 31763, 39971, 19460, 20483, 27673, 36889, 19460, 17334, 31764, 39972, 64553, 16, 16477, 18542, 18445, 41225, 2051, 47097, 18457, 41927, 16, 78, 65, 77, 69, 63, 0, 72, 69, 76, 76, 79, 44, 0);
     }
 
+    @Test
+    void testAllErrors()
+    {
+        Diagnostics diagnostics = new Diagnostics();
+        FactorioAssembler.build("movi r2, 1\nfoo r2\naddi r9, r2, 1\nLOOP: subi r2, r2, 40\nLOOP: exit\n.bar\nbr END\nbeq r2, r0, END\nexit", diagnostics);
+        assertEquals(6, diagnostics.size());
+        assertEquals("Line 2:1: UNKNOWN_INSTRUCTION: Unknown instruction: foo r2", diagnostics.get(0).toString());
+        assertEquals(Diagnostic.Code.INVALID_REGISTER, diagnostics.get(1).getCode());
+        assertEquals(Diagnostic.Code.IMMEDIATE_SIGNED_RANGE, diagnostics.get(2).getCode());
+        assertEquals(7, diagnostics.get(2).getColumn());
+        assertEquals("Duplicate symbol LOOP at line 5, previously defined at line 4", diagnostics.get(3).getMessage());
+        assertEquals(Diagnostic.Code.UNKNOWN_DIRECTIVE, diagnostics.get(4).getCode());
+        assertEquals(7, diagnostics.get(5).getLine());
+        assertEquals("Unknown symbol END at lines 7, 8", diagnostics.get(5).getMessage());
+        assertTrue(diagnostics.toString().endsWith("6 errors"));
+
+        diagnostics = new Diagnostics();
+        Assembly asm = FactorioAssembler.build(Helpers.loadResource("test1.s"), diagnostics);
+        assertTrue(diagnostics.isEmpty());
+        assertEquals(9, asm.size());
+    }
+
+    @Test
+    void testUnexpectedToken()
+    {
+        InvalidAssemblyException e = assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build("exit\naddi r1, r1, 1:"));
+        assertEquals("Unexpected token: :", e.getMessage());
+        assertEquals(2, e.getLine());
+        assertEquals(15, e.getColumn());
+        assertEquals(Diagnostic.Code.UNEXPECTED_TOKEN, assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build("ldw r1, 0(r2):")).getCode());
+    }
+
+    @Test
+    void testStats() throws Exception
+    {
+        PhaseStats stats = new PhaseStats();
+        Assembly asm = FactorioAssembler.compile(Helpers.loadResource("test_hello_world_subroutine.s"), stats);
+        asm.applyLinker();
+        assertEquals(1, stats.getCalls(PhaseStats.Phase.READ_LINES));
+        assertEquals(1, stats.getCalls(PhaseStats.Phase.COMPILE));
+        assertEquals(7, stats.getCalls(PhaseStats.Phase.EXPAND_TEMPLATES));
+        assertEquals(1, stats.getCalls(PhaseStats.Phase.LINK));
+        assertEquals(0, stats.getCalls(PhaseStats.Phase.OPTIMIZE));
+        assertTrue(stats.getNanos(PhaseStats.Phase.COMPILE) >= stats.getNanos(PhaseStats.Phase.EXPAND_TEMPLATES));
+        assertTrue(stats.toString().contains("Expand templates"));
+        assertFalse(stats.toString().contains("Optimize"));
+    }
+
+    @Test
+    void testStreaming() throws Exception
+    {
+        // Mixed line endings, tabs, and a line which is only a comment
+        Assembly asm = FactorioAssembler.build(new StringReader("main:\tmovi\tr2, 3 # three\r\n#\rloop: subi r2, r2, 1\n\tbnz r2, loop\r\nexit\n\n"));
+        assertEquals(FactorioAssembler.build("main: movi r2, 3\nloop: subi r2, r2, 1\nbnz r2, loop\nexit").toString(), asm.toString());
+
+        InvalidAssemblyException e = assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(new StringReader("movi r2, 3\r\n\r\nfoo r2\r\nexit")));
+        assertEquals("Unknown instruction: foo r2", e.getMessage());
+        assertEquals(1, e.getColumn());
+        assertTrue(e.getData().startsWith("Current Line: foo r2"));
+    }
+
     @TestOnly
     void test(String fileName, int... expectedBytes)
     {
@@ -69,8 +136,11 @@ class FactorioAssemblerTest
             Assembly asm = FactorioAssembler.build(data);
             assertEquals(expectedBytes.length, asm.size());
             assertArrayEquals(expectedBytes, asm.getInstructions().stream().mapToInt(IInstruction::getEncoded).toArray());
+
+            Assembly streamed = FactorioAssembler.build(new StringReader(data));
+            assertArrayEquals(expectedBytes, streamed.getInstructions().stream().mapToInt(IInstruction::getEncoded).toArray());
         }
-        catch (InvalidAssemblyException e)
+        catch (InvalidAssemblyException | IOException e)
         {
             fail(e);
         }
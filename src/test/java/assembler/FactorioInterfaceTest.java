@@ -1,13 +1,19 @@
 package assembler;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class FactorioInterfaceTest
 {
@@ -90,4 +96,29 @@ class FactorioInterfaceTest
         FactorioAssembler.main("--file", "src/test/resources/test1.s", "-f", "src/test/resources/assets/test1.s");
         assertEquals("Can't specify multiple data input sources\r\n", outContent.toString());
     }
+
+    @Test
+    void profileTooLarge() throws IOException
+    {
+        Path source = Files.createTempFile("large", ".s"), profile = Files.createTempFile("large", ".folded");
+        try
+        {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 300; i++)
+            {
+                builder.append("addi r2, r2, 1\n");
+            }
+            Files.write(source, builder.append("exit\n").toString().getBytes(StandardCharsets.UTF_8));
+            Files.delete(profile);
+
+            FactorioAssembler.main("-f", source.toString(), "--profile", profile.toString());
+            assertTrue(outContent.toString().contains("Unable to profile: Program is too large for ROM: 301 words\r\n"));
+            assertTrue(outContent.toString().endsWith("Compilation Complete!\r\n"));
+            assertFalse(Files.exists(profile));
+        }
+        finally
+        {
+            Files.delete(source);
+        }
+    }
 }
@@ -0,0 +1,135 @@
+package assembler;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import assembler.asm.Assembly;
+import assembler.asm.IInstruction;
+import assembler.util.Helpers;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalAssemblerTest
+{
+    @Test
+    void testFirstUpdate() throws InvalidAssemblyException
+    {
+        String input = Helpers.loadResource("test_hello_world.s");
+        IncrementalAssembler.Update update = new IncrementalAssembler().update(input);
+        assertSameProgram(FactorioAssembler.build(input), update.getAssembly());
+        assertEquals(Helpers.getLinesUnformatted(input).size(), update.getLexedLines());
+        assertEquals(update.getAssembly().size(), update.getChangedAddresses().length);
+    }
+
+    @Test
+    void testEditLine() throws InvalidAssemblyException
+    {
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        assembler.update("movi r2, 1\nmovi r3, 2\nadd r4, r2, r3\nexit");
+        IncrementalAssembler.Update update = assembler.update("movi r2, 1\nmovi r3, 5\nadd r4, r2, r3\nexit");
+        assertEquals(1, update.getLexedLines());
+        assertArrayEquals(new int[] {1}, update.getChangedAddresses());
+        assertEquals("1", update.getChangedRanges());
+    }
+
+    @Test
+    void testInsertLine() throws InvalidAssemblyException
+    {
+        // Inserting a line moves the label, so the branch to it is linked again
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        assembler.update("br end\nmovi r2, 1\nend: exit");
+        String input = "br end\nmovi r2, 1\nmovi r3, 1\nend: exit";
+        IncrementalAssembler.Update update = assembler.update(input);
+        assertSameProgram(FactorioAssembler.build(input), update.getAssembly());
+        assertEquals(1, update.getLexedLines());
+        assertEquals("0, 2-3", update.getChangedRanges());
+    }
+
+    @Test
+    void testErrorKeepsPreviousVersion() throws InvalidAssemblyException
+    {
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        assembler.update("movi r2, 1\nexit");
+        assertThrows(InvalidAssemblyException.class, () -> assembler.update("movi r2, 1\nfoo r2\nexit"));
+
+        IncrementalAssembler.Update update = assembler.update("movi r2, 1\nmovi r3, 1\nexit");
+        assertEquals(1, update.getLexedLines());
+        assertEquals("1-2", update.getChangedRanges());
+    }
+
+    @Test
+    void testNoChanges() throws InvalidAssemblyException
+    {
+        IncrementalAssembler assembler = new IncrementalAssembler();
+        assembler.update("movi r2, 1\nexit");
+        IncrementalAssembler.Update update = assembler.update("movi r2, 1\nexit");
+        assertEquals(0, update.getLexedLines());
+        assertEquals("none", update.getChangedRanges());
+    }
+
+    @Test
+    void testOptimize() throws InvalidAssemblyException
+    {
+        // Every update is optimized, the same as a full build
+        String input = "movia r2, 5\nnop\nbr end\nend: exit";
+        Assembly expected = FactorioAssembler.compile(input);
+        expected.optimize();
+        expected.applyLinker();
+
+        IncrementalAssembler assembler = new IncrementalAssembler(true);
+        assertSameProgram(expected, assembler.update(input).getAssembly());
+        IncrementalAssembler.Update update = assembler.update(input.replace("5", "6"));
+        assertEquals(expected.size(), update.getAssembly().size());
+        assertEquals("0", update.getChangedRanges());
+    }
+
+    @Test
+    void testInclude() throws Exception
+    {
+        // Included files are linked, and only assembled again when they change
+        Path directory = Files.createTempDirectory("incremental");
+        Path main = directory.resolve("main.s"), library = directory.resolve("lib.s");
+        try
+        {
+            ObjectCache cache = new ObjectCache(null);
+            ModuleLinker linker = new ModuleLinker(cache);
+            IncrementalAssembler assembler = new IncrementalAssembler();
+            Files.write(library, "A: movi r3, 1\n    ret\n".getBytes(StandardCharsets.UTF_8));
+            IncrementalAssembler.Update update = assembler.update(".include lib.s\ncall A\nexit", linker, main);
+            assertSameProgram(FactorioAssembler.build("call A\nexit\nA: movi r3, 1\n    ret\n"), update.getAssembly());
+
+            update = assembler.update(".include lib.s\ncall A\nmovi r2, 1\nexit", linker, main);
+            assertEquals("0-4", update.getChangedRanges());
+            assertEquals(1, cache.getAssembled());
+
+            Files.write(library, "A: movi r3, 2\n    ret\n".getBytes(StandardCharsets.UTF_8));
+            update = assembler.update(".include lib.s\ncall A\nmovi r2, 1\nexit", linker, main);
+            assertEquals(0, update.getLexedLines());
+            assertEquals("3", update.getChangedRanges());
+            assertEquals(2, cache.getAssembled());
+        }
+        finally
+        {
+            Files.deleteIfExists(library);
+            Files.delete(directory);
+        }
+    }
+
+    @TestOnly
+    private void assertSameProgram(Assembly expected, Assembly actual)
+    {
+        assertEquals(encode(expected), encode(actual));
+    }
+
+    @TestOnly
+    private List<Integer> encode(Assembly asm)
+    {
+        return asm.getInstructions().stream().map(IInstruction::getEncoded).collect(Collectors.toList());
+    }
+}
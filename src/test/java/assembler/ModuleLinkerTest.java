@@ -0,0 +1,196 @@
+package assembler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import assembler.asm.Assembly;
+import assembler.util.Diagnostic;
+import assembler.util.Helpers;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModuleLinkerTest
+{
+    private Path directory;
+
+    @BeforeEach
+    void setup() throws IOException
+    {
+        directory = Files.createTempDirectory("modules");
+    }
+
+    @AfterEach
+    void teardown() throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void testSubroutineLibrary() throws Exception
+    {
+        // The PrintString subroutine, assembled separately
+        String source = Helpers.loadResource("test_hello_world_subroutine.s");
+        int subroutine = source.indexOf("# Subroutine."), data = source.indexOf("# Program data.");
+        String main = source.substring(0, subroutine) + source.substring(data), library = source.substring(subroutine, data);
+
+        write("lib/print_string.s", library);
+        write("main.s", ".include lib/print_string.s\n" + main);
+        assertLinked(main + "\n" + library, directory.resolve("main.s"));
+    }
+
+    @Test
+    void testSymbolsAndMemory() throws Exception
+    {
+        // References in both directions, memory from both modules, a slice of a label in another module, and a branch which is relaxed because the library is out of range
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 40; i++)
+        {
+            padding.append("    addi r2, r2, 1\n");
+        }
+        String main = ".malloc COUNT, 4\n.include util.s\n    movia r2, TABLE\n    call Increment\n    beq r0, r0, Done\n" + padding + "Callback:\n    ret\n";
+        String util = "# Utilities\n.malloc SCRATCH, 2\n.include util.s\nIncrement:\n    movia r3, SCRATCH\n    stw r2, 0(r3)\n    call Callback\n    ori r4, r0, [5-0]Done\n    ret\nTABLE: .asciz abc\nDone:\n    exit\n";
+
+        write("main.s", main);
+        write("util.s", util);
+        Assembly asm = assertLinked(main.replace(".include util.s\n", "") + util.replace(".include util.s\n", ""), directory.resolve("main.s"));
+        assertTrue(asm.getRelaxedBranches() > 0);
+        assertEquals(6, asm.getMemory());
+    }
+
+    @Test
+    void testCache() throws Exception
+    {
+        write("main.s", ".include a.s\n.include b.s\n    call A\n    call B\n    exit\n");
+        write("a.s", "A: ret\n");
+        write("b.s", ".include a.s\nB: call A\n    ret\n");
+        Path cache = directory.resolve("cache");
+
+        ObjectCache first = new ObjectCache(cache);
+        int[] expected = new ModuleLinker(first).build(directory.resolve("main.s")).getImage().toArray();
+        assertEquals(2, first.getAssembled());
+        assertEquals(0, first.getReused());
+
+        // A new build only reads the object files
+        ObjectCache second = new ObjectCache(cache);
+        assertArrayEquals(expected, new ModuleLinker(second).build(directory.resolve("main.s")).getImage().toArray());
+        assertEquals(0, second.getAssembled());
+        assertEquals(2, second.getReused());
+
+        // Only the changed file is assembled again
+        write("b.s", ".include a.s\nB: call A\n    call A\n    ret\n");
+        ObjectCache third = new ObjectCache(cache);
+        assertEquals(expected.length + 1, new ModuleLinker(third).build(directory.resolve("main.s")).size());
+        assertEquals(1, third.getAssembled());
+        assertEquals(1, third.getReused());
+
+        // Object files which can't be read are assembled again
+        try (Stream<Path> objects = Files.list(cache))
+        {
+            objects.forEach(path -> {
+                try
+                {
+                    Files.write(path, new byte[] {1, 2, 3});
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        ObjectCache fourth = new ObjectCache(cache);
+        assertEquals(expected.length + 1, new ModuleLinker(fourth).build(directory.resolve("main.s")).size());
+        assertEquals(2, fourth.getAssembled());
+
+        // Object files from another build of the assembler are never reused
+        byte[] source = "A: ret\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(ObjectCache.key(source), ObjectCache.key(source, ObjectCache.BUILD_VERSION));
+        assertNotEquals(ObjectCache.key(source, "a"), ObjectCache.key(source, "b"));
+        assertFalse(ObjectCache.BUILD_VERSION.startsWith("unknown"));
+    }
+
+    @Test
+    void testBatch() throws Exception
+    {
+        // Every source in a batch shares the cache, so the library is only assembled once (with one thread, as two threads may both assemble it)
+        write("lib.s", "A: ret\n");
+        write("one.s", ".include lib.s\ncall A\nexit\n");
+        write("two.s", ".include lib.s\ncall A\ncall A\nexit\n");
+        ObjectCache cache = new ObjectCache(null);
+        List<BatchAssembler.Result> results = new BatchAssembler(false, false, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, false, 1, cache).assemble(Arrays.asList(directory.resolve("one.s"), directory.resolve("two.s")));
+        assertArrayEquals(FactorioAssembler.build("call A\nexit\nA: ret\n").getImage().toArray(), results.get(0).getAssembly().getImage().toArray());
+        assertArrayEquals(FactorioAssembler.build("call A\ncall A\nexit\nA: ret\n").getImage().toArray(), results.get(1).getAssembly().getImage().toArray());
+        assertEquals(1, cache.getAssembled());
+        assertEquals(1, cache.getReused());
+    }
+
+    @Test
+    void testErrors() throws Exception
+    {
+        assertEquals(Diagnostic.Code.UNLINKED_INCLUDE, assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(".include lib.s\nexit")).getCode());
+        assertEquals(Diagnostic.Code.INVALID_INCLUDE, assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(".include\nexit")).getCode());
+        assertEquals(Diagnostic.Code.INVALID_INCLUDE, assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(".include a.s, b.s\nexit")).getCode());
+
+        write("missing.s", ".include lib.s\nexit");
+        assertEquals(Diagnostic.Code.UNKNOWN_INCLUDE, assertThrows(InvalidAssemblyException.class, () -> build("missing.s")).getCode());
+
+        write("duplicate.s", ".include lib.s\nA: exit");
+        write("lib.s", "A: ret");
+        assertEquals(Diagnostic.Code.DUPLICATE_SYMBOL, assertThrows(InvalidAssemblyException.class, () -> build("duplicate.s")).getCode());
+
+        write("unknown.s", ".include broken.s\nexit");
+        write("broken.s", "call Nowhere");
+        assertEquals(Diagnostic.Code.UNKNOWN_SYMBOL, assertThrows(InvalidAssemblyException.class, () -> build("unknown.s")).getCode());
+
+        write("invalid.s", ".include bad.s\nexit");
+        write("bad.s", "foo r2");
+        InvalidAssemblyException e = assertThrows(InvalidAssemblyException.class, () -> build("invalid.s"));
+        assertEquals(Diagnostic.Code.UNKNOWN_INSTRUCTION, e.getCode());
+        assertTrue(e.getData().contains("Included File: " + directory.resolve("bad.s")));
+        assertEquals(directory.resolve("bad.s").toString(), e.getFile());
+        assertEquals("In included file " + directory.resolve("bad.s") + ": Unknown instruction: foo r2", e.getMessage());
+        assertEquals(1, e.getLine());
+
+        write("memory.s", ".malloc A, 40\n.include heap.s\nexit");
+        write("heap.s", ".malloc B, 40");
+        assertEquals(Diagnostic.Code.MEMORY_OVERFLOW, assertThrows(InvalidAssemblyException.class, () -> build("memory.s")).getCode());
+    }
+
+    @TestOnly
+    private Assembly assertLinked(String expectedSource, Path source) throws Exception
+    {
+        Assembly expected = FactorioAssembler.build(expectedSource);
+        Assembly linked = new ModuleLinker(new ObjectCache(null)).build(source);
+        assertArrayEquals(expected.getImage().toArray(), linked.getImage().toArray());
+        assertEquals(expected.getLabels(), linked.getLabels());
+        return linked;
+    }
+
+    @TestOnly
+    private Assembly build(String name) throws Exception
+    {
+        return new ModuleLinker(new ObjectCache(null)).build(directory.resolve(name));
+    }
+
+    @TestOnly
+    private void write(String name, String content) throws IOException
+    {
+        Path path = directory.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
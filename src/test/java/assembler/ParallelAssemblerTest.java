@@ -0,0 +1,82 @@
+package assembler;
+
+import assembler.asm.Assembly;
+import assembler.util.Helpers;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelAssemblerTest
+{
+    @Test
+    void testTestPrograms() throws Exception
+    {
+        for (String name : new String[] {"test1.s", "test2.s", "test_hello_world.s", "test_clear_display.s", "test_hello_world_subroutine.s", "test_keyboard.s", "test_input_output.s"})
+        {
+            assertIdentical(Helpers.loadResource(name));
+        }
+    }
+
+    @Test
+    void testLargeProgram() throws Exception
+    {
+        assertIdentical(program(40));
+    }
+
+    @Test
+    void testErrors()
+    {
+        // The first error in the source is reported, even if a later line fails to encode first
+        String input = program(20).replace("    subi    r5, r5, 1\n", "    subi    r5, r5, 99\n") + "\nfoo r2\n";
+        InvalidAssemblyException sequential = assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(input));
+        InvalidAssemblyException parallel = assertThrows(InvalidAssemblyException.class, () -> new ParallelAssembler(4, 16).build(input));
+        assertEquals(sequential.getMessage(), parallel.getMessage());
+        assertEquals(sequential.getColumn(), parallel.getColumn());
+        assertEquals(sequential.getData(), parallel.getData());
+
+        String duplicate = program(20) + "\nblock3: exit\n";
+        assertEquals(assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(duplicate)).getMessage(), assertThrows(InvalidAssemblyException.class, () -> new ParallelAssembler(4, 16).build(duplicate)).getMessage());
+    }
+
+    @TestOnly
+    private void assertIdentical(String input) throws InvalidAssemblyException
+    {
+        Assembly sequential = FactorioAssembler.build(input);
+        Assembly parallel = new ParallelAssembler(4, 4).build(input);
+        assertArrayEquals(sequential.getImage().toArray(), parallel.getImage().toArray());
+        assertEquals(sequential.toString(), parallel.toString());
+    }
+
+    /**
+     * A program with a string table, a memory allocation, and an unrolled display routine for each block, with forward and backward references
+     */
+    @TestOnly
+    private String program(int blocks)
+    {
+        StringBuilder builder = new StringBuilder("# Generated\n.malloc BUFFER, 16\n    movia   sp, LAST_RAM_LOC\n    br      main\n");
+        for (int block = 0; block < blocks; block++)
+        {
+            builder.append("text").append(block).append(": .asciz block ").append(block).append('\n');
+        }
+        builder.append("main:\n");
+        for (int block = 0; block < blocks; block++)
+        {
+            builder.append("block").append(block).append(":\n")
+                .append("    movia   r2, text").append(block).append("    # string\n")
+                .append("    movia   r3, CHAR_OUT_LOC\n")
+                .append("    movi    r5, 16\n")
+                .append("block").append(block).append("_loop:  ldw r4, 0(r2)\n")
+                .append("    stw     r4, 0(r3)\n")
+                .append("    subi    r5, r5, 1\n")
+                .append("    addi    r2, r2, 0x1\n")
+                .append("    bgt     r5, r0, block").append(block).append("_loop\n")
+                .append("    movia   r6, BUFFER\n")
+                .append("    stw     r5, 0(r6)\n")
+                .append("    bnz     r5, block").append(block + 1).append("\n");
+        }
+        builder.append("block").append(blocks).append(":\n    exit");
+        return builder.toString();
+    }
+}
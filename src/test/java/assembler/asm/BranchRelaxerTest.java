@@ -0,0 +1,205 @@
+package assembler.asm;
+
+import assembler.FactorioAssembler;
+import assembler.emulator.Emulator;
+import assembler.util.Diagnostic;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BranchRelaxerTest
+{
+    @Test
+    void testInRange() throws InvalidAssemblyException
+    {
+        Assembly asm = FactorioAssembler.build("beq r2, r3, END\n" + filler(30) + "END: exit\nret");
+        assertEquals(0, asm.getRelaxedBranches());
+        assertEquals(33, asm.size());
+        assertEquals("beq r2, r3, 30", Disassembler.disassemble(asm.getImage().getWord(0)));
+    }
+
+    @Test
+    void testLongJump() throws InvalidAssemblyException
+    {
+        // Nothing reads ra, so calls can be used as long jumps. The br is replaced by a call, and the other branches share it
+        String source = "beq r2, r3, END\nbgt r3, r2, END\nbr END\n" + filler(40) + "END: exit";
+        Assembly asm = FactorioAssembler.build(source);
+        assertEquals(3, asm.getRelaxedBranches());
+        assertEquals(44, asm.size());
+        assertEquals("beq r2, r3, 1", Disassembler.disassemble(asm.getImage().getWord(0)));
+        assertEquals("bgt r3, r2, 0", Disassembler.disassemble(asm.getImage().getWord(1)));
+        assertEquals("call 40", Disassembler.disassemble(asm.getImage().getWord(2)));
+
+        // Conditional branches are inverted, or skip over the call
+        asm = FactorioAssembler.build("beq r2, r3, END\nbgt r3, r2, END\n" + filler(40) + "END: exit");
+        assertEquals("bne r2, r3, 1", Disassembler.disassemble(asm.getImage().getWord(0)));
+        assertEquals(InstructionType.CALL, asm.getImage().getType(1));
+        assertEquals("bgt r3, r2, 1", Disassembler.disassemble(asm.getImage().getWord(2)));
+        assertEquals("beq r0, r0, 1", Disassembler.disassemble(asm.getImage().getWord(3)));
+        assertEquals(InstructionType.CALL, asm.getImage().getType(4));
+        assertEquals(46, asm.size());
+        assertEquals(0, run(source).getRegister(4));
+        assertEquals(0, run("movi r2, 1\n" + source).getRegister(4));
+    }
+
+    @Test
+    void testTrampoline() throws InvalidAssemblyException
+    {
+        // The instruction after exit is never executed, so the trampoline is placed there
+        String source = "beq r2, r3, END\nexit\n" + filler(31) + "END: addi r5, r0, 1\nexit\nret";
+        Assembly asm = FactorioAssembler.build(source);
+        assertEquals(1, asm.getRelaxedBranches());
+        assertEquals(37, asm.size());
+        assertEquals("beq r2, r3, 1", Disassembler.disassemble(asm.getImage().getWord(0)));
+        assertEquals("beq r0, r0, 31", Disassembler.disassemble(asm.getImage().getWord(2)));
+        assertEquals(1, run(source).getRegister(5));
+        assertEquals(0, run("movi r2, 1\n" + source).getRegister(5));
+    }
+
+    @Test
+    void testSkippedTrampoline() throws InvalidAssemblyException
+    {
+        // With no unreachable instructions, trampolines are placed with a branch over them
+        for (int length : new int[] {40, 100})
+        {
+            String source = "movi r2, 3\nLOOP: subi r2, r2, 1\n" + filler(length) + "bgt r2, r0, LOOP\nbeq r2, r0, END\n" + filler(length) + "END: exit\nret";
+            Assembly asm = FactorioAssembler.build(source);
+            assertTrue(asm.getRelaxedBranches() >= 2);
+            assertAllInRange(asm);
+            assertEquals(3 * length, run(source).getRegister(4));
+        }
+    }
+
+    @Test
+    void testSharedTrampoline() throws InvalidAssemblyException
+    {
+        // The second branch can use the trampoline created for the first
+        String source = "beq r2, r3, END\nbne r2, r4, END\nexit\n" + filler(30) + "END: addi r5, r0, 1\nexit\nret";
+        Assembly asm = FactorioAssembler.build(source);
+        assertEquals(2, asm.getRelaxedBranches());
+        assertEquals(37, asm.size());
+        assertEquals(1, run(source).getRegister(5));
+        assertEquals(1, run("movi r2, 1\n" + source).getRegister(5));
+    }
+
+    @Test
+    void testTrampolineChain() throws InvalidAssemblyException
+    {
+        // With ret, calls can't be used, so both branches of the loop need trampolines, and neither may push the other out of range
+        for (int length : new int[] {40, 100})
+        {
+            String source = "call S\nexit\nS: addi r3, r3, 1\nbeq r3, r0, Z\n" + filler(length) + "Z: movi r6, 3\nblt r3, r6, S\nret";
+            Assembly asm = FactorioAssembler.build(source);
+            assertEquals(2, asm.getRelaxedBranches());
+            assertAllInRange(asm);
+
+            Emulator emulator = run(source);
+            assertEquals(3, emulator.getRegister(3));
+            assertEquals(3 * length, emulator.getRegister(4));
+        }
+    }
+
+    @Test
+    void testTrampolineData() throws InvalidAssemblyException
+    {
+        // Trampolines are placed either side of data, but never inside it
+        String source = "beq r2, r3, END\n" + filler(20) + "br SKIP\nMSG: .asciz " + "a".repeat(20) + "\nSKIP: " + filler(20) + "exit\nEND: addi r5, r0, 1\nexit\nret";
+        Assembly asm = FactorioAssembler.build(source);
+        assertEquals(1, asm.getRelaxedBranches());
+        assertAllInRange(asm);
+        int address = asm.getLabels().get("MSG");
+        for (int i = 0; i <= 20; i++)
+        {
+            assertNull(asm.getImage().getType(address + i));
+        }
+
+        Emulator emulator = run(source);
+        assertEquals(1, emulator.getRegister(5));
+        assertEquals(0, emulator.getRegister(4));
+        emulator = run("movi r2, 1\n" + source);
+        assertEquals(0, emulator.getRegister(5));
+        assertEquals(40, emulator.getRegister(4));
+    }
+
+    @Test
+    void testUnbridgeableData() throws InvalidAssemblyException
+    {
+        // Without long jumps, there is nowhere to place a trampoline inside 32 or more words of data
+        String source = "call S\nexit\nS: br END\nMSG: .asciz " + "a".repeat(35) + "\nEND: movi r3, 1\n";
+        InvalidAssemblyException e = assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(source + "ret"));
+        assertEquals(Diagnostic.Code.UNBRIDGEABLE_BRANCH, e.getCode());
+        assertEquals("Unable to relax the branch at line 3 to END, as it would need to jump over 36 words of data at MSG", e.getMessage());
+
+        assertEquals(1, run(source + "exit").getRegister(3));
+        assertEquals(1, run("call S\nexit\nS: br END\nMSG: .asciz " + "a".repeat(20) + "\nEND: movi r3, 1\nret").getRegister(3));
+    }
+
+    @Test
+    void testOptimizedMovia() throws InvalidAssemblyException
+    {
+        // MSG is at 61 after the movia is shortened, and relaxing the branches pushes it past 63, so the movia is expanded again
+        String source = "movia r2, MSG\nbgt r3, r0, END\nbgt r3, r0, END2\n" + filler(55) + "END: addi r5, r5, 1\nEND2: exit\nret\nMSG: .asciz a";
+        Assembly asm = FactorioAssembler.compile(source);
+        assertTrue(asm.optimize().toString().contains("1 movia shortened"));
+        asm.applyLinker();
+        assertEquals(2, asm.getRelaxedBranches());
+        int address = asm.getLabels().get("MSG");
+        assertTrue(address > 63);
+        assertEquals("ori r2, r0, " + (address >> 6), Disassembler.disassemble(asm.getImage().getWord(0)));
+        assertEquals(InstructionType.LEFT_SHIFTI, asm.getImage().getType(1));
+        assertAllInRange(asm);
+
+        Emulator emulator = new Emulator(asm);
+        assertEquals(Emulator.Status.EXIT, emulator.run(100_000));
+        assertEquals(address, emulator.getRegister(2));
+        assertEquals('A', emulator.peek(address));
+    }
+
+    @Test
+    void testSymbolRange()
+    {
+        // A plain 6-bit reference to a label which is pushed past 63 by relaxing a branch
+        String source = "ori r2, r0, MSG\nbgt r3, r0, END\n" + filler(58) + "END: exit\nret\nMSG: .asciz a";
+        InvalidAssemblyException e = assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(source));
+        assertEquals(Diagnostic.Code.SYMBOL_RANGE, e.getCode());
+        assertEquals("Symbol MSG = 64 is out of range [0, 63] for the immediate at line 1", e.getMessage());
+
+        assertEquals(Diagnostic.Code.SYMBOL_RANGE, assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build("addi r2, r0, MSG\n" + filler(40) + "MSG: exit")).getCode());
+    }
+
+    @TestOnly
+    private Emulator run(String source) throws InvalidAssemblyException
+    {
+        Emulator emulator = new Emulator(FactorioAssembler.build(source));
+        assertEquals(Emulator.Status.EXIT, emulator.run(100_000));
+        return emulator;
+    }
+
+    @TestOnly
+    private void assertAllInRange(Assembly asm)
+    {
+        ProgramImage image = asm.getImage();
+        for (int address = 0; address < image.size(); address++)
+        {
+            InstructionType type = image.getType(address);
+            if (type != null && type.getType() == 4)
+            {
+                int target = Disassembler.target(address, image.getWord(address));
+                assertTrue(target >= 0 && target <= image.size(), "Address " + address);
+            }
+        }
+    }
+
+    @TestOnly
+    private String filler(int length)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            builder.append("addi r4, r4, 1\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package assembler.asm;
+
+import assembler.FactorioAssembler;
+import assembler.util.Helpers;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DisassemblerTest
+{
+    @Test
+    void testDecodeTable()
+    {
+        for (int word = 0; word < 1 << 16; word++)
+        {
+            assertEquals(InstructionType.decode(word), Disassembler.type(Disassembler.decode(word)));
+        }
+    }
+
+    @Test
+    void testInstructions() throws InvalidAssemblyException
+    {
+        assertDisassembles("add r2, r3, r4");
+        assertDisassembles("sub r7, r0, r1");
+        assertDisassembles("addi r2, r3, -5");
+        assertDisassembles("andi r2, r3, 63");
+        assertDisassembles("stw r2, -3(r5)");
+        assertDisassembles("ldw r1, 12(r7)");
+        assertDisassembles("ret");
+        assertDisassembles("break");
+        assertDisassembles("exit");
+
+        // Registers are always written as numbers
+        assertEquals("add r1, r7, r0", Disassembler.disassemble(FactorioAssembler.build("add ra, sp, r0").getImage().getWord(0)));
+
+        // Targets are written as offsets
+        assertEquals("beq r2, r3, -1", Disassembler.disassemble(FactorioAssembler.build("L: beq r2, r3, L").getImage().getWord(0)));
+        assertEquals("call 1", Disassembler.disassemble(FactorioAssembler.build("call L\nexit\nL: ret").getImage().getWord(0)));
+    }
+
+    @Test
+    void testListing() throws InvalidAssemblyException
+    {
+        ProgramImage image = FactorioAssembler.build("call SUB\nexit\nSUB: movi r2, 0\nLOOP: addi r2, r2, 1\nblt r2, r3, LOOP\nret").getImage();
+        String[] labels = Disassembler.labels(image);
+        assertEquals("SUB_2", labels[2]);
+        assertEquals("L_3", labels[3]);
+        assertNull(labels[0]);
+
+        String[] lines = Disassembler.listing(image).split("\n");
+        assertEquals(8, lines.length);
+        assertTrue(lines[0].endsWith("call SUB_2"));
+        assertEquals("SUB_2:", lines[2]);
+        assertTrue(lines[6].startsWith("  4 | "));
+        assertTrue(lines[6].endsWith("blt r2, r3, L_3"));
+    }
+
+    @Test
+    void testRoundTrip() throws Exception
+    {
+        // Programs without data must assemble to the same words from their disassembly
+        for (String fileName : new String[] {"test1.s", "test2.s", "test_keyboard.s"})
+        {
+            ProgramImage image = FactorioAssembler.build(Helpers.loadResource(fileName)).getImage();
+            StringBuilder source = new StringBuilder();
+            for (int address = 0; address < image.size(); address++)
+            {
+                source.append(Disassembler.disassemble(image.getWord(address))).append('\n');
+            }
+            assertArrayEquals(image.toArray(), FactorioAssembler.build(source.toString()).getImage().toArray(), fileName);
+        }
+    }
+
+    @TestOnly
+    private void assertDisassembles(String line) throws InvalidAssemblyException
+    {
+        ProgramImage image = FactorioAssembler.build(line).getImage();
+        assertEquals(line, Disassembler.disassemble(image.getWord(0)));
+    }
+}
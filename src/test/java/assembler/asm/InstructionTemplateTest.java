@@ -0,0 +1,91 @@
+package assembler.asm;
+
+import java.util.List;
+
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstructionTemplateTest
+{
+    @Test
+    void testMove() throws Exception
+    {
+        assertExpands(InstructionTemplate.MOV, "r2, r3", "add r2, r0, r3");
+        assertExpands(InstructionTemplate.MOVI, "r2, -5", "addi r2, r0, -5");
+        assertExpands(InstructionTemplate.MOVI_UNSIGNED, "r2, 63", "ori r2, r0, 63");
+        assertExpands(InstructionTemplate.SUBI, "sp, sp, 3", "addi sp, sp, -3");
+        assertExpands(InstructionTemplate.NOOP, "", "add r0, r0, r0");
+    }
+
+    @Test
+    void testMoveLong() throws Exception
+    {
+        assertExpands(InstructionTemplate.MOVI_LONG, "sp, 319", "ori sp, r0, 4", "lsi sp, sp, 6", "ori sp, sp, 63");
+
+        List<Instruction> symbolic = InstructionTemplate.MOVI_LONG.expand(0, "movia r2, MSG", new String[] {"r2", "MSG"});
+        assertEquals(3, symbolic.size());
+        assertEquals("MSG", symbolic.get(0).getSymbol());
+        assertEquals("MSG", symbolic.get(2).getSymbol());
+
+        assertEquals(SymbolSlice.HIGH, symbolic.get(0).getSlice());
+        assertEquals(SymbolSlice.LOW, symbolic.get(2).getSlice());
+
+        ProgramImage image = new ProgramImage();
+        for (Instruction inst : symbolic)
+        {
+            image.add(inst.getEncoded(), inst.getType(), 1, inst.getText());
+        }
+        image.relocate(0, 0b101100111, symbolic.get(0).getSlice());
+        image.relocate(2, 0b101100111, symbolic.get(2).getSlice());
+        assertEquals(parse("ori r2, r0, 5"), image.getWord(0));
+        assertEquals(parse("ori r2, r2, 39"), image.getWord(2));
+    }
+
+    @Test
+    void testBranches() throws Exception
+    {
+        assertExpands(InstructionTemplate.BREAK_GREATER_EQUAL, "r2, r3, 4", "blt r3, r2, 4");
+        assertExpands(InstructionTemplate.BREAK_LESS_EQUAL, "r2, r3, -4", "bgt r3, r2, -4");
+        assertExpands(InstructionTemplate.BREAK_ZERO, "r5, 2", "beq r5, r0, 2");
+        assertExpands(InstructionTemplate.BREAK_NOT_ZERO, "r5, 2", "bne r5, r0, 2");
+        assertExpands(InstructionTemplate.BREAK, "-1", "beq r0, r0, -1");
+    }
+
+    @Test
+    void testFails()
+    {
+        assertThrows(InvalidAssemblyException.class, () -> expand(InstructionTemplate.MOV, "r2, r9"));
+        assertThrows(InvalidAssemblyException.class, () -> expand(InstructionTemplate.MOVI, "r2, 32"));
+        assertThrows(InvalidAssemblyException.class, () -> expand(InstructionTemplate.SUBI, "r2, r2, 33"));
+    }
+
+    @TestOnly
+    private void assertExpands(InstructionTemplate template, String args, String... expected) throws InvalidAssemblyException
+    {
+        List<Instruction> result = expand(template, args);
+        assertEquals(expected.length, result.size());
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals(i, result.get(i).getLine());
+            assertEquals(parse(expected[i]), result.get(i).getEncoded(), expected[i]);
+        }
+    }
+
+    @TestOnly
+    private List<Instruction> expand(InstructionTemplate template, String args) throws InvalidAssemblyException
+    {
+        return template.expand(0, args, args.replaceAll(" ", "").split(","));
+    }
+
+    @TestOnly
+    private int parse(String input) throws InvalidAssemblyException
+    {
+        String[] parts = input.split(" ", 2);
+        InstructionType type = InstructionType.get(parts[0]);
+        assertNotNull(type);
+        return new Instruction(type, 0, input, parts[1].replaceAll(" ", "").split(",")).getEncoded();
+    }
+}
@@ -0,0 +1,92 @@
+package assembler.asm;
+
+import org.junit.jupiter.api.Test;
+
+import static assembler.asm.Lexer.TokenType.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LexerTest
+{
+    private final Lexer lexer = new Lexer();
+
+    @Test
+    void testInstruction()
+    {
+        assertEquals(7, lexer.tokenize("START: addi r2, r2, 1 # comment"));
+        assertTokens(LABEL, MNEMONIC, REGISTER, COMMA, REGISTER, COMMA, IMMEDIATE);
+        assertEquals("START", lexer.text(0));
+        assertEquals("addi", lexer.text(1));
+        assertEquals(2, lexer.value(2));
+        assertEquals("addi r2, r2, 1", lexer.textFrom(1));
+        assertArrayEquals(new String[] {"r2", "r2", "1"}, lexer.arguments(1));
+    }
+
+    @Test
+    void testMemoryOperand()
+    {
+        lexer.tokenize("ldw r3, -2 (sp)");
+        assertTokens(MNEMONIC, REGISTER, COMMA, IMMEDIATE, OPEN_PAREN, REGISTER, CLOSE_PAREN);
+        assertEquals(7, lexer.value(5));
+        assertArrayEquals(new String[] {"r3", "-2(sp)"}, lexer.arguments(0));
+    }
+
+    @Test
+    void testDirectives()
+    {
+        lexer.tokenize("MSG: .asciz Hello, World");
+        assertTokens(LABEL, DIRECTIVE, STRING);
+        assertTrue(lexer.isDirective(1, ".asciz"));
+        assertEquals("Hello, World", lexer.text(2));
+
+        lexer.tokenize(".malloc USER_INPUT, 8");
+        assertTokens(DIRECTIVE, SYMBOL, COMMA, IMMEDIATE);
+        assertArrayEquals(new String[] {"USER_INPUT", "8"}, lexer.arguments(0));
+    }
+
+    @Test
+    void testUnexpected()
+    {
+        // Characters which can't start an operand are single tokens, and the rest of the line is still scanned
+        assertEquals(7, lexer.tokenize("addi r1, r1, 1:"));
+        assertTokens(MNEMONIC, REGISTER, COMMA, REGISTER, COMMA, IMMEDIATE, UNEXPECTED);
+        assertEquals(":", lexer.text(6));
+        assertEquals(14, lexer.start(6));
+
+        lexer.tokenize("ldw r1, 0(r2):");
+        assertTokens(MNEMONIC, REGISTER, COMMA, IMMEDIATE, OPEN_PAREN, REGISTER, CLOSE_PAREN, UNEXPECTED);
+
+        lexer.tokenize("br END ::x");
+        assertTokens(MNEMONIC, SYMBOL, UNEXPECTED, UNEXPECTED, SYMBOL);
+
+        lexer.tokenize(".malloc A:, 2");
+        assertTokens(DIRECTIVE, SYMBOL, UNEXPECTED, COMMA, IMMEDIATE);
+    }
+
+    @Test
+    void testEmpty()
+    {
+        assertEquals(0, lexer.tokenize(""));
+        assertEquals(0, lexer.tokenize("    # only a comment"));
+        assertEquals(2, lexer.tokenize("a: b:"));
+        assertTokens(LABEL, LABEL);
+    }
+
+    @Test
+    void testRegisters()
+    {
+        assertEquals(0, Lexer.register("r0", 0, 2));
+        assertEquals(1, Lexer.register("ra", 0, 2));
+        assertEquals(7, Lexer.register("sp", 0, 2));
+        assertEquals(-1, Lexer.register("r8", 0, 2));
+        assertEquals(-1, Lexer.register("r10", 0, 3));
+    }
+
+    private void assertTokens(Lexer.TokenType... expected)
+    {
+        assertEquals(expected.length, lexer.size());
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i], lexer.type(i), "Token " + i);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package assembler.asm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import assembler.FactorioAssembler;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectModuleTest
+{
+    @Test
+    void testTestPrograms() throws Exception
+    {
+        // Every program, linked as a single module, is the same as the program assembled normally
+        for (String name : new String[] {"test1.s", "test2.s", "test_hello_world.s", "test_clear_display.s", "test_hello_world_subroutine.s", "test_keyboard.s", "test_input_output.s"})
+        {
+            String source = Helpers.loadResource(name);
+            Assembly expected = FactorioAssembler.build(source);
+            Assembly linked = new Assembly();
+            linked.addModule(roundTrip(ObjectModule.of(FactorioAssembler.compile(source))));
+            linked.applyLinker();
+            assertArrayEquals(expected.getImage().toArray(), linked.getImage().toArray());
+            assertEquals(expected.toString(), linked.toString());
+        }
+    }
+
+    @Test
+    void testRelocations() throws Exception
+    {
+        // Unresolved references are kept, with the slice of each reference
+        ObjectModule module = roundTrip(ObjectModule.of(FactorioAssembler.compile(".include lib.s\n.malloc BUFFER, 2\nmain: movia r2, MSG\nbr main\ncall Print\nMSG: .asciz hi")));
+        assertEquals("Object Module: 8 words, 2 words of memory, 3 symbols, 4 relocations, includes [lib.s]", module.toString());
+        assertEquals(SymbolSlice.HIGH, module.getRelocationSlice(0));
+        assertEquals(SymbolSlice.LOW, module.getRelocationSlice(1));
+        assertEquals(SymbolSlice.ALL, module.getRelocationSlice(3));
+        assertEquals("Print", module.getRelocationSymbol(3));
+
+        // Relocated after another module
+        Assembly assembly = new Assembly();
+        assembly.addModule(ObjectModule.of(FactorioAssembler.compile(".malloc HEAP, 3\nPrint: ret")));
+        assembly.addModule(module);
+        assembly.applyLinker();
+        assertEquals(Integer.valueOf(1), assembly.getLabels().get("main"));
+        assertEquals(Integer.valueOf(6), assembly.getLabels().get("MSG"));
+        assertEquals(5, assembly.getMemory());
+        assertArrayEquals(FactorioAssembler.build(".malloc HEAP, 3\nPrint: ret\n.malloc BUFFER, 2\nmain: movia r2, MSG\nbr main\ncall Print\nMSG: .asciz hi").getImage().toArray(), assembly.getImage().toArray());
+    }
+
+    @Test
+    void testInvalid()
+    {
+        assertThrows(IOException.class, () -> ObjectModule.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4})));
+        assertThrows(IOException.class, () -> ObjectModule.read(new ByteArrayInputStream(new byte[] {0x46, 0x41, 0x4F, 0x42, 0, 0, 0, 0})));
+    }
+
+    @TestOnly
+    private ObjectModule roundTrip(ObjectModule module) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        module.write(output);
+        return ObjectModule.read(new ByteArrayInputStream(output.toByteArray()));
+    }
+}
@@ -0,0 +1,98 @@
+package assembler.asm;
+
+import assembler.FactorioAssembler;
+import assembler.emulator.Emulator;
+import assembler.util.Helpers;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptimizerTest
+{
+    @Test
+    void testMovia() throws InvalidAssemblyException
+    {
+        Assembly asm = optimize("movia r2, 5\nmovia r3, 1000\nmovia r4, MSG\nexit\nMSG: .asciz HI");
+        assertEquals("ori r2, r0, 5", disassemble(asm, 0));
+        assertEquals("ori r3, r0, 15", disassemble(asm, 1));
+        assertEquals("ori r4, r0, 6", disassemble(asm, 4));
+        assertEquals(InstructionType.EXIT, asm.getImage().getType(5));
+        assertEquals('H', asm.getImage().getWord(6));
+    }
+
+    @Test
+    void testThreading() throws InvalidAssemblyException
+    {
+        Assembly asm = optimize("beq r2, r3, A\nexit\nA: br B\nnop\nB: addi r2, r2, 1\nL: br M\nM: br L");
+        assertEquals("beq r2, r3, 1\nexit\naddi r2, r2, 1\nbeq r0, r0, -1\n", listing(asm));
+    }
+
+    @Test
+    void testDeadInstructions() throws InvalidAssemblyException
+    {
+        Assembly asm = optimize("nop\nadd r0, r2, r3\nmov r2, r2\naddi r3, r3, 0\nmuli r4, r4, 1\nori r5, r5, 0\nbeq r2, r3, 0\naddi r3, r3, 1\nexit");
+        assertEquals("addi r3, r3, 1\nexit\n", listing(asm));
+    }
+
+    @Test
+    void testStrengthReduction() throws InvalidAssemblyException
+    {
+        Assembly asm = optimize("muli r3, r2, 4\ndivi r4, r2, 16\nmuli r5, r2, 3\ndivi r6, r2, -2\nexit");
+        assertEquals("lsi r3, r2, 2\nrsi r4, r2, 4\nmuli r5, r2, 3\ndivi r6, r2, -2\nexit\n", listing(asm));
+    }
+
+    @Test
+    void testLiteralOffsets() throws InvalidAssemblyException
+    {
+        // Branches with a numeric offset, which must still reach the same instruction
+        Assembly asm = optimize("bne r2, r0, 3\nnop\naddi r2, r2, 1\nnop\nexit");
+        assertEquals("bne r2, r0, 1\naddi r2, r2, 1\nexit\n", listing(asm));
+        asm = optimize("movi r2, 3\nsubi r2, r2, 1\nnop\nbne r2, r0, -3\nexit");
+        assertEquals("addi r2, r0, 3\naddi r2, r2, -1\nbne r2, r0, -2\nexit\n", listing(asm));
+    }
+
+    @Test
+    void testPrograms() throws Exception
+    {
+        // Optimized programs must produce the same output, in no more instructions. Registers and the stack may hold ROM addresses, which are expected to change
+        for (String fileName : new String[] {"test1.s", "test2.s", "test_clear_display.s", "test_hello_world.s", "test_hello_world_subroutine.s", "test_input_output.s"})
+        {
+            String source = Helpers.loadResource(fileName);
+            Emulator expected = new Emulator(FactorioAssembler.build(source));
+            Emulator actual = new Emulator(optimize(source));
+            expected.type("Bob\n");
+            actual.type("Bob\n");
+            assertEquals(expected.run(100_000), actual.run(100_000), fileName);
+            assertEquals(expected.getDisplay(), actual.getDisplay(), fileName);
+            assertTrue(actual.getInstructionCount() <= expected.getInstructionCount(), fileName);
+        }
+    }
+
+    @TestOnly
+    private Assembly optimize(String source) throws InvalidAssemblyException
+    {
+        Assembly asm = FactorioAssembler.compile(source);
+        asm.optimize();
+        asm.applyLinker();
+        return asm;
+    }
+
+    @TestOnly
+    private String disassemble(Assembly asm, int address)
+    {
+        return Disassembler.disassemble(asm.getImage().getWord(address));
+    }
+
+    @TestOnly
+    private String listing(Assembly asm)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int address = 0; address < asm.size(); address++)
+        {
+            builder.append(disassemble(asm, address)).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package assembler.asm;
+
+import java.util.List;
+
+import assembler.FactorioAssembler;
+import assembler.util.InvalidAssemblyException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgramImageTest
+{
+    @Test
+    void testImage() throws InvalidAssemblyException
+    {
+        Assembly asm = FactorioAssembler.build("movia r2, MSG\nexit\nMSG: .asciz HI");
+        ProgramImage image = asm.getImage();
+        assertEquals(7, image.size());
+        assertArrayEquals(new int[] {16397, 18542, 18509, 32784, 72, 73, 0}, image.toArray());
+
+        assertEquals(InstructionType.ORI, image.getType(0));
+        assertEquals(InstructionType.EXIT, image.getType(3));
+        assertNull(image.getType(4));
+        assertEquals(1, image.getSourceLine(2));
+        assertEquals(3, image.getSourceLine(6));
+    }
+
+    @Test
+    void testRelocations() throws InvalidAssemblyException
+    {
+        // Only the words which reference a symbol have a relocation, in order of address
+        ProgramImage image = FactorioAssembler.build("movia r2, MSG\nbr END\nEND: exit\nMSG: .asciz HI").getImage();
+        assertEquals(3, image.getRelocationCount());
+        assertEquals(0, image.getRelocationAddress(0));
+        assertEquals(SymbolSlice.HIGH, image.getRelocationSlice(0));
+        assertEquals(2, image.getRelocationAddress(1));
+        assertEquals(SymbolSlice.LOW, image.getRelocationSlice(1));
+        assertEquals(3, image.getRelocationAddress(2));
+        assertEquals(-1, image.getSymbol(1));
+        assertEquals(image.getRelocationSymbol(2), image.getSymbol(3));
+
+        // Relocations and statement texts move with their words
+        image.insert(1, InstructionType.BR_EQUAL.opcode, InstructionType.BR_EQUAL, 1, "br 0");
+        assertEquals(3, image.getRelocationAddress(1));
+        assertEquals(4, image.getRelocationAddress(2));
+        assertEquals("movia r2, MSG", image.getText(0));
+        assertEquals("br 0", image.getText(1));
+        assertEquals("movia r2, MSG", image.getText(2));
+        assertEquals("br END", image.getText(4));
+        assertNull(image.getText(5));
+
+        boolean[] removed = new boolean[image.size()];
+        removed[1] = removed[3] = true;
+        image.remove(removed);
+        assertEquals(2, image.getRelocationCount());
+        assertEquals(0, image.getRelocationAddress(0));
+        assertEquals(2, image.getRelocationAddress(1));
+        assertEquals("movia r2, MSG", image.getText(1));
+        assertEquals("br END", image.getText(2));
+
+        image.setSymbol(2, -1, SymbolSlice.ALL);
+        assertEquals(1, image.getRelocationCount());
+        assertFalse(image.isShortened(0));
+        image.setShortened(0, true);
+        assertTrue(image.isShortened(0));
+        assertThrows(IllegalArgumentException.class, () -> image.setShortened(1, true));
+    }
+
+    @Test
+    void testViews() throws InvalidAssemblyException
+    {
+        Assembly asm = FactorioAssembler.build("add r2, r3, r4\nexit\n.asciz A");
+        List<IInstruction> instructions = asm.getInstructions();
+        assertEquals(4, instructions.size());
+        assertEquals("[add] add r2, r3, r4", instructions.get(0).toString());
+        assertEquals("[exit]", instructions.get(1).toString());
+        assertEquals("[asciz]", instructions.get(2).toString());
+        assertEquals(65, instructions.get(2).getEncoded());
+        assertEquals(3, instructions.get(3).getLine());
+
+        assertNotNull(asm.getInstruction(3));
+        assertNull(asm.getInstruction(4));
+        assertThrows(IndexOutOfBoundsException.class, () -> instructions.get(4));
+    }
+}
@@ -0,0 +1,55 @@
+package assembler.asm;
+
+import assembler.FactorioAssembler;
+import assembler.util.InvalidAssemblyException;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTableTest
+{
+    @Test
+    void testForwardReference() throws InvalidAssemblyException
+    {
+        ProgramImage image = new ProgramImage();
+        SymbolTable table = new SymbolTable(image);
+        for (int address = 0; address < 3; address++)
+        {
+            image.add(InstructionType.BR_EQUAL.opcode, InstructionType.BR_EQUAL, address + 1, null);
+        }
+        table.reference("END", 0, SymbolSlice.ALL, 1);
+        table.reference("END", 1, SymbolSlice.ALL, 2);
+        assertEquals(InstructionType.BR_EQUAL.opcode, image.getWord(0));
+
+        // Branch offsets are relative to the next instruction
+        table.define("END", 4, 4);
+        assertEquals(InstructionType.BR_EQUAL.opcode | (3 << 4), image.getWord(0));
+        assertEquals(InstructionType.BR_EQUAL.opcode | (2 << 4), image.getWord(1));
+
+        table.reference("END", 2, SymbolSlice.ALL, 3);
+        assertEquals(InstructionType.BR_EQUAL.opcode | (1 << 4), image.getWord(2));
+        table.checkResolved();
+        assertEquals("{END=4}", table.toString());
+    }
+
+    @Test
+    void testDuplicateSymbol()
+    {
+        assertEquals("Duplicate symbol LOOP at line 3, previously defined at line 1", error("LOOP: movi r2, 1\nbr LOOP\nLOOP: exit"));
+        assertEquals("Duplicate symbol CHAR_IN_LOC at line 1, which is a built in symbol", error("CHAR_IN_LOC: exit"));
+    }
+
+    @Test
+    void testUnknownSymbol()
+    {
+        assertEquals("Unknown symbol END at line 1", error("br END\nexit"));
+        assertEquals("Unknown symbol END at lines 1, 3", error("br END\nmovi r2, 1\nbeq r2, r0, END\nexit"));
+    }
+
+    @TestOnly
+    private String error(String input)
+    {
+        return assertThrows(InvalidAssemblyException.class, () -> FactorioAssembler.build(input)).getMessage();
+    }
+}
@@ -0,0 +1,73 @@
+package assembler.blueprint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import assembler.FactorioAssembler;
+import assembler.asm.Assembly;
+import assembler.util.Helpers;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlueprintCodecTest
+{
+    @Test
+    void testRoundTrip() throws Exception
+    {
+        Assembly asm = FactorioAssembler.build(Helpers.loadResource("test_hello_world.s"));
+        int blocks = RomBlueprint.blocks(asm.size());
+        byte[] json = new byte[RomBlueprint.maxLength(blocks)];
+        int length = RomBlueprint.fill(asm.getImage(), blocks, json);
+
+        for (int level = 0; level <= 9; level++)
+        {
+            for (int strategy : new int[] {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY})
+            {
+                BlueprintCodec codec = new BlueprintCodec(level, strategy);
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                codec.encode(asm, encoded);
+                assertEquals('0', encoded.toByteArray()[0]);
+
+                ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+                codec.decode(new ByteArrayInputStream(encoded.toByteArray()), decoded);
+                assertEquals(new String(json, 0, length, StandardCharsets.UTF_8), decoded.toString(StandardCharsets.UTF_8));
+                codec.end();
+            }
+        }
+    }
+
+    @Test
+    void testCodecReuse() throws Exception
+    {
+        Assembly asm = FactorioAssembler.build(Helpers.loadResource("test_keyboard.s"));
+        String expected = Blueprints.encode(asm);
+        BlueprintCodec codec = new BlueprintCodec();
+        for (int i = 0; i < 3; i++)
+        {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Blueprints.encode(asm, codec, output);
+            assertEquals(expected, output.toString(StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void testDecode() throws Exception
+    {
+        Assembly asm = FactorioAssembler.build(Helpers.loadResource("test1.s"));
+        String json = Blueprints.decode(Blueprints.encode(asm));
+        assertNotNull(json);
+        assertTrue(json.startsWith("{\"blueprint\":"));
+        assertNull(Blueprints.decode("0notablueprint"));
+        assertNull(Blueprints.decode("1"));
+    }
+
+    @Test
+    void testInvalidSettings()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new BlueprintCodec(10, Deflater.DEFAULT_STRATEGY));
+        assertThrows(IllegalArgumentException.class, () -> new BlueprintCodec(5, 7));
+    }
+}
@@ -0,0 +1,83 @@
+package assembler.blueprint;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import assembler.FactorioAssembler;
+import assembler.asm.Assembly;
+import assembler.asm.InstructionType;
+import assembler.asm.ProgramImage;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlueprintScannerTest
+{
+    @Test
+    void testRoundTrip() throws Exception
+    {
+        for (String fileName : new String[] {"test1.s", "test_hello_world.s", "test_input_output.s", "test_keyboard.s"})
+        {
+            Assembly asm = FactorioAssembler.build(Helpers.loadResource(fileName));
+            ProgramImage image = Blueprints.importImage(Blueprints.encode(asm));
+            assertNotNull(image);
+            assertEquals(RomBlueprint.blocks(asm.size()) * RomBlueprint.WORDS_PER_BLOCK, image.size());
+            assertEquals(-1, asm.getImage().firstDifference(image));
+        }
+    }
+
+    @Test
+    void testTemplate() throws Exception
+    {
+        // The original templates are formatted, and have a different key order to the generated blueprints
+        String json = Helpers.loadResource("256w_rom_blueprint.json");
+        for (int address = 255; address >= 0; address--)
+        {
+            json = json.replace("\"MEMORY_VALUE_" + address + "\"", Integer.toString(1000 + address));
+        }
+        ProgramImage image = scan(json);
+        assertEquals(256, image.size());
+        for (int address = 0; address < 256; address++)
+        {
+            assertEquals(1000 + address, image.getWord(address));
+        }
+    }
+
+    @Test
+    void testOrder() throws Exception
+    {
+        // Combinators are ordered by position, and words by signal, regardless of the order they are in the json
+        String json = "{\"blueprint\":{\"entities\":[" +
+            "{\"name\":\"constant-combinator\",\"position\":{\"x\":0,\"y\":2.5},\"control_behavior\":{\"filters\":[{\"count\":7,\"signal\":{\"name\":\"signal-1\",\"type\":\"virtual\"}}]}}," +
+            "{\"name\":\"small-lamp\",\"position\":{\"x\":1,\"y\":0},\"control_behavior\":{\"filters\":[{\"signal\":{\"name\":\"iron-plate\"},\"count\":100000}]}}," +
+            "{\"position\":{\"x\":0,\"y\":-1.5},\"control_behavior\":{\"filters\":[{\"signal\":{\"type\":\"virtual\",\"name\":\"signal-F\"},\"count\":32784,\"index\":1}]},\"name\":\"constant-combinator\"}" +
+            "],\"label\":\"name \\\"with\\\" quotes\"}}";
+        ProgramImage image = scan(json);
+        assertEquals(32, image.size());
+        assertEquals(32784, image.getWord(15));
+        assertEquals(InstructionType.EXIT, image.getType(15));
+        assertEquals(7, image.getWord(17));
+        assertEquals(0, image.getWord(16));
+    }
+
+    @Test
+    void testInvalid()
+    {
+        assertThrows(IOException.class, () -> scan("{\"blueprint\":{\"entities\":["));
+        assertThrows(IOException.class, () -> scan("]"));
+        assertThrows(IOException.class, () -> scan("{\"entities\":[{\"name\":\"constant-combinator\",\"control_behavior\":{\"filters\":[{\"signal\":{\"name\":\"signal-G\"},\"count\":1}]}}]}"));
+        assertThrows(IOException.class, () -> scan("{\"entities\":[{\"name\":\"constant-combinator\",\"control_behavior\":{\"filters\":[{\"signal\":{\"name\":\"signal-1\"},\"count\":-1}]}}]}"));
+        assertThrows(IOException.class, () -> scan("{\"entities\":[{\"name\":\"constant-combinator\",\"control_behavior\":{\"filters\":[{\"signal\":{\"name\":\"signal-1\"},\"count\":65536}]}}]}"));
+        assertNull(Blueprints.importImage("0notablueprint"));
+    }
+
+    @TestOnly
+    private ProgramImage scan(String json) throws IOException
+    {
+        BlueprintScanner scanner = new BlueprintScanner();
+        scanner.write(json.getBytes(StandardCharsets.UTF_8));
+        return scanner.finish();
+    }
+}
@@ -0,0 +1,39 @@
+package assembler.blueprint;
+
+import java.nio.charset.StandardCharsets;
+
+import assembler.FactorioAssembler;
+import assembler.asm.Assembly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlueprintTemplateTest
+{
+    @Test
+    void testFill() throws Exception
+    {
+        BlueprintTemplate template = new BlueprintTemplate("{\"a\":\"MEMORY_VALUE_1\",\"b\":\"MEMORY_VALUE_0\",\"c\":\"MEMORY_VALUE_2\"}");
+        assertEquals(3, template.size());
+
+        Assembly asm = FactorioAssembler.build("movi r2, 2\nexit");
+        byte[] output = new byte[template.maxLength()];
+        int length = template.fill(asm, output);
+        assertEquals("{\"a\":32784,\"b\":16425,\"c\":0}", new String(output, 0, length, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testMalformed()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new BlueprintTemplate("{\"a\":\"MEMORY_VALUE_\"}"));
+        assertThrows(IllegalArgumentException.class, () -> new BlueprintTemplate("{\"a\":\"MEMORY_VALUE_1}"));
+    }
+
+    @Test
+    void testCompact()
+    {
+        byte[] json = "{\n\t\"a\": [1, 2],\r\n  \"b\": \"x\"\n}".getBytes(StandardCharsets.UTF_8);
+        int length = BlueprintTemplate.compact(json);
+        assertEquals("{\"a\":[1,2],\"b\":\"x\"}", new String(json, 0, length, StandardCharsets.UTF_8));
+    }
+}
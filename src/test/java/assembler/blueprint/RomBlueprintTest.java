@@ -0,0 +1,82 @@
+package assembler.blueprint;
+
+import java.nio.charset.StandardCharsets;
+
+import assembler.FactorioAssembler;
+import assembler.asm.Assembly;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RomBlueprintTest
+{
+    @Test
+    void testBlocks()
+    {
+        assertEquals(1, RomBlueprint.blocks(0));
+        assertEquals(1, RomBlueprint.blocks(64));
+        assertEquals(2, RomBlueprint.blocks(65));
+        assertEquals(3, RomBlueprint.blocks(129));
+        assertEquals(4, RomBlueprint.blocks(256));
+        assertEquals(5, RomBlueprint.blocks(257));
+    }
+
+    @Test
+    void testMatchesTemplates() throws Exception
+    {
+        // The original hand made templates are the same layout, for two and four blocks. The smaller one also had an arithmetic combinator icon
+        Assembly asm = FactorioAssembler.build(Helpers.loadResource("test_input_output.s"));
+        String icons = "{\"signal\":{\"type\":\"item\",\"name\":\"arithmetic-combinator\"},\"index\":1},{\"signal\":{\"type\":\"item\",\"name\":\"constant-combinator\"},\"index\":2}";
+        assertEquals(template("128w_rom_blueprint.json", asm).replace(icons, "{\"signal\":{\"type\":\"item\",\"name\":\"constant-combinator\"},\"index\":1}"), generate(asm, 2));
+        assertEquals(template("256w_rom_blueprint.json", asm), generate(asm, 4));
+    }
+
+    @Test
+    void testLayout() throws Exception
+    {
+        Assembly asm = FactorioAssembler.build("exit");
+        String json = generate(asm, 1);
+        assertTrue(json.contains("\"entity_number\":4,"));
+        assertFalse(json.contains("\"entity_number\":5,"));
+        assertTrue(json.contains("\"position\":{\"x\":0,\"y\":-6}"));
+        assertTrue(json.contains("\"position\":{\"x\":0,\"y\":6}"));
+        assertTrue(json.contains("\"label\":\"128B-ROM-Template\""));
+        assertTrue(json.contains("\"count\":32784,\"index\":1}"));
+
+        // Blocks are centered, with a gap between them
+        json = generate(asm, 3);
+        assertTrue(json.contains("\"entity_number\":12,"));
+        assertTrue(json.contains("\"position\":{\"x\":0,\"y\":-24}"));
+        assertTrue(json.contains("\"position\":{\"x\":0,\"y\":-6}"));
+        assertTrue(json.contains("\"position\":{\"x\":0,\"y\":24}"));
+    }
+
+    @Test
+    void testEncodeSize() throws Exception
+    {
+        Assembly small = FactorioAssembler.build("exit");
+        String json = Blueprints.decode(Blueprints.encode(small));
+        assertNotNull(json);
+        assertEquals(generate(small, 1), json);
+    }
+
+    @TestOnly
+    private String generate(Assembly asm, int blocks)
+    {
+        byte[] output = new byte[RomBlueprint.maxLength(blocks)];
+        int length = RomBlueprint.fill(asm.getImage(), blocks, output);
+        return new String(output, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    @TestOnly
+    private String template(String fileName, Assembly asm)
+    {
+        byte[] json = Helpers.loadResource(fileName).getBytes(StandardCharsets.UTF_8);
+        BlueprintTemplate template = new BlueprintTemplate(new String(json, 0, BlueprintTemplate.compact(json), StandardCharsets.UTF_8));
+        byte[] output = new byte[template.maxLength()];
+        int length = template.fill(asm, output);
+        return new String(output, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package assembler.emulator;
+
+import assembler.FactorioAssembler;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmulatorTest
+{
+    @Test
+    void testArithmetic() throws Exception
+    {
+        Emulator emulator = load("test1.s");
+        assertEquals(Emulator.Status.LIMIT, emulator.run(9));
+        assertEquals(25, emulator.getRegister(4));
+        assertEquals(5, emulator.getRegister(5));
+        assertEquals(5, emulator.getRegister(6));
+        assertEquals(124, emulator.getRegister(7));
+    }
+
+    @Test
+    void testTruncation() throws Exception
+    {
+        Emulator emulator = new Emulator(FactorioAssembler.build("subi r2, r0, 1\nmovia r3, 1000\nmul r4, r3, r3\ndivi r5, r2, 0\nexit"));
+        assertEquals(Emulator.Status.EXIT, emulator.run(100));
+        assertEquals(0xFFFF, emulator.getRegister(2));
+        assertEquals((1000 * 1000) & 0xFFFF, emulator.getRegister(4));
+        assertEquals(0, emulator.getRegister(5));
+        assertEquals(0, emulator.getRegister(0));
+    }
+
+    @Test
+    void testBranches() throws Exception
+    {
+        Emulator emulator = load("test2.s");
+        assertEquals(Emulator.Status.EXIT, emulator.run(1000));
+        assertEquals(4, emulator.getRegister(2));
+        assertEquals(5, emulator.getRegister(3));
+        assertEquals(14, emulator.getInstructionCount());
+    }
+
+    @Test
+    void testSubroutines() throws Exception
+    {
+        Emulator emulator = load("test_hello_world_subroutine.s");
+        assertEquals(Emulator.Status.EXIT, emulator.run(1000));
+        assertEquals("HELLO   WORLD   ", emulator.getDisplay());
+        assertEquals(319, emulator.getRegister(7));
+    }
+
+    @Test
+    void testKeyboard() throws Exception
+    {
+        Emulator emulator = load("test_input_output.s");
+        assertEquals(Emulator.Status.LIMIT, emulator.run(1000));
+
+        emulator.reset();
+        emulator.type("Bob\n");
+        assertEquals(Emulator.Status.EXIT, emulator.run(10_000));
+        assertEquals("HELLO,  BOB     ", emulator.getDisplay());
+        assertEquals('B', emulator.peek(256));
+    }
+
+    @Test
+    void testRomIsReadOnly() throws Exception
+    {
+        Emulator emulator = new Emulator(FactorioAssembler.build("movi r2, 5\nstw r2, 0(r0)\nldw r3, 0(r0)\nexit"));
+        assertEquals(Emulator.Status.EXIT, emulator.run(100));
+        assertEquals(emulator.peek(0), emulator.getRegister(3));
+        assertNotEquals(5, emulator.getRegister(3));
+    }
+
+    @TestOnly
+    private Emulator load(String fileName) throws Exception
+    {
+        return new Emulator(FactorioAssembler.build(Helpers.loadResource(fileName)));
+    }
+}
@@ -0,0 +1,83 @@
+package assembler.emulator;
+
+import java.util.Random;
+
+import assembler.FactorioAssembler;
+import assembler.asm.Assembly;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PredecodedEmulatorTest
+{
+    @Test
+    void testPrograms() throws Exception
+    {
+        for (String fileName : new String[] {"test1.s", "test2.s", "test_clear_display.s", "test_hello_world.s", "test_hello_world_subroutine.s", "test_input_output.s", "test_keyboard.s"})
+        {
+            Assembly asm = FactorioAssembler.build(Helpers.loadResource(fileName));
+            for (long limit : new long[] {1, 2, 3, 4, 10, 100, 100_000})
+            {
+                assertSameExecution(new Emulator(asm), new PredecodedEmulator(asm), limit, fileName);
+            }
+        }
+    }
+
+    @Test
+    void testFusion() throws Exception
+    {
+        PredecodedEmulator emulator = new PredecodedEmulator(FactorioAssembler.build("movia r2, 1000\nbr end\nnop\nend: exit"));
+        assertEquals(PredecodedEmulator.OP_LOAD_CONSTANT, emulator.ops[0]);
+        assertEquals(3, emulator.length[0]);
+        assertEquals(PredecodedEmulator.OP_JUMP, emulator.ops[3]);
+        assertEquals(PredecodedEmulator.OP_NOP, emulator.ops[4]);
+
+        assertEquals(Emulator.Status.EXIT, emulator.run(100));
+        assertEquals(1000, emulator.getRegister(2));
+        assertEquals(5, emulator.getInstructionCount());
+    }
+
+    @Test
+    void testBranchIntoFusedSequence() throws Exception
+    {
+        // Branches over the first instruction of a movia, which must not use the fused constant load
+        PredecodedEmulator emulator = new PredecodedEmulator(FactorioAssembler.build("movi r2, 1\nbr 1\nmovia r2, 1000\nexit"));
+        assertEquals(Emulator.Status.EXIT, emulator.run(100));
+        assertEquals((1 << 6) | (1000 & 0b111111), emulator.getRegister(2));
+    }
+
+    @Test
+    void testRandomPrograms()
+    {
+        Random random = new Random(1234);
+        for (int i = 0; i < 2000; i++)
+        {
+            int[] rom = new int[1 + random.nextInt(Emulator.ROM_SIZE)];
+            for (int j = 0; j < rom.length; j++)
+            {
+                rom[j] = random.nextInt(1 << 16);
+            }
+            assertSameExecution(new Emulator(rom), new PredecodedEmulator(rom), random.nextInt(1000), "Random program " + i);
+        }
+    }
+
+    @TestOnly
+    private void assertSameExecution(Emulator expected, Emulator actual, long limit, String message)
+    {
+        expected.type("bob\n");
+        actual.type("bob\n");
+        assertEquals(expected.run(limit), actual.run(limit), message);
+        assertEquals(expected.getPc(), actual.getPc(), message);
+        assertEquals(expected.getInstructionCount(), actual.getInstructionCount(), message);
+        for (int i = 0; i < 8; i++)
+        {
+            assertEquals(expected.getRegister(i), actual.getRegister(i), message);
+        }
+        for (int i = Emulator.RAM_START; i <= Emulator.KEYBOARD; i++)
+        {
+            assertEquals(expected.peek(i), actual.peek(i), message);
+        }
+    }
+}
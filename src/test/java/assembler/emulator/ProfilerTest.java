@@ -0,0 +1,82 @@
+package assembler.emulator;
+
+import java.util.Map;
+
+import assembler.FactorioAssembler;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfilerTest
+{
+    @Test
+    void testBranchCounts() throws Exception
+    {
+        Profiler profiler = load("test2.s");
+        assertEquals(Emulator.Status.EXIT, profiler.run(1000));
+        assertEquals(14, profiler.getInstructions());
+        assertEquals(14 * 80, profiler.getTicks());
+
+        assertEquals(1, profiler.getCount(0));
+        assertEquals(5, profiler.getCount(1));
+        assertEquals(5, profiler.getCount(2));
+        assertEquals(4, profiler.getTaken(2));
+        assertEquals(1, profiler.getNotTaken(2));
+        assertEquals(0, profiler.getTaken(4));
+        assertEquals(1, profiler.getNotTaken(4));
+        assertEquals(1, profiler.getCount(5));
+
+        Map<String, Long> labels = profiler.getLabelCounts();
+        assertEquals("[(start), START, MIDDLE, END]", labels.keySet().toString());
+        assertEquals(1, (long) labels.get("(start)"));
+        assertEquals(10, (long) labels.get("START"));
+        assertEquals(2, (long) labels.get("MIDDLE"));
+        assertEquals(1, (long) labels.get("END"));
+
+        String report = profiler.report();
+        assertTrue(report.startsWith("Executed 14 instructions (EXIT), about 1120 ticks (18.7 s) in game"));
+        assertTrue(report.contains("blt r2, r3, -2"));
+    }
+
+    @Test
+    void testFoldedStacks() throws Exception
+    {
+        Profiler profiler = load("test_hello_world_subroutine.s");
+        assertEquals(Emulator.Status.EXIT, profiler.run(1000));
+
+        StringBuilder builder = new StringBuilder();
+        profiler.writeFoldedStacks(builder);
+        String[] lines = builder.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("(start) "));
+        assertTrue(lines[1].startsWith("(start);PrintString "));
+        assertTrue(lines[2].startsWith("(start);PrintString;ps_loop "));
+
+        // Every instruction is in exactly one stack
+        long total = 0;
+        for (String line : lines)
+        {
+            total += Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertEquals(profiler.getInstructions(), total);
+        assertEquals(total, profiler.getLabelCounts().values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    void testLimit() throws Exception
+    {
+        Profiler profiler = new Profiler(FactorioAssembler.build("loop: br loop"));
+        assertEquals(Emulator.Status.LIMIT, profiler.run(100));
+        assertEquals(100, profiler.getCount(0));
+        assertEquals(100, profiler.getTaken(0));
+        assertEquals(100, (long) profiler.getLabelCounts().get("loop"));
+    }
+
+    @TestOnly
+    private Profiler load(String resource) throws Exception
+    {
+        return new Profiler(FactorioAssembler.build(Helpers.loadResource(resource)));
+    }
+}
@@ -0,0 +1,92 @@
+package assembler.emulator;
+
+import java.util.Random;
+
+import assembler.FactorioAssembler;
+import assembler.asm.Assembly;
+import assembler.util.Helpers;
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecompiledEmulatorTest
+{
+    @Test
+    void testPrograms() throws Exception
+    {
+        for (String fileName : new String[] {"test1.s", "test2.s", "test_clear_display.s", "test_hello_world.s", "test_hello_world_subroutine.s", "test_input_output.s", "test_keyboard.s"})
+        {
+            Assembly asm = FactorioAssembler.build(Helpers.loadResource(fileName));
+            for (long limit : new long[] {1, 2, 3, 4, 10, 100, 100_000})
+            {
+                assertSameExecution(new Emulator(asm), new RecompiledEmulator(asm), limit, fileName);
+            }
+        }
+    }
+
+    @Test
+    void testLeaders() throws Exception
+    {
+        int[] rom = Emulator.romOf(FactorioAssembler.build("movi r2, 3\nloop: subi r2, r2, 1\nbne r2, r0, loop\ncall end\nexit\nend: ret"));
+        boolean[] leaders = Recompiler.findLeaders(rom);
+        assertArrayEquals(new boolean[] {true, true, false, true, true, true}, leaders);
+    }
+
+    @Test
+    void testLoop() throws Exception
+    {
+        // 7 ^ 5 mod 1000, by repeated multiplication
+        RecompiledEmulator emulator = new RecompiledEmulator(FactorioAssembler.build("movi r2, 1\nmovi r3, 5\nloop: muli r2, r2, 7\nsubi r3, r3, 1\nbne r3, r0, loop\nmovia r4, 1000\nmod r2, r2, r4\nexit"));
+        assertEquals(Emulator.Status.EXIT, emulator.run(1000));
+        assertEquals(16807 % 1000, emulator.getRegister(2));
+        assertEquals(2 + 3 * 5 + 3 + 2, emulator.getInstructionCount());
+    }
+
+    @Test
+    void testReturnIntoBlock() throws Exception
+    {
+        // Returns to an address which is not the start of a basic block, which must be handled by the interpreter
+        Assembly asm = FactorioAssembler.build("movi r1, 3\nret\nmovi r2, 1\nmovi r3, 2\nexit");
+        assertFalse(Recompiler.findLeaders(Emulator.romOf(asm))[3]);
+
+        RecompiledEmulator emulator = new RecompiledEmulator(asm);
+        assertEquals(Emulator.Status.EXIT, emulator.run(100));
+        assertEquals(0, emulator.getRegister(2));
+        assertEquals(2, emulator.getRegister(3));
+        assertEquals(4, emulator.getInstructionCount());
+    }
+
+    @Test
+    void testRandomPrograms()
+    {
+        Random random = new Random(1234);
+        for (int i = 0; i < 500; i++)
+        {
+            int[] rom = new int[1 + random.nextInt(Emulator.ROM_SIZE)];
+            for (int j = 0; j < rom.length; j++)
+            {
+                rom[j] = random.nextInt(1 << 16);
+            }
+            assertSameExecution(new Emulator(rom), new RecompiledEmulator(rom), random.nextInt(1000), "Random program " + i);
+        }
+    }
+
+    @TestOnly
+    private void assertSameExecution(Emulator expected, Emulator actual, long limit, String message)
+    {
+        expected.type("bob\n");
+        actual.type("bob\n");
+        assertEquals(expected.run(limit), actual.run(limit), message);
+        assertEquals(expected.getPc(), actual.getPc(), message);
+        assertEquals(expected.getInstructionCount(), actual.getInstructionCount(), message);
+        for (int i = 0; i < 8; i++)
+        {
+            assertEquals(expected.getRegister(i), actual.getRegister(i), message);
+        }
+        for (int i = Emulator.RAM_START; i <= Emulator.KEYBOARD; i++)
+        {
+            assertEquals(expected.peek(i), actual.peek(i), message);
+        }
+    }
+}
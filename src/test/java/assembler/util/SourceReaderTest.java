@@ -0,0 +1,66 @@
+package assembler.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jetbrains.annotations.TestOnly;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourceReaderTest
+{
+    @Test
+    void testLineEndings() throws IOException
+    {
+        assertLines("a\nb\r\nc\rd", "a", "b", "c", "d");
+        assertLines("a\r\r\nb\n", "a", "", "b");
+        assertLines("\n\n", "", "");
+        assertLines("");
+    }
+
+    @Test
+    void testSpacingAndComments() throws IOException
+    {
+        assertLines("\tmovi \t r2,  3\t# comment  here", " movi r2, 3 ");
+        assertLines("#\n##\n# only a comment\nexit", "", "", "", "exit");
+    }
+
+    @Test
+    void testLineEndingAcrossBuffer() throws IOException
+    {
+        // The '\r' is the last character of the first buffer read, and the '\n' is the first of the next
+        char[] first = new char[8191];
+        Arrays.fill(first, 'a');
+        String line = new String(first);
+        assertLines(line + "\r\nb", line, "b");
+    }
+
+    @Test
+    void testLineNumbers() throws IOException
+    {
+        SourceReader reader = new SourceReader(new StringReader("a\r\nb\n\nc"));
+        assertEquals(0, reader.getLineNumber());
+        while (reader.readLine() != null) {}
+        assertEquals(4, reader.getLineNumber());
+        assertEquals(Arrays.asList("a", "b", "", "c"), Helpers.getLinesUnformatted("a\r\nb\n\nc"));
+    }
+
+    @TestOnly
+    private void assertLines(String input, String... expected) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        try (SourceReader reader = new SourceReader(new StringReader(input)))
+        {
+            CharSequence line;
+            while ((line = reader.readLine()) != null)
+            {
+                lines.add(line.toString());
+            }
+        }
+        assertEquals(Arrays.asList(expected), lines);
+    }
+}